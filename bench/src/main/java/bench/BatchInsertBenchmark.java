@@ -0,0 +1,71 @@
+package bench;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inserting new books with LibraryService.putBooks (one batch and one transaction per
+ * call) at several batch sizes, in books per second
+ * Every invocation inserts BOOKS new books in BOOKS / batchSize calls, they are
+ * numbered after the catalog and deleted at the end of the trial
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BatchInsertBenchmark {
+    static final int BOOKS = 1000;
+    static final long FIRST = 5_000_000_000L; // Book numbers of the inserted books, far after the catalog
+
+    @Param({"1", "10", "100", "1000"})
+    public int batchSize;
+
+    final AtomicLong next = new AtomicLong();
+
+    @Benchmark
+    @OperationsPerInvocation(BOOKS)
+    public void putBooks(Database db) throws Throwable {
+        List<Object> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < BOOKS; i++) {
+            long n = next.getAndIncrement();
+            batch.add(Database.book(FIRST - Database.FIRST_BOOK + n));
+            if (batch.size() == batchSize) {
+                Library.putBooks(db.service, batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            Library.putBooks(db.service, batch);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(Database db) throws Throwable {
+        try (Connection conn = db.connect();
+             PreparedStatement delete = conn.prepareStatement("delete from book where bno >= ? and bno < ?")) {
+            delete.setString(1, Long.toString(FIRST));
+            delete.setString(2, Long.toString(FIRST + next.get()));
+            delete.executeUpdate();
+        }
+    }
+}
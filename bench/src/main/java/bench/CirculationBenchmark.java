@@ -0,0 +1,64 @@
+package bench;
+
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A borrow then a return of the same book, both atomic transactions, by every thread
+ * with a card of its own (run with -t to measure contention)
+ * The books are picked among the first hotBooks of the catalog, a small number makes
+ * the threads fight over the same book rows
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CirculationBenchmark {
+    static final AtomicInteger THREADS = new AtomicInteger();
+
+    @State(Scope.Benchmark)
+    public static class Hot {
+        @Param("1000")
+        public int hotBooks;
+    }
+
+    @State(Scope.Thread)
+    public static class Reader {
+        String cno;
+
+        @Setup
+        public void setUp() {
+            int n = THREADS.getAndIncrement();
+            if (n >= Database.CARDS) {
+                throw new IllegalStateException("At most " + Database.CARDS + " threads");
+            }
+            cno = Database.cno(n);
+        }
+    }
+
+    @Benchmark
+    public String borrowAndReturn(Database db, Hot hot, Reader reader) throws Throwable {
+        String bno = Database.bno(ThreadLocalRandom.current().nextInt(Math.min(hot.hotBooks, db.catalogSize)));
+        LocalDate today = LocalDate.now();
+        String outcome = Library.borrow(db.service, reader.cno, bno, today, today.plusDays(14));
+        if (!"OK".equals(outcome)) {
+            throw new IllegalStateException("Borrow of " + bno + " by " + reader.cno + ": " + outcome);
+        }
+        return Library.giveBack(db.service, reader.cno, bno);
+    }
+}
@@ -0,0 +1,164 @@
+package bench;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A library service on a seeded database, shared by the threads of a benchmark
+ * The catalog holds catalogSize books numbered from FIRST_BOOK (after the sample
+ * books of init.sql), with enough stock that borrows never run out, and CARDS cards
+ * numbered from FIRST_CARD. Seeding is idempotent, so a larger catalog only adds books
+ * The database user comes from -Dbench.user and -Dbench.password (jdbc/jdbc by default,
+ * as created by init.sql), everything else from jdbclibrary.properties
+ */
+@State(Scope.Benchmark)
+public class Database {
+    static final long FIRST_BOOK = 1_000_000_000L;
+    static final int FIRST_CARD = 9_000_000;
+    static final int CARDS = 256; // The most threads a benchmark may run with
+    static final String[] CATEGORIES = {"English", "Math", "Chemistry", "Physics", "History", "Art", "Biology"};
+    static final String[] PRESSES = {"AnhuiEdu", "BeijingGrp", "Seismolog", "BeijingLib", "ZJUPress", "Springer"};
+    static final String[] AUTHORS = {"Mary", "John", "Jack", "Otis", "Yennefer", "Geralt", "Ciri", "Dandelion"};
+
+    @Param("10000")
+    public int catalogSize;
+
+    Object config;
+    Object service;
+    String user;
+    String password;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        user = System.getProperty("bench.user", "jdbc");
+        password = System.getProperty("bench.password", "jdbc");
+        config = Library.loadConfig();
+        seed();
+        service = Library.open(config, user, password); // After seeding, so the indexes see the catalog
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        Library.close(service);
+    }
+
+    Connection connect() throws Throwable {
+        return DriverManager.getConnection(Library.jdbcUrl(config), user, password);
+    }
+
+    private void seed() throws Throwable {
+        try (Connection conn = connect()) {
+            if (count(conn) < catalogSize) {
+                List<Object> chunk = new ArrayList<>(1000);
+                for (int i = 0; i < catalogSize; i++) {
+                    chunk.add(book(i));
+                    if (chunk.size() == 1000) {
+                        Library.writeBooks(conn, chunk);
+                        chunk.clear();
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    Library.writeBooks(conn, chunk);
+                }
+            }
+            try (PreparedStatement card = conn.prepareStatement("insert ignore into card values (?,?,?,?)")) {
+                for (int i = 0; i < CARDS; i++) {
+                    card.setString(1, cno(i));
+                    card.setString(2, "Reader" + i);
+                    card.setString(3, "Bench");
+                    card.setString(4, i % 2 == 0 ? "S" : "T");
+                    card.addBatch();
+                }
+                card.executeBatch();
+            }
+            giveBackLeftovers(conn);
+        }
+    }
+
+    private long count(Connection conn) throws SQLException {
+        try (PreparedStatement count = conn.prepareStatement("select count(*) from book where bno >= ? and bno < ?")) {
+            count.setString(1, bno(0));
+            count.setString(2, bno(catalogSize));
+            try (ResultSet rSet = count.executeQuery()) {
+                return rSet.next() ? rSet.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Return the books borrowed by an interrupted run, each in one transaction (the borrow
+     * record and the stock change together, like Circulation.giveBack)
+     */
+    private static void giveBackLeftovers(Connection conn) throws SQLException {
+        List<String[]> leftovers = new ArrayList<>();
+        try (PreparedStatement loans = conn.prepareStatement(
+                "select cno, bno from borrow where cno >= ? and cno < ?")) {
+            loans.setString(1, cno(0));
+            loans.setString(2, cno(CARDS));
+            try (ResultSet rSet = loans.executeQuery()) {
+                while (rSet.next()) {
+                    leftovers.add(new String[]{rSet.getString(1), rSet.getString(2)});
+                }
+            }
+        }
+        if (leftovers.isEmpty()) {
+            return;
+        }
+        conn.setAutoCommit(false);
+        try (PreparedStatement delete = conn.prepareStatement("delete from borrow where cno=? and bno=?");
+             PreparedStatement giveBack = conn.prepareStatement("update book set stock=stock+1 where bno=?")) {
+            for (String[] loan : leftovers) {
+                delete.setString(1, loan[0]);
+                delete.setString(2, loan[1]);
+                if (delete.executeUpdate() > 0) { // Not returned in the meantime
+                    giveBack.setString(1, loan[1]);
+                    giveBack.executeUpdate();
+                }
+                conn.commit();
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * The book number of the i-th book of the catalog
+     */
+    static String bno(long i) {
+        return Long.toString(FIRST_BOOK + i);
+    }
+
+    /**
+     * The card number of the i-th card
+     */
+    static String cno(int i) {
+        return Integer.toString(FIRST_CARD + i);
+    }
+
+    /**
+     * The i-th book of the catalog, the same every time
+     */
+    static Object book(long i) throws Throwable {
+        int n = (int) (i % 1_000_003);
+        return Library.book(bno(i), CATEGORIES[n % CATEGORIES.length], "Title " + i, PRESSES[n % PRESSES.length],
+                1950 + n % 70, AUTHORS[n % AUTHORS.length], BigDecimal.valueOf(100 + n % 20000, 2), 1_000_000,
+                1_000_000);
+    }
+}
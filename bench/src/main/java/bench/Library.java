@@ -0,0 +1,232 @@
+package bench;
+
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Scanner;
+import java.util.function.Consumer;
+
+/**
+ * The classes of the library as seen from the benchmarks
+ * They are package private classes of the default package, which a named package
+ * (JMH needs one) cannot import, so they are reached through method handles looked up
+ * once here (static final handles are inlined by the JIT like direct calls)
+ */
+final class Library {
+    static final Class<?> CONFIG = type("LibraryConfig");
+    static final Class<?> SERVICE = type("LibraryService");
+    static final Class<?> BY = type("LibraryService$By");
+    static final Class<?> BOOK = type("Book");
+    static final Class<?> RENDERER = type("TableRenderer");
+    static final Class<?> WRITER = type("BookBatchWriter");
+    static final Class<?> CONSOLE = type("JDBCLibrary");
+    static final Class<?> FILE_READER = type("BookFileReader");
+    static final Class<?> CHUNK_HANDLER = type("BookFileReader$ChunkHandler");
+
+    private static final MethodHandle LOAD_CONFIG = method(CONFIG, "load");
+    private static final MethodHandle JDBC_URL = method(CONFIG, "jdbcUrl");
+    private static final MethodHandle OPEN = method(SERVICE, "open", CONFIG, String.class, String.class);
+    private static final MethodHandle GET_BOOK = method(SERVICE, "getBook", String.class);
+    private static final MethodHandle FIND_BOOKS = method(SERVICE, "findBooks", BY, String.class, String.class,
+            int.class);
+    private static final MethodHandle BOOKS_AFTER = method(SERVICE, "booksAfter", String.class, int.class);
+    private static final MethodHandle PUT_BOOKS = method(SERVICE, "putBooks", List.class);
+    private static final MethodHandle BORROW = method(SERVICE, "borrow", String.class, String.class,
+            LocalDate.class, LocalDate.class);
+    private static final MethodHandle GIVE_BACK = method(SERVICE, "giveBack", String.class, String.class);
+    private static final MethodHandle CLOSE = method(SERVICE, "close");
+    private static final MethodHandle NEW_BOOK = constructor(BOOK, String.class, String.class, String.class,
+            String.class, int.class, String.class, BigDecimal.class, int.class, int.class);
+    private static final MethodHandle TO_ROW = method(BOOK, "toRow");
+    private static final MethodHandle NEW_RENDERER = constructor(RENDERER, OutputStream.class, int.class);
+    private static final MethodHandle RENDER_ROWS = method(RENDERER, "render", String[].class, Iterable.class);
+    private static final MethodHandle SET_READER = setter(CONSOLE, "reader");
+    private static final MethodHandle READ_BOOK = method(CONSOLE, "readBook");
+    private static final MethodHandle NEW_FILE_READER = constructor(FILE_READER, Path.class, int.class);
+    private static final MethodHandle READ_FILE = method(FILE_READER, "read", long.class, CHUNK_HANDLER);
+    private static final MethodHandle NEW_WRITER = constructor(WRITER, boolean.class,
+            Consumer.class);
+    private static final MethodHandle WRITE = method(WRITER, "write", Connection.class, List.class);
+    static final String[] BOOK_COLUMNS = (String[]) get(BOOK, "COLUMNS");
+    static final String SKIP_PATTERN = (String) get(CONSOLE, "skipPattern");
+
+    private Library() {
+    }
+
+    // Configuration and service
+
+    static Object loadConfig() throws Throwable {
+        return LOAD_CONFIG.invoke();
+    }
+
+    static String jdbcUrl(Object config) throws Throwable {
+        return (String) JDBC_URL.invoke(config);
+    }
+
+    static Object open(Object config, String user, String password) throws Throwable {
+        return OPEN.invoke(config, user, password);
+    }
+
+    static Object getBook(Object service, String bno) throws Throwable {
+        return GET_BOOK.invoke(service, bno);
+    }
+
+    static List<?> findBooks(Object service, String by, String value) throws Throwable {
+        return (List<?>) FIND_BOOKS.invoke(service, by(by), value, "", Integer.MAX_VALUE); // Every match
+    }
+
+    static List<?> booksAfter(Object service, String bno, int limit) throws Throwable {
+        return (List<?>) BOOKS_AFTER.invoke(service, bno, limit);
+    }
+
+    static Object putBooks(Object service, List<Object> books) throws Throwable {
+        return PUT_BOOKS.invoke(service, books);
+    }
+
+    /**
+     * @return the name of the Circulation.Outcome
+     */
+    static String borrow(Object service, String cno, String bno, LocalDate borrowDate, LocalDate returnDate)
+            throws Throwable {
+        return BORROW.invoke(service, cno, bno, borrowDate, returnDate).toString();
+    }
+
+    static String giveBack(Object service, String cno, String bno) throws Throwable {
+        return GIVE_BACK.invoke(service, cno, bno).toString();
+    }
+
+    static void close(Object service) throws Throwable {
+        CLOSE.invoke(service);
+    }
+
+    // Books
+
+    static Object book(String bno, String category, String title, String press, int year, String author,
+                       BigDecimal price, int total, int stock) throws Throwable {
+        return NEW_BOOK.invoke(bno, category, title, press, year, author, price, total, stock);
+    }
+
+    static String[] toRow(Object book) throws Throwable {
+        return (String[]) TO_ROW.invoke(book);
+    }
+
+    // Rendering
+
+    static Object renderer(OutputStream out, int maxColumnWidth) throws Throwable {
+        return NEW_RENDERER.invoke(out, maxColumnWidth);
+    }
+
+    static void render(Object renderer, String[] names, Iterable<String[]> rows) throws Throwable {
+        RENDER_ROWS.invoke(renderer, names, rows);
+    }
+
+    // The console
+
+    static void setReader(Scanner reader) throws Throwable {
+        SET_READER.invoke(reader);
+    }
+
+    /**
+     * JDBCLibrary.readBook, the parsing of the add books screens, on the reader set
+     */
+    static Object readBook() throws Throwable {
+        return READ_BOOK.invoke();
+    }
+
+    /**
+     * Read a file of books with BookFileReader
+     *
+     * @param sink receives every chunk of books
+     * @return the number of books read
+     */
+    static long readFile(Path path, int chunkSize, Consumer<List<?>> sink) throws Throwable {
+        // The handler is a package private interface, implemented by a proxy
+        Object handler = Proxy.newProxyInstance(CHUNK_HANDLER.getClassLoader(), new Class<?>[]{CHUNK_HANDLER},
+                (proxy, method, args) -> {
+                    if ("accept".equals(method.getName())) {
+                        sink.accept((List<?>) args[0]);
+                    }
+                    return null;
+                });
+        return (long) READ_FILE.invoke(NEW_FILE_READER.invoke(path, chunkSize), 0L, handler);
+    }
+
+    // Seeding
+
+    /**
+     * Write books with BookBatchWriter (upserts, one transaction) on a plain connection,
+     * bypassing the caches of any service
+     */
+    static void writeBooks(Connection conn, List<Object> books) throws Throwable {
+        WRITE.invoke(NEW_WRITER.invoke(true, (Consumer<?>) chunk -> {
+        }), conn, books);
+    }
+
+    // Lookup
+
+    private static Object by(String name) {
+        for (Object by : BY.getEnumConstants()) {
+            if (((Enum<?>) by).name().equals(name)) {
+                return by;
+            }
+        }
+        throw new IllegalArgumentException("No such column: " + name);
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("The library class " + name + " is not on the classpath", e);
+        }
+    }
+
+    private static MethodHandle method(Class<?> type, String name, Class<?>... parameters) {
+        try {
+            Method method = type.getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The library has no " + type.getName() + "." + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameters) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The library has no constructor of " + type.getName(), e);
+        }
+    }
+
+    private static MethodHandle setter(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectSetter(field);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The library has no " + type.getName() + "." + name, e);
+        }
+    }
+
+    private static Object get(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The library has no " + type.getName() + "." + name, e);
+        }
+    }
+}
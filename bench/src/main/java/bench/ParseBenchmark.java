@@ -0,0 +1,76 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing book lines, without a database: the Scanner path of the add books screens
+ * (JDBCLibrary.readBook) against the memory-mapped BookFileReader of the file import
+ * Times are per book
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+    static final int LINES = 1000;
+
+    String text;
+    Path file;
+
+    @Setup
+    public void setUp() throws Throwable {
+        StringBuilder sb = new StringBuilder(LINES * 80);
+        for (int i = 0; i < LINES; i++) {
+            String[] row = Library.toRow(Database.book(i));
+            sb.append(String.join(", ", row)).append('\n');
+        }
+        text = sb.toString();
+        file = Files.createTempFile("bench-books", ".txt");
+        Files.writeString(file, text.replace(", ", ","));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void scanner(Blackhole blackhole) throws Throwable {
+        Scanner reader = new Scanner(text);
+        Library.setReader(reader);
+        // The loop of JDBCLibrary.addBooks
+        while (true) {
+            reader.skip(Library.SKIP_PATTERN);
+            if (!reader.hasNext()) {
+                break;
+            }
+            blackhole.consume(Library.readBook());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void fileReader(Blackhole blackhole) throws Throwable {
+        blackhole.consume(Library.readFile(file, 1000, blackhole::consume));
+    }
+}
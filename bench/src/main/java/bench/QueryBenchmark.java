@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The queries of the query screens (what executePrepQuery ran), through the service
+ * getBook is served by the book cache, the others go to the database
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class QueryBenchmark {
+    static final int PAGE = 20;
+
+    static String randomBno(Database db) {
+        return Database.bno(ThreadLocalRandom.current().nextInt(db.catalogSize));
+    }
+
+    @Benchmark
+    public Object getBook(Database db) throws Throwable {
+        return Library.getBook(db.service, randomBno(db));
+    }
+
+    @Benchmark
+    public Object findByAuthor(Database db) throws Throwable {
+        String author = Database.AUTHORS[ThreadLocalRandom.current().nextInt(Database.AUTHORS.length)];
+        return Library.findBooks(db.service, "AUTHOR", author).size();
+    }
+
+    @Benchmark
+    public Object findByTitle(Database db) throws Throwable {
+        return Library.findBooks(db.service, "TITLE", "Title " + ThreadLocalRandom.current().nextInt(db.catalogSize));
+    }
+
+    @Benchmark
+    public Object browsePage(Database db) throws Throwable {
+        return Library.booksAfter(db.service, randomBno(db), PAGE);
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Rendering books as a table (what printResultSet used to do), without a database
+ * The output goes to a stream that only counts the bytes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+    @Param({"10", "100", "1000"})
+    public int rows;
+
+    List<String[]> table;
+    Object renderer;
+    Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) throws Throwable {
+        this.blackhole = blackhole;
+        table = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            table.add(Library.toRow(Database.book(i)));
+        }
+        renderer = Library.renderer(new OutputStream() {
+            @Override
+            public void write(int b) {
+                RenderBenchmark.this.blackhole.consume(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                RenderBenchmark.this.blackhole.consume(len);
+            }
+        }, 40);
+    }
+
+    @Benchmark
+    public void renderRows() throws Throwable {
+        Library.render(renderer, Library.BOOK_COLUMNS, table);
+    }
+}
@@ -0,0 +1,142 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The operations of a LibraryService as CompletableFutures, run on an executor
+ * A failure completes the future exceptionally with a CompletionException whose cause
+ * is the SQLException
+ * Calls block on JDBC, so the executor should not have many more threads than the
+ * pool has connections (the extra ones would only wait for a connection)
+ */
+class AsyncLibraryService implements AutoCloseable {
+    /**
+     * A blocking call of the service
+     */
+    interface Call<T> {
+        T call() throws SQLException;
+    }
+
+    private final LibraryService service;
+    private final ExecutorService executor; // Shut down on close
+
+    /**
+     * @param service  the service the calls are made on
+     * @param executor where the calls run, shut down on close
+     */
+    AsyncLibraryService(LibraryService service, ExecutorService executor) {
+        this.service = service;
+        this.executor = executor;
+    }
+
+    /**
+     * Run the calls on a fixed pool of service.asyncThreads daemon threads
+     * (by default as many as the connection pool has connections)
+     *
+     * @param service the service the calls are made on
+     */
+    AsyncLibraryService(LibraryService service) {
+        LibraryConfig config = service.getConfig();
+        int threads = config.getInt("service.asyncThreads", config.getInt("pool.maxSize", 10));
+        AtomicInteger count = new AtomicInteger();
+        this.service = service;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "library-async-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private <T> CompletableFuture<T> supply(Call<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    CompletableFuture<Book> getBook(String bno) {
+        return supply(() -> service.getBook(bno));
+    }
+
+    CompletableFuture<List<Book>> getBooks(List<String> bnos) {
+        return supply(() -> service.getBooks(bnos));
+    }
+
+    CompletableFuture<List<Book>> booksAfter(String bno, int limit) {
+        return supply(() -> service.booksAfter(bno, limit));
+    }
+
+    CompletableFuture<List<Book>> findBooks(LibraryService.By by, String value, String after, int limit) {
+        return supply(() -> service.findBooks(by, value, after, limit));
+    }
+
+    CompletableFuture<List<Book>> booksByYear(int from, int to, String after, int limit) {
+        return supply(() -> service.booksByYear(from, to, after, limit));
+    }
+
+    CompletableFuture<List<Book>> booksByPrice(BigDecimal from, BigDecimal to, String after, int limit) {
+        return supply(() -> service.booksByPrice(from, to, after, limit));
+    }
+
+    CompletableFuture<List<Book>> searchBooks(String query, int limit) {
+        return supply(() -> service.searchBooks(query, limit));
+    }
+
+    CompletableFuture<LocalDate> nearestReturnDate(String bno) {
+        return supply(() -> service.nearestReturnDate(bno));
+    }
+
+    CompletableFuture<List<Loan>> loans(String cno) {
+        return supply(() -> service.loans(cno));
+    }
+
+    CompletableFuture<Circulation.Outcome> borrow(String cno, String bno, LocalDate borrowDate,
+                                                  LocalDate returnDate) {
+        return supply(() -> service.borrow(cno, bno, borrowDate, returnDate));
+    }
+
+    CompletableFuture<Circulation.Outcome> giveBack(String cno, String bno) {
+        return supply(() -> service.giveBack(cno, bno));
+    }
+
+    CompletableFuture<Integer> putBook(Book book) {
+        return supply(() -> service.putBook(book));
+    }
+
+    CompletableFuture<LibraryService.Written> putBooks(List<Book> books) {
+        return supply(() -> service.putBooks(books));
+    }
+
+    CompletableFuture<Card> getCard(String cno) {
+        return supply(() -> service.getCard(cno));
+    }
+
+    CompletableFuture<Integer> putCard(Card card) {
+        return supply(() -> service.putCard(card));
+    }
+
+    CompletableFuture<Boolean> deleteCard(String cno) {
+        return supply(() -> service.deleteCard(cno));
+    }
+
+    LibraryService getService() {
+        return service;
+    }
+
+    /**
+     * Shut the executor down, the calls already submitted still run (the service stays open)
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,80 @@
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of table book
+ */
+class Book {
+    static final String[] COLUMNS = {"bno", "category", "title", "press", "year", "author", "price", "total", "stock"};
+
+    final String bno;
+    final String category;
+    final String title;
+    final String press;
+    final int year;
+    final String author;
+    final BigDecimal price;
+    final int total;
+    final int stock;
+
+    Book(String bno, String category, String title, String press, int year, String author, BigDecimal price,
+         int total, int stock) {
+        this.bno = bno;
+        this.category = category;
+        this.title = title;
+        this.press = press;
+        this.year = year;
+        this.author = author;
+        this.price = price;
+        this.total = total;
+        this.stock = stock;
+    }
+
+    /**
+     * Read the current row of a "select * from book" result
+     *
+     * @param rSet the result set, on a row
+     * @return the book of the row
+     * @throws SQLException if the columns cannot be read
+     */
+    static Book from(ResultSet rSet) throws SQLException {
+        return new Book(rSet.getString("bno"), rSet.getString("category"), rSet.getString("title"),
+                rSet.getString("press"), rSet.getInt("year"), rSet.getString("author"), rSet.getBigDecimal("price"),
+                rSet.getInt("total"), rSet.getInt("stock"));
+    }
+
+    /**
+     * Set the 9 parameters of an "insert into book values (?,?,?,?,?,?,?,?,?)" like statement
+     *
+     * @param pStmt the statement to be filled
+     * @throws SQLException if a parameter cannot be set
+     */
+    void setParameters(PreparedStatement pStmt) throws SQLException {
+        pStmt.setString(1, bno);
+        pStmt.setString(2, category);
+        pStmt.setString(3, title);
+        pStmt.setString(4, press);
+        pStmt.setInt(5, year);
+        pStmt.setString(6, author);
+        pStmt.setBigDecimal(7, price);
+        pStmt.setInt(8, total);
+        pStmt.setInt(9, stock);
+    }
+
+    /**
+     * The values in column order, used for printing
+     *
+     * @return the row as strings
+     */
+    String[] toRow() {
+        return new String[]{bno, category, title, press, Integer.toString(year), author,
+                price == null ? null : price.toPlainString(), Integer.toString(total), Integer.toString(stock)};
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", toRow());
+    }
+}
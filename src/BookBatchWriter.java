@@ -0,0 +1,99 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Write chunks of books with executeBatch, one transaction per chunk
+ * Existing books (same book number) are either updated or left untouched
+ * An upsert is used instead of "replace into": replace deletes the old row first,
+ * which fails for books referenced by table borrow
+ * Safe to share between threads, the counters are cumulative
+ */
+class BookBatchWriter {
+    static final String UPSERT = "insert into book values (?,?,?,?,?,?,?,?,?) on duplicate key update "
+            + "category=values(category), title=values(title), press=values(press), year=values(year), "
+            + "author=values(author), price=values(price), total=values(total), stock=values(stock)";
+    static final String INSERT_NEW = "insert into book values (?,?,?,?,?,?,?,?,?) on duplicate key update bno=bno";
+
+    private final String sql;
+    private final Consumer<List<Book>> onCommit;
+
+    // Statistics
+    final LongAdder inserted = new LongAdder();
+    final LongAdder updated = new LongAdder();
+    final LongAdder unchanged = new LongAdder(); // Same values or kept because updates are disabled
+    final LongAdder chunks = new LongAdder();
+
+    /**
+     * @param update   whether existing books are updated with the new values
+     * @param onCommit called with every chunk once it's committed (to keep caches in line)
+     */
+    BookBatchWriter(boolean update, Consumer<List<Book>> onCommit) {
+        this.sql = update ? UPSERT : INSERT_NEW;
+        this.onCommit = onCommit;
+    }
+
+    /**
+     * Write a chunk in its own transaction
+     *
+     * @param conn  the connection to write with, left in auto commit mode
+     * @param chunk the books to be written
+     * @return the number of books written
+     * @throws SQLException if the chunk cannot be written (it is rolled back)
+     */
+    int write(Connection conn, List<Book> chunk) throws SQLException {
+        conn.setAutoCommit(false);
+        try (PreparedStatement pStmt = conn.prepareStatement(sql)) {
+            for (Book book : chunk) {
+                book.setParameters(pStmt);
+                pStmt.addBatch();
+            }
+            LibraryEvents.Batch event = new LibraryEvents.Batch();
+            event.begin();
+            int[] ns;
+            try {
+                ns = pStmt.executeBatch();
+            } catch (SQLException e) {
+                event.failed = true;
+                throw e;
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.operation = OperationContext.currentName();
+                    event.size = chunk.size();
+                    event.commit();
+                }
+            }
+            conn.commit();
+            onCommit.accept(chunk);
+            // Affected rows of an upsert (the pool sets useAffectedRows): 1 inserted, 2 updated,
+            // 0 unchanged, which is also what INSERT_NEW reports for an existing book
+            for (int n : ns) {
+                if (n == 1 || n == Statement.SUCCESS_NO_INFO) {
+                    inserted.increment();
+                } else if (n == 2) {
+                    updated.increment();
+                } else {
+                    unchanged.increment();
+                }
+            }
+            chunks.increment();
+            return chunk.size();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d inserted, %d updated, %d unchanged in %d chunk(s)", inserted.sum(), updated.sum(),
+                unchanged.sum(), chunks.sum());
+    }
+}
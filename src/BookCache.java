@@ -0,0 +1,422 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-through cache of book rows keyed by book number
+ * Hits are lock free: the books are in a ConcurrentHashMap and a hit only marks its
+ * entry as referenced. Eviction is CLOCK (second chance, close to LRU) with a TinyLFU
+ * style admission filter: when the cache is full a new book only replaces the victim
+ * if it has been asked for more often recently (frequencies are estimated by a small
+ * count-min sketch that is halved periodically), so a scan of cold books cannot flush
+ * the popular ones. Only admissions take the cache's monitor, and only misses borrow a
+ * connection from the pool
+ * Our own writes to table book must call invalidate(): a load started before an
+ * invalidation of its book (more exactly of one of the STRIPES book numbers sharing its
+ * version) is not cached, the loads of the other books are
+ */
+class BookCache {
+    static final Logger logger = LoggerFactory.getLogger(BookCache.class);
+    static final String SELECT = "select * from book where bno=?";
+    static final int BATCH = 100; // Books per "in" list
+    static final int STRIPES = 1024; // Invalidation versions, by hash of the book number
+
+    /**
+     * A cached book
+     */
+    private static class Entry {
+        final Book book;
+        volatile boolean referenced; // Hit since the clock hand last passed
+
+        Entry(Book book) {
+            this.book = book;
+        }
+    }
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Entry> books = new ConcurrentHashMap<>();
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>(); // Guarded by this, the hand is the head
+    private final FrequencySketch sketch;
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES); // Bumped by invalidate()
+    private final AtomicLong epoch = new AtomicLong(); // Bumped by invalidateAll()
+
+    // Statistics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder(); // Not admitted by the frequency filter
+
+    /**
+     * @param capacity the maximum number of books kept, 0 disables caching
+     */
+    BookCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.sketch = new FrequencySketch(Math.max(16, this.capacity));
+    }
+
+    /**
+     * Get a book, reading it from the database on a miss
+     *
+     * @param pool the pool to borrow a connection from on a miss
+     * @param bno  the book number
+     * @return the book, null if there is no such book
+     * @throws SQLException if the book cannot be read
+     */
+    Book get(ConnectionPool pool, String bno) throws SQLException {
+        Book cached = lookUp(bno);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = stamp(bno);
+        Book book;
+        try (Connection conn = pool.getConnection(); PreparedStatement pStmt = conn.prepareStatement(SELECT)) {
+            pStmt.setString(1, bno);
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                if (!rSet.next()) {
+                    return null;
+                }
+                book = Book.from(rSet);
+            }
+        }
+        admit(book, stamp);
+        return book;
+    }
+
+    /**
+     * Get several books, the misses are read with "in" lists of up to BATCH books
+     *
+     * @param pool the pool to borrow a connection from if any book is missing
+     * @param bnos the book numbers
+     * @return the books found, in the order of bnos
+     * @throws SQLException if the books cannot be read
+     */
+    List<Book> getAll(ConnectionPool pool, List<String> bnos) throws SQLException {
+        Map<String, Book> found = new HashMap<>();
+        Map<String, Long> missing = new LinkedHashMap<>(); // With the stamps before the read
+        for (String bno : bnos) {
+            Book book = lookUp(bno);
+            if (book != null) {
+                found.put(bno, book);
+            } else {
+                missing.putIfAbsent(bno, stamp(bno));
+            }
+        }
+        if (!missing.isEmpty()) {
+            List<String> keys = new ArrayList<>(missing.keySet());
+            try (Connection conn = pool.getConnection()) {
+                for (int from = 0; from < keys.size(); from += BATCH) {
+                    for (Book book : read(conn, keys.subList(from, Math.min(from + BATCH, keys.size())))) {
+                        found.put(book.bno, book);
+                        admit(book, missing.get(book.bno));
+                    }
+                }
+            }
+        }
+        List<Book> result = new ArrayList<>(found.size());
+        for (String bno : bnos) {
+            Book book = found.get(bno);
+            if (book != null) {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forget a book after it was written
+     *
+     * @param bno the book number
+     */
+    void invalidate(String bno) {
+        versions.incrementAndGet(stripe(bno)); // Before the removal, see admit()
+        books.remove(bno);
+    }
+
+    /**
+     * Forget everything, used after bulk writes
+     */
+    void invalidateAll() {
+        epoch.incrementAndGet();
+        synchronized (this) {
+            books.clear();
+            clock.clear();
+        }
+    }
+
+    /**
+     * The cached book, counted as a hit or a miss
+     */
+    private Book lookUp(String bno) {
+        sketch.increment(bno);
+        Entry entry = books.get(bno);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        entry.referenced = true;
+        hits.increment();
+        return entry.book;
+    }
+
+    private static int stripe(String bno) {
+        int h = bno.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * The version of a book number, changed by any invalidation of it
+     */
+    private long stamp(String bno) {
+        return epoch.get() + versions.get(stripe(bno)); // Both only grow
+    }
+
+    /**
+     * Cache a book read from the database, unless it was invalidated since stamp was taken
+     */
+    private void admit(Book book, long stamp) {
+        if (capacity == 0) {
+            return;
+        }
+        Entry entry = new Entry(book);
+        synchronized (this) {
+            if (stamp(book.bno) != stamp) {
+                return;
+            }
+            if (!books.containsKey(book.bno) && books.size() >= capacity) {
+                Entry victim = victim();
+                if (victim != null) {
+                    if (sketch.frequency(book.bno) <= sketch.frequency(victim.book.bno)) {
+                        clock.addFirst(victim); // Still the next candidate
+                        rejections.increment();
+                        return;
+                    }
+                    books.remove(victim.book.bno, victim);
+                    evictions.increment();
+                }
+            }
+            books.put(book.bno, entry);
+            clock.addLast(entry);
+            if (clock.size() > 2 * capacity) { // Mostly invalidated entries, which the hand skips
+                clock.removeIf(e -> books.get(e.book.bno) != e);
+            }
+        }
+        // An invalidation between the check and the put bumped the version before removing
+        // the book, so either it removed this entry or it is seen here
+        if (stamp(book.bno) != stamp) {
+            books.remove(book.bno, entry);
+        }
+    }
+
+    /**
+     * Move the clock hand to the first cached entry not referenced since it last passed,
+     * clearing the references on the way
+     *
+     * @return the entry, taken out of the clock, null if there is none
+     */
+    private Entry victim() {
+        for (int passes = 2 * clock.size(); passes >= 0; passes--) {
+            Entry entry = clock.pollFirst();
+            if (entry == null) {
+                return null;
+            }
+            if (books.get(entry.book.bno) != entry) { // Invalidated or replaced
+                continue;
+            }
+            if (entry.referenced && passes > 0) {
+                entry.referenced = false;
+                clock.addLast(entry);
+                continue;
+            }
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Load the most borrowed books with several connections at once
+     *
+     * @param pool    the pool to borrow the connections from
+     * @param count   the number of books to load
+     * @param threads the number of connections used
+     */
+    void warmUp(ConnectionPool pool, int count, int threads) {
+        count = Math.min(count, capacity);
+        if (count <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<String> hottest = new ArrayList<>(count);
+        try (Connection conn = pool.getConnection(); PreparedStatement pStmt = conn.prepareStatement(
+                "select bno from borrow group by bno order by count(*) desc limit ?")) {
+            pStmt.setInt(1, count);
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                while (rSet.next()) {
+                    hottest.add(rSet.getString(1));
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Unable to find the books to warm the cache up with: {}", e.getMessage());
+            return;
+        }
+        if (hottest.isEmpty()) {
+            return;
+        }
+
+        // Every thread loads a slice with "in" lists of up to BATCH books
+        threads = Math.max(1, Math.min(threads, pool.getMaxSize()));
+        int slice = (hottest.size() + threads - 1) / threads;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> loads = new ArrayList<>();
+        for (int from = 0; from < hottest.size(); from += slice) {
+            List<String> keys = hottest.subList(from, Math.min(from + slice, hottest.size()));
+            loads.add(executor.submit(() -> load(pool, keys)));
+        }
+        int loaded = 0;
+        for (Future<Integer> load : loads) {
+            try {
+                loaded += load.get();
+            } catch (Exception e) {
+                logger.warn("Unable to warm the cache up: {}", e.toString());
+            }
+        }
+        executor.shutdown();
+        logger.info("Book cache warmed up with {} book(s) in {}ms", loaded, (System.nanoTime() - start) / 1000000);
+    }
+
+    private int load(ConnectionPool pool, List<String> keys) throws SQLException {
+        int loaded = 0;
+        try (Connection conn = pool.getConnection()) {
+            for (int from = 0; from < keys.size(); from += BATCH) {
+                List<String> batch = keys.subList(from, Math.min(from + BATCH, keys.size()));
+                long[] stamps = new long[batch.size()];
+                Map<String, Integer> index = new HashMap<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    stamps[i] = stamp(batch.get(i));
+                    index.put(batch.get(i), i);
+                }
+                for (Book book : read(conn, batch)) {
+                    sketch.increment(book.bno);
+                    admit(book, stamps[index.get(book.bno)]);
+                    loaded++;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * The statement reading width books (also EXPLAINed by ExplainCheck)
+     */
+    static String readSql(int width) {
+        return "select * from book where bno in (" + "?,".repeat(width - 1) + "?)";
+    }
+
+    /**
+     * Read books with an "in" list of one of a few widths (see KeyLookup.listWidth), so that
+     * a handful of statements is cached per connection whatever the number of books
+     */
+    private static List<Book> read(Connection conn, List<String> bnos) throws SQLException {
+        int width = KeyLookup.listWidth(bnos.size(), BATCH);
+        List<Book> read = new ArrayList<>(bnos.size());
+        try (PreparedStatement pStmt = conn.prepareStatement(readSql(width))) {
+            for (int i = 0; i < width; i++) {
+                pStmt.setString(i + 1, bnos.get(Math.min(i, bnos.size() - 1))); // Padded with the last one
+            }
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                while (rSet.next()) {
+                    read.add(Book.from(rSet));
+                }
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Hit ratio and size in a human readable form
+     *
+     * @return the statistics line
+     */
+    String statistics() {
+        long h = hits.sum();
+        long n = h + misses.sum();
+        return String.format("book cache: %d/%d book(s), %d hit(s), %d miss(es) (%.1f%% hit), %d eviction(s), "
+                        + "%d rejected by admission", books.size(), capacity, h, misses.sum(),
+                n == 0 ? 0.0 : 100.0 * h / n, evictions.sum(), rejections.sum());
+    }
+
+    /**
+     * Count-min sketch with 4 bit like saturation (counters stop at 15) and aging:
+     * all counters are halved once sampleSize increments have been made
+     * Updated without locking: concurrent increments of one counter may be lost, which an
+     * estimate tolerates, and exactly one thread halves the counters
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(capacity * 2 - 1) * 2;
+            table = new byte[DEPTH][width];
+            mask = width - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = index(hash, i);
+                if (table[i][index] < MAX) {
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && additions.incrementAndGet() == sampleSize) {
+                for (byte[] row : table) {
+                    for (int j = 0; j < row.length; j++) {
+                        row[j] >>= 1;
+                    }
+                }
+                additions.addAndGet(-sampleSize / 2);
+            }
+        }
+
+        int frequency(String key) {
+            int hash = key.hashCode();
+            int min = MAX;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, table[i][index(hash, i)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, int i) {
+            int h = hash * SEEDS[i];
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Load a trusted book file with MySQL's own loader
+ * The file is streamed to the server with LOAD DATA LOCAL INFILE into a temporary
+ * staging table, invalid rows are rejected there, and the rest is merged into
+ * table book with one set based statement (the last line wins for a repeated book
+ * number, like a row by row import)
+ * Needs allowLoadLocalInfile on the connection (jdbc.allowLoadLocalInfile) and
+ * local_infile enabled on the server
+ */
+class BookFileLoader {
+    private static final String[] CREATE_STAGE = {
+            "drop temporary table if exists book_stage",
+            "drop temporary table if exists book_stage_last",
+            // Everything as text so that nothing is lost or converted silently before validation
+            "create temporary table book_stage (line int auto_increment primary key, bno varchar(255), "
+                    + "category varchar(255), title varchar(255), press varchar(255), year varchar(255), "
+                    + "author varchar(255), price varchar(255), total varchar(255), stock varchar(255))"
+    };
+    private static final String TRIM = "regexp_replace(%s, '^[[:space:]]+|[[:space:]]+$', '')";
+    private static final String INTEGER = " not regexp '^[+-]?[0-9]{1,9}$'";
+    private static final String REJECT = "delete from book_stage where bno is null or char_length(bno) <> 10"
+            + " or category is null or char_length(category) > 40 or title is null or char_length(title) > 100"
+            + " or press is null or char_length(press) > 40 or author is null or char_length(author) > 40"
+            + " or year is null or year" + INTEGER + " or total is null or total" + INTEGER
+            + " or stock is null or stock" + INTEGER
+            + " or price is null or price not regexp '^[+-]?[0-9]{1,5}(\\\\.[0-9]{1,2})?$'";
+    private static final String MERGE = "insert into book select * from (select s.bno, s.category, s.title, "
+            + "s.press, cast(s.year as signed) year, s.author, cast(s.price as decimal(7, 2)) price, "
+            + "cast(s.total as signed) total, cast(s.stock as signed) stock "
+            + "from book_stage s join book_stage_last l on l.line = s.line) staged on duplicate key update ";
+
+    /**
+     * The outcome of a load
+     */
+    static class Result {
+        long lines; // Lines received by the server
+        long blank;
+        long rejected;
+        long inserted;
+        long updated; // Or kept as they were if updates are disabled
+        boolean update;
+
+        @Override
+        public String toString() {
+            return String.format("%d line(s) loaded, %d blank, %d rejected, %d inserted, %d %s", lines, blank,
+                    rejected, inserted, updated, update ? "updated" : "already existing (kept)");
+        }
+    }
+
+    private final boolean update;
+
+    /**
+     * @param update whether existing books are updated with the new values
+     */
+    BookFileLoader(boolean update) {
+        this.update = update;
+    }
+
+    /**
+     * Load the file into table book
+     *
+     * @param conn the connection to load with, must allow LOAD DATA LOCAL INFILE
+     * @param path the file in the format of book_data.txt
+     * @return the counts of the load
+     * @throws SQLException if the load or the merge fails, table book is untouched then
+     */
+    Result load(Connection conn, Path path) throws SQLException {
+        Result result = new Result();
+        result.update = update;
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : CREATE_STAGE) {
+                stmt.execute(sql);
+            }
+            try {
+                result.lines = stmt.executeUpdate(loadStatement(path));
+                result.blank = stmt.executeUpdate("delete from book_stage where bno = '' and category is null");
+                result.rejected = stmt.executeUpdate(REJECT);
+
+                // The last line of every book number wins
+                stmt.execute("create temporary table book_stage_last (line int primary key) "
+                        + "select max(line) line from book_stage group by bno");
+                long distinct = count(stmt, "select count(*) from book_stage_last");
+                result.updated = count(stmt, "select count(*) from book_stage_last l join book_stage s "
+                        + "on s.line = l.line join book b on b.bno = s.bno");
+                result.inserted = distinct - result.updated;
+
+                stmt.executeUpdate(MERGE + (update
+                        ? "category = staged.category, title = staged.title, press = staged.press, "
+                        + "year = staged.year, author = staged.author, price = staged.price, "
+                        + "total = staged.total, stock = staged.stock"
+                        : "bno = book.bno"));
+            } finally {
+                stmt.execute("drop temporary table if exists book_stage_last");
+                stmt.execute("drop temporary table if exists book_stage");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The LOAD DATA statement, fields are trimmed like BookFileReader does
+     */
+    static String loadStatement(Path path) {
+        String file = path.toAbsolutePath().toString().replace("\\", "\\\\").replace("'", "\\'");
+        String[] columns = Book.COLUMNS;
+        StringBuilder vars = new StringBuilder();
+        StringBuilder sets = new StringBuilder();
+        for (String column : columns) {
+            vars.append(vars.length() == 0 ? "" : ", ").append('@').append(column);
+            sets.append(sets.length() == 0 ? "" : ", ").append(column).append(" = ")
+                    .append(String.format(TRIM, "@" + column));
+        }
+        return "load data local infile '" + file + "' into table book_stage character set utf8mb4 "
+                + "fields terminated by ',' lines terminated by '\\n' (" + vars + ") set " + sets;
+    }
+
+    private static long count(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rSet = stmt.executeQuery(sql)) {
+            return rSet.next() ? rSet.getLong(1) : 0;
+        }
+    }
+}
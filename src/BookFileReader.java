@@ -0,0 +1,231 @@
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming reader of book files (the format of book_data.txt)
+ * One book per line, 9 comma separated fields:
+ * book number, category, title, press, year, author, price, total, stock
+ * Whitespace around the fields and blank lines are ignored (see book_data_weird.txt)
+ * Lines that would not fit the columns of table book (the rules of BookFileLoader.REJECT)
+ * are rejected here, so that one bad line cannot fail the whole chunk it is written with
+ * The file is memory mapped window by window and tokenized byte by byte, no regex
+ * and no per-field scanning, rows are handed out in chunks as soon as they're parsed
+ */
+class BookFileReader {
+    static final Logger logger = LoggerFactory.getLogger(BookFileReader.class);
+    static final int FIELDS = 9;
+    static final long WINDOW = 64L << 20; // Bytes mapped at a time
+    static final int BNO_LENGTH = 10;
+    static final int[] MAX_LENGTHS = {BNO_LENGTH, 40, 100, 40, 0, 40, 0, 0, 0}; // By field, 0 for the numbers
+    static final BigDecimal MAX_PRICE = new BigDecimal("99999.99"); // decimal(7, 2)
+
+    /**
+     * Receives the parsed books chunk by chunk
+     */
+    interface ChunkHandler {
+        /**
+         * @param chunk     the books parsed, the list is not reused by the reader
+         * @param endOffset the file offset right after the last line of the chunk
+         * @throws Exception stops the reading
+         */
+        void accept(List<Book> chunk, long endOffset) throws Exception;
+    }
+
+    private final Path path;
+    private final int chunkSize;
+
+    // Statistics of the last read
+    private long lines;
+    private long rows;
+    private long rejected;
+
+    // Reused buffers
+    private byte[] line = new byte[256];
+    private final int[] starts = new int[FIELDS];
+    private final int[] ends = new int[FIELDS];
+
+    BookFileReader(Path path, int chunkSize) {
+        this.path = path;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Read the file from startOffset to the end
+     *
+     * @param startOffset the offset to start from, must be the start of a line
+     * @param handler     receives the books in chunks of chunkSize (the last one may be smaller)
+     * @return the number of books read
+     * @throws Exception if the file cannot be read or the handler fails
+     */
+    long read(long startOffset, ChunkHandler handler) throws Exception {
+        lines = 0;
+        rows = 0;
+        rejected = 0;
+        List<Book> chunk = new ArrayList<>(chunkSize);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = startOffset;
+            int length = 0; // Bytes of the current line
+            boolean bom = startOffset == 0; // Skip a UTF-8 byte order mark at the very start
+            while (position < size) {
+                long windowSize = Math.min(WINDOW, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                if (bom && windowSize >= 3 && (buffer.get(0) & 0xFF) == 0xEF && (buffer.get(1) & 0xFF) == 0xBB
+                        && (buffer.get(2) & 0xFF) == 0xBF) {
+                    buffer.position(3);
+                }
+                bom = false;
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b != '\n') {
+                        if (length == line.length) {
+                            line = Arrays.copyOf(line, length * 2);
+                        }
+                        line[length++] = b;
+                        continue;
+                    }
+                    parseLine(length, chunk);
+                    length = 0;
+                    if (chunk.size() == chunkSize) {
+                        handler.accept(chunk, position + buffer.position());
+                        chunk = new ArrayList<>(chunkSize);
+                    }
+                }
+                position += windowSize;
+            }
+            if (length > 0) { // The last line has no line separator
+                parseLine(length, chunk);
+            }
+            if (!chunk.isEmpty()) {
+                handler.accept(chunk, size);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Split the current line at commas, trim the fields and build a book
+     * Lines that cannot be interpreted or do not fit table book are counted as rejected
+     */
+    private void parseLine(int length, List<Book> chunk) {
+        lines++;
+        int field = 0;
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || line[i] == ',') {
+                if (field == FIELDS) { // Too many fields
+                    field++;
+                    break;
+                }
+                int s = start;
+                int e = i;
+                while (s < e && isSpace(line[s])) {
+                    s++;
+                }
+                while (e > s && isSpace(line[e - 1])) {
+                    e--;
+                }
+                starts[field] = s;
+                ends[field] = e;
+                field++;
+                start = i + 1;
+            }
+        }
+        if (field == 1 && starts[0] == ends[0]) { // Blank line
+            return;
+        }
+        try {
+            if (field != FIELDS) {
+                throw new NumberFormatException("expected " + FIELDS + " fields");
+            }
+            Book book = new Book(text(0), text(1), text(2), text(3), integer(4), text(5),
+                    price(text(6)), integer(7), integer(8));
+            chunk.add(book);
+            rows++;
+        } catch (IllegalArgumentException e) { // Including NumberFormatException
+            rejected++;
+            logger.warn("Cannot interpret line {} ({}): {}", lines, e.getMessage(),
+                    new String(line, 0, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    /**
+     * The text of a field, no longer than its column
+     */
+    private String text(int field) {
+        String text = new String(line, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+        int length = text.codePointCount(0, text.length()); // Characters, like char_length
+        if (field == 0 && length != BNO_LENGTH) {
+            throw new IllegalArgumentException("the book number is not " + BNO_LENGTH + " characters long");
+        }
+        if (MAX_LENGTHS[field] > 0 && length > MAX_LENGTHS[field]) {
+            throw new IllegalArgumentException("field " + (field + 1) + " is longer than " + MAX_LENGTHS[field]
+                    + " characters");
+        }
+        return text;
+    }
+
+    /**
+     * A price that fits decimal(7, 2)
+     */
+    private static BigDecimal price(String text) {
+        BigDecimal price = new BigDecimal(text);
+        if (price.scale() > 2 || price.abs().compareTo(MAX_PRICE) > 0) {
+            throw new IllegalArgumentException("the price does not fit decimal(7, 2)");
+        }
+        return price;
+    }
+
+    /**
+     * Parse a decimal integer straight from the bytes
+     */
+    private int integer(int field) {
+        int i = starts[field];
+        int end = ends[field];
+        boolean negative = i < end && line[i] == '-';
+        if (negative || (i < end && line[i] == '+')) {
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("empty number in field " + (field + 1));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("not a number in field " + (field + 1));
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("number too large in field " + (field + 1));
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    long getLines() {
+        return lines;
+    }
+
+    long getRows() {
+        return rows;
+    }
+
+    long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,379 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory range index over the year and the price of the books
+ * Every book gets an int row id, each indexed column is a pair of parallel primitive
+ * arrays (key, row id) sorted by key then book number, so a range is two binary searches
+ * and a page of it is a contiguous slice, continued after the (key, book number) of the
+ * last book of the previous page (the order of "order by year, bno")
+ * Prices are indexed as long cents, a decimal(7, 2) is exact in there
+ * Books without a year or a price are not in that column (like "between" never matches null)
+ * Writes shift the arrays in place (System.arraycopy), fine for the write rate of a library
+ */
+class BookRangeIndex {
+    static final Logger logger = LoggerFactory.getLogger(BookRangeIndex.class);
+    private static final BigDecimal MAX_CENTS = BigDecimal.valueOf(Long.MAX_VALUE);
+    private static final BigDecimal MIN_CENTS = BigDecimal.valueOf(Long.MIN_VALUE);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> rowIds = new HashMap<>();
+    private String[] bnos = new String[16]; // row id -> book number
+    private final Column years = new Column();
+    private final Column prices = new Column();
+    private List<Book> written; // The puts made while build() reads the table, null if not building
+    private volatile boolean built; // Until then the queries must go to the database
+
+    /**
+     * Load the year and the price of every book, replacing what was indexed
+     * The books put while the table is read are put again once it is loaded, as the
+     * read may have missed them
+     *
+     * @param pool the pool to borrow the connection from
+     */
+    synchronized void build(ConnectionPool pool) {
+        long start = System.nanoTime();
+        int rows = 0;
+        String[] loadedBnos = new String[16];
+        long[] loadedYears = new long[16];
+        boolean[] hasYear = new boolean[16];
+        long[] loadedPrices = new long[16];
+        boolean[] hasPrice = new boolean[16];
+        lock.writeLock().lock();
+        written = new ArrayList<>();
+        lock.writeLock().unlock();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pStmt = conn.prepareStatement("select bno, year, price from book")) {
+            pStmt.setFetchSize(Integer.MIN_VALUE); // Stream, only three narrow columns are kept
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                while (rSet.next()) {
+                    if (rows == loadedBnos.length) {
+                        loadedBnos = Arrays.copyOf(loadedBnos, rows * 2);
+                        loadedYears = Arrays.copyOf(loadedYears, rows * 2);
+                        hasYear = Arrays.copyOf(hasYear, rows * 2);
+                        loadedPrices = Arrays.copyOf(loadedPrices, rows * 2);
+                        hasPrice = Arrays.copyOf(hasPrice, rows * 2);
+                    }
+                    loadedBnos[rows] = rSet.getString(1);
+                    loadedYears[rows] = rSet.getInt(2);
+                    hasYear[rows] = !rSet.wasNull();
+                    BigDecimal price = rSet.getBigDecimal(3);
+                    hasPrice[rows] = price != null;
+                    loadedPrices[rows] = price == null ? 0 : cents(price);
+                    rows++;
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Unable to build the range index: {}", e.getMessage());
+            lock.writeLock().lock();
+            written = null;
+            lock.writeLock().unlock();
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            rowIds.clear();
+            bnos = loadedBnos;
+            for (int row = 0; row < rows; row++) {
+                rowIds.put(loadedBnos[row], row);
+            }
+            years.load(loadedYears, hasYear, rows);
+            prices.load(loadedPrices, hasPrice, rows);
+            for (Book book : written) {
+                index(book);
+            }
+            written = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        built = true;
+        logger.info("Range index built with {} book(s) in {}ms", rows, (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Index a book that was added or changed
+     *
+     * @param book the new version of the book
+     */
+    void put(Book book) {
+        lock.writeLock().lock();
+        try {
+            index(book);
+            if (written != null) {
+                written.add(book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Put a book in the columns, with the write lock held
+     * A Book always has a year, only the rows of the table can lack one
+     */
+    private void index(Book book) {
+        Integer row = rowIds.get(book.bno);
+        if (row == null) {
+            row = rowIds.size();
+            if (row == bnos.length) {
+                bnos = Arrays.copyOf(bnos, row * 2);
+            }
+            bnos[row] = book.bno;
+            rowIds.put(book.bno, row);
+        }
+        years.put(row, book.year, true);
+        prices.put(row, book.price == null ? 0 : cents(book.price), book.price != null);
+    }
+
+    /**
+     * A page of the book numbers of the books published from one year to another (both
+     * included), by year then book number
+     *
+     * @param after the last book of the previous page, null for the first page
+     * @param limit the maximum number of book numbers returned
+     */
+    List<String> scanYears(int from, int to, Book after, int limit) {
+        lock.readLock().lock();
+        try {
+            return after == null ? years.scan(from, to, 0, null, limit)
+                    : years.scan(from, to, after.year, after.bno, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A page of the book numbers of the books priced from one price to another (both
+     * included), by price then book number
+     *
+     * @param after the last book of the previous page (with a price), null for the first page
+     * @param limit the maximum number of book numbers returned
+     */
+    List<String> scanPrices(BigDecimal from, BigDecimal to, Book after, int limit) {
+        lock.readLock().lock();
+        try {
+            return after == null ? prices.scan(ceilingCents(from), floorCents(to), 0, null, limit)
+                    : prices.scan(ceilingCents(from), floorCents(to), cents(after.price), after.bno, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean isBuilt() {
+        return built;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return rowIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static long cents(BigDecimal price) {
+        return price.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    // A bound with a fraction of a cent only matches the whole cents inside the range
+    private static long ceilingCents(BigDecimal price) {
+        return clampedCents(price, RoundingMode.CEILING);
+    }
+
+    private static long floorCents(BigDecimal price) {
+        return clampedCents(price, RoundingMode.FLOOR);
+    }
+
+    // A bound beyond what a long holds is as good as the largest (smallest) long
+    private static long clampedCents(BigDecimal price, RoundingMode mode) {
+        BigDecimal cents = price.movePointRight(2).setScale(0, mode);
+        if (cents.compareTo(MAX_CENTS) > 0) {
+            return Long.MAX_VALUE;
+        }
+        return cents.compareTo(MIN_CENTS) < 0 ? Long.MIN_VALUE : cents.longValue();
+    }
+
+    /**
+     * One indexed column: entries sorted by (key, book number of the row), plus the key of
+     * every row (to find its entry when the row changes)
+     */
+    private class Column {
+        private long[] keys = new long[16];
+        private int[] rows = new int[16];
+        private int size;
+        private long[] keyOfRow = new long[16];
+        private boolean[] indexed = new boolean[16]; // Whether the row has an entry
+
+        /**
+         * Replace the entries with those of rows 0 to count - 1, sorted once
+         */
+        void load(long[] rowKeys, boolean[] present, int count) {
+            keys = new long[Math.max(16, count)];
+            rows = new int[keys.length];
+            keyOfRow = Arrays.copyOf(rowKeys, keys.length);
+            indexed = new boolean[keys.length];
+            size = 0;
+            for (int row = 0; row < count; row++) {
+                if (present == null || present[row]) {
+                    keys[size] = rowKeys[row];
+                    rows[size] = row;
+                    indexed[row] = true;
+                    size++;
+                }
+            }
+            sort(0, size - 1);
+        }
+
+        void put(int row, long key, boolean present) {
+            if (row >= keyOfRow.length) {
+                keyOfRow = Arrays.copyOf(keyOfRow, Math.max(row + 1, keyOfRow.length * 2));
+                indexed = Arrays.copyOf(indexed, keyOfRow.length);
+            }
+            if (indexed[row]) {
+                if (present && keyOfRow[row] == key) {
+                    return; // Unchanged
+                }
+                int at = find(keyOfRow[row], row);
+                System.arraycopy(keys, at + 1, keys, at, size - at - 1);
+                System.arraycopy(rows, at + 1, rows, at, size - at - 1);
+                size--;
+                indexed[row] = false;
+            }
+            if (present) {
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                    rows = Arrays.copyOf(rows, size * 2);
+                }
+                int at = -find(key, row) - 1;
+                System.arraycopy(keys, at, keys, at + 1, size - at);
+                System.arraycopy(rows, at, rows, at + 1, size - at);
+                keys[at] = key;
+                rows[at] = row;
+                size++;
+                keyOfRow[row] = key;
+                indexed[row] = true;
+            }
+        }
+
+        /**
+         * The book numbers of the entries with keys from from to to, after (afterKey, afterBno)
+         */
+        List<String> scan(long from, long to, long afterKey, String afterBno, int limit) {
+            int first = bound(from, null);
+            if (afterBno != null) {
+                first = Math.max(first, bound(afterKey, afterBno));
+            }
+            int end = from > to ? first : Math.max(first, to == Long.MAX_VALUE ? size : bound(to + 1, null));
+            end = (int) Math.min(end, (long) first + Math.max(0, limit));
+            List<String> found = new ArrayList<>(end - first);
+            for (int i = first; i < end; i++) {
+                found.add(bnos[rows[i]]);
+            }
+            return found;
+        }
+
+        /**
+         * The first entry after (key, bno), or the first whose key is at least key if bno is null
+         */
+        private int bound(long key, String bno) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int cmp = Long.compare(keys[mid], key);
+                if (cmp < 0 || cmp == 0 && bno != null && bnos[rows[mid]].compareTo(bno) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * The position of (key, row) like Arrays.binarySearch: -(insertion point) - 1 if absent
+         */
+        private int find(long key, int row) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(keys[mid], rows[mid], key, row);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private int compare(long key1, int row1, long key2, int row2) {
+            int cmp = Long.compare(key1, key2);
+            return cmp != 0 || row1 == row2 ? cmp : bnos[row1].compareTo(bnos[row2]);
+        }
+
+        /**
+         * Quicksort of the parallel arrays, insertion sort for short ranges
+         */
+        private void sort(int low, int high) {
+            while (high - low > 16) {
+                int mid = (low + high) >>> 1;
+                long pivotKey = keys[mid];
+                int pivotRow = rows[mid];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (compare(keys[i], rows[i], pivotKey, pivotRow) < 0) {
+                        i++;
+                    }
+                    while (compare(keys[j], rows[j], pivotKey, pivotRow) > 0) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(i++, j--);
+                    }
+                }
+                // Recurse into the smaller half, loop on the larger one
+                if (j - low < high - i) {
+                    sort(low, j);
+                    low = i;
+                } else {
+                    sort(i, high);
+                    high = j;
+                }
+            }
+            for (int i = low + 1; i <= high; i++) {
+                for (int j = i; j > low && compare(keys[j - 1], rows[j - 1], keys[j], rows[j]) > 0; j--) {
+                    swap(j - 1, j);
+                }
+            }
+        }
+
+        private void swap(int i, int j) {
+            long key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+            int row = rows[i];
+            rows[i] = rows[j];
+            rows[j] = row;
+        }
+    }
+}
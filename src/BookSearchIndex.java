@@ -0,0 +1,334 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory inverted index over the title, author, press and category of the books
+ * Values are split into lower case words. A query matches the books that contain
+ * every query word in any of the fields, where a word matches:
+ * 1. the same word
+ * 2. any word it is a prefix of (only for the last query word, for search-as-you-type)
+ * 3. if neither found anything, words within a small edit distance (typos), the
+ * candidates come from a trigram index of the vocabulary
+ * Safe for concurrent reads and writes, updates of the same book are serialized
+ */
+class BookSearchIndex {
+    static final Logger logger = LoggerFactory.getLogger(BookSearchIndex.class);
+
+    private final Map<String, Book> docs = new ConcurrentHashMap<>(); // The indexed version of every book
+    private final Map<String, Set<String>> postings = new ConcurrentHashMap<>(); // word -> book numbers
+    private final NavigableSet<String> words = new ConcurrentSkipListSet<>(); // Sorted vocabulary, for prefixes
+    private final Map<String, Set<String>> trigrams = new ConcurrentHashMap<>(); // trigram -> words
+
+    /**
+     * Load every book with several connections, each reading a range of book numbers
+     * The ranges come from one pass over the primary key, so that every range is read
+     * with an index range scan and the table is read once in total
+     *
+     * @param pool    the pool to borrow the connections from
+     * @param threads the number of connections used
+     */
+    void build(ConnectionPool pool, int threads) {
+        long start = System.nanoTime();
+        int n = Math.max(1, Math.min(threads, pool.getMaxSize()));
+        List<String> bounds;
+        try (Connection conn = pool.getConnection()) {
+            bounds = splitKeys(conn, n);
+        } catch (SQLException e) {
+            logger.warn("Unable to build the search index: {}", e.getMessage());
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(bounds.size());
+        List<Future<Integer>> parts = new ArrayList<>();
+        for (int i = 0; i < bounds.size(); i++) {
+            String from = bounds.get(i);
+            String to = i + 1 < bounds.size() ? bounds.get(i + 1) : null;
+            parts.add(executor.submit(() -> load(pool, from, to)));
+        }
+        int loaded = 0;
+        for (Future<Integer> part : parts) {
+            try {
+                loaded += part.get();
+            } catch (Exception e) {
+                logger.warn("Unable to build the search index: {}", e.toString());
+            }
+        }
+        executor.shutdown();
+        logger.info("Search index built with {} book(s), {} word(s) in {}ms", loaded, words.size(),
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Split the book numbers into ranges of about the same number of books
+     *
+     * @param conn  the connection to read the book numbers with
+     * @param parts the number of ranges wanted
+     * @return the lower bound of every range in order, the first one is "" (below every book number)
+     * @throws SQLException if the book numbers cannot be read
+     */
+    static List<String> splitKeys(Connection conn, int parts) throws SQLException {
+        List<String> bounds = new ArrayList<>(parts);
+        bounds.add("");
+        if (parts == 1) {
+            return bounds;
+        }
+        long count;
+        try (PreparedStatement pStmt = conn.prepareStatement("select count(*) from book");
+             ResultSet rSet = pStmt.executeQuery()) {
+            rSet.next();
+            count = rSet.getLong(1);
+        }
+        long step = Math.max(1, (count + parts - 1) / parts);
+        try (PreparedStatement pStmt = conn.prepareStatement("select bno from book order by bno")) {
+            pStmt.setFetchSize(Integer.MIN_VALUE); // Stream, only the keys are read
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                for (long row = 0; rSet.next(); row++) {
+                    if (row > 0 && row % step == 0 && bounds.size() < parts) {
+                        bounds.add(rSet.getString(1));
+                    }
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Index the books from book number from (inclusive) to to (exclusive, null for no end)
+     */
+    private int load(ConnectionPool pool, String from, String to) throws SQLException {
+        int loaded = 0;
+        try (Connection conn = pool.getConnection(); PreparedStatement pStmt = conn.prepareStatement(
+                to == null ? "select * from book where bno >= ?" : "select * from book where bno >= ? and bno < ?")) {
+            pStmt.setString(1, from);
+            if (to != null) {
+                pStmt.setString(2, to);
+            }
+            pStmt.setFetchSize(Integer.MIN_VALUE); // Stream, the range may be large
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                while (rSet.next()) {
+                    put(Book.from(rSet));
+                    loaded++;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Index a book that was added or changed
+     *
+     * @param book the new version of the book
+     */
+    void put(Book book) {
+        docs.compute(book.bno, (bno, old) -> {
+            Set<String> before = old == null ? new HashSet<>() : words(old);
+            Set<String> after = words(book);
+            for (String word : before) {
+                if (!after.contains(word)) {
+                    removePosting(word, bno);
+                }
+            }
+            for (String word : after) {
+                if (!before.contains(word)) {
+                    addPosting(word, bno);
+                }
+            }
+            return book;
+        });
+    }
+
+    private void addPosting(String word, String bno) {
+        postings.compute(word, (w, bnos) -> {
+            if (bnos == null) {
+                bnos = ConcurrentHashMap.newKeySet();
+                words.add(w);
+                for (String gram : trigrams(w)) {
+                    trigrams.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(w);
+                }
+            }
+            bnos.add(bno);
+            return bnos;
+        });
+    }
+
+    private void removePosting(String word, String bno) {
+        postings.computeIfPresent(word, (w, bnos) -> {
+            bnos.remove(bno);
+            if (bnos.isEmpty()) {
+                words.remove(w); // The trigrams keep the word, candidates without postings are skipped
+                return null;
+            }
+            return bnos;
+        });
+    }
+
+    /**
+     * Find the books matching every word of the query
+     *
+     * @param query the words to search for
+     * @param limit the maximum number of book numbers returned
+     * @return the book numbers found, in order
+     */
+    List<String> search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        Set<String> result = null;
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i);
+            Set<String> matches = new HashSet<>(postings.getOrDefault(term, Set.of()));
+            if (i == terms.size() - 1) { // Search as you type: the last word may be incomplete
+                for (String word : prefixed(term)) {
+                    matches.addAll(postings.getOrDefault(word, Set.of()));
+                }
+            }
+            if (matches.isEmpty()) {
+                for (String word : similar(term)) {
+                    matches.addAll(postings.getOrDefault(word, Set.of()));
+                }
+            }
+            if (result == null) {
+                result = matches;
+            } else {
+                result.retainAll(matches);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        List<String> found = new ArrayList<>(result == null ? Set.of() : new TreeSet<>(result));
+        return found.subList(0, Math.min(limit, found.size()));
+    }
+
+    /**
+     * Complete a prefix to the words of the index, the most frequent first
+     *
+     * @param prefix the beginning of a word
+     * @param limit  the maximum number of words returned
+     * @return the completions
+     */
+    List<String> complete(String prefix, int limit) {
+        List<String> terms = tokenize(prefix);
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<String> completions = prefixed(terms.get(terms.size() - 1));
+        completions.sort(Comparator.comparingInt((String word) -> -postings.getOrDefault(word, Set.of()).size())
+                .thenComparing(Comparator.naturalOrder()));
+        return completions.subList(0, Math.min(limit, completions.size()));
+    }
+
+    private List<String> prefixed(String prefix) {
+        return new ArrayList<>(words.subSet(prefix, true, prefix + Character.MAX_VALUE, false));
+    }
+
+    /**
+     * Words of the vocabulary within edit distance 1 (2 for words longer than 5)
+     */
+    private List<String> similar(String term) {
+        int maxDistance = term.length() > 5 ? 2 : 1;
+        Set<String> candidates = new HashSet<>();
+        for (String gram : trigrams(term)) {
+            candidates.addAll(trigrams.getOrDefault(gram, Set.of()));
+        }
+        List<String> similar = new ArrayList<>();
+        for (String word : candidates) {
+            if (Math.abs(word.length() - term.length()) <= maxDistance && postings.containsKey(word)
+                    && distance(term, word, maxDistance) <= maxDistance) {
+                similar.add(word);
+            }
+        }
+        return similar;
+    }
+
+    /**
+     * Levenshtein distance, stops early once it's over max
+     */
+    static int distance(String a, String b, int max) {
+        int[] prev = new int[b.length() + 1];
+        int[] curr = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            curr[0] = i;
+            int rowMin = curr[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                curr[j] = Math.min(Math.min(curr[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                rowMin = Math.min(rowMin, curr[j]);
+            }
+            if (rowMin > max) {
+                return rowMin;
+            }
+            int[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+        }
+        return prev[b.length()];
+    }
+
+    /**
+     * Trigrams of a word padded with '$' at both ends ("eng" -> "$en", "eng", "ng$")
+     */
+    static Set<String> trigrams(String word) {
+        String padded = "$" + word + "$";
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    private static Set<String> words(Book book) {
+        Set<String> words = new HashSet<>();
+        for (String value : new String[]{book.title, book.author, book.press, book.category}) {
+            words.addAll(tokenize(value));
+        }
+        return words;
+    }
+
+    /**
+     * Split a value into lower case words of letters and digits
+     *
+     * @param value the text to be split, may be null
+     * @return the words in order
+     */
+    static List<String> tokenize(String value) {
+        List<String> tokens = new ArrayList<>();
+        if (value == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= value.length(); i++) {
+            boolean letter = i < value.length() && Character.isLetterOrDigit(value.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                tokens.add(value.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    int size() {
+        return docs.size();
+    }
+}
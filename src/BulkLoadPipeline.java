@@ -0,0 +1,190 @@
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load a book file with several connections at once
+ * Stages:
+ * 1. the parser (the calling thread) reads chunks with a BookFileReader
+ * 2. a bounded queue hands the chunks over, the parser blocks when it's full
+ * (backpressure: parsing never runs ahead of the writers by more than the queue)
+ * 3. N writer threads, each with its own pooled connection, commit chunk by chunk
+ * Progress (rows/s and the depth of every stage) is logged periodically
+ * Every committed chunk is recorded in the import checkpoint, chunks committed by
+ * an earlier run are skipped by the parser
+ */
+class BulkLoadPipeline {
+    static final Logger logger = LoggerFactory.getLogger(BulkLoadPipeline.class);
+
+    /**
+     * A parsed chunk on its way to a writer
+     */
+    static class Chunk {
+        final long number; // Position of the chunk in the file (see ImportCheckpoint)
+        final List<Book> books;
+        final long endOffset;
+
+        Chunk(long number, List<Book> books, long endOffset) {
+            this.number = number;
+            this.books = books;
+            this.endOffset = endOffset;
+        }
+    }
+
+    private static final Chunk END = new Chunk(-1, new ArrayList<>(), -1); // Tells a writer to stop
+
+    private final ConnectionPool pool;
+    private final BookBatchWriter writer;
+    private final int writers;
+    private final BlockingQueue<Chunk> queue;
+    private final long reportIntervalMillis;
+    private ImportCheckpoint checkpoint;
+
+    // Statistics
+    private final LongAdder parsed = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder parserBlockedNanos = new LongAdder(); // Time spent waiting for the writers
+    private final AtomicInteger writing = new AtomicInteger(); // Chunks being written right now
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private long startNanos;
+
+    /**
+     * @param pool                 the pool the writers borrow their connections from
+     * @param writer               writes a chunk in one transaction
+     * @param writers              the number of writer threads
+     * @param queueCapacity        the number of chunks that can wait for a writer
+     * @param reportIntervalMillis how often progress is logged, 0 to disable
+     */
+    BulkLoadPipeline(ConnectionPool pool, BookBatchWriter writer, int writers, int queueCapacity,
+                     long reportIntervalMillis) {
+        this.pool = pool;
+        this.writer = writer;
+        this.writers = Math.max(1, writers);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.reportIntervalMillis = reportIntervalMillis;
+    }
+
+    /**
+     * Parse and write the file from the checkpoint on
+     *
+     * @param reader     the reader of the file, with the chunk size of the checkpoint
+     * @param checkpoint where to start from, updated after every commit
+     * @return the number of books written
+     * @throws Exception the first failure of the parser or of a writer
+     */
+    long run(BookFileReader reader, ImportCheckpoint checkpoint) throws Exception {
+        this.checkpoint = checkpoint;
+        startNanos = System.nanoTime();
+        List<Thread> threads = new ArrayList<>(writers);
+        for (int i = 0; i < writers; i++) {
+            Thread t = new Thread(this::write, "bulk-load-writer-" + i);
+            t.start();
+            threads.add(t);
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bulk-load-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        if (reportIntervalMillis > 0) {
+            reporter.scheduleAtFixedRate(() -> logger.info("{}", progress()), reportIntervalMillis,
+                    reportIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        try {
+            long[] next = {checkpoint.getNextChunk()};
+            reader.read(checkpoint.getOffset(), (books, endOffset) -> {
+                if (failure.get() != null) { // A writer failed, stop parsing
+                    throw failure.get();
+                }
+                long number = next[0]++;
+                if (checkpoint.isCommitted(number)) { // Committed by the previous run
+                    checkpoint.committed(number, endOffset, 0);
+                    return;
+                }
+                long blocked = System.nanoTime();
+                queue.put(new Chunk(number, books, endOffset));
+                parserBlockedNanos.add(System.nanoTime() - blocked);
+                parsed.add(books.size());
+            });
+        } catch (Exception e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            // Writers stop once they reach the END marker (after every chunk before it)
+            for (int i = 0; i < writers; i++) {
+                queue.put(END);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            reporter.shutdownNow();
+        }
+        logger.info("Bulk load finished: {}", progress());
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return written.sum();
+    }
+
+    /**
+     * Body of a writer thread
+     */
+    private void write() {
+        try (OperationContext op = OperationContext.enter("importBooks"); Connection conn = pool.getConnection()) {
+            long rows = 0;
+            while (true) {
+                Chunk chunk = queue.take();
+                if (chunk == END) {
+                    op.rows(rows);
+                    return;
+                }
+                if (failure.get() != null) { // Drain without writing once something failed
+                    continue;
+                }
+                writing.incrementAndGet();
+                try {
+                    int n = writer.write(conn, chunk.books);
+                    written.add(n);
+                    rows += n;
+                    checkpoint.committed(chunk.number, chunk.endOffset, chunk.books.size());
+                } finally {
+                    writing.decrementAndGet();
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Writer {} failed: {}", Thread.currentThread().getName(), e.getMessage());
+            failure.compareAndSet(null, e);
+            // Keep consuming so the parser is never stuck on a full queue
+            try {
+                while (queue.take() != END) {
+                    logger.debug("Dropping a chunk after failure");
+                }
+            } catch (InterruptedException ein) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Throughput and stage depths in a human readable form
+     *
+     * @return the progress line
+     */
+    String progress() {
+        double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-3);
+        return String.format("%d parsed, %d written (%.0f rows/s), queue %d/%d, %d/%d writer(s) busy, "
+                        + "parser blocked %.1fs",
+                parsed.sum(), written.sum(), written.sum() / seconds, queue.size(),
+                queue.size() + queue.remainingCapacity(), writing.get(), writers, parserBlockedNanos.sum() / 1e9);
+    }
+}
@@ -0,0 +1,69 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of direct buffers of one size
+ * Direct buffers are costly to allocate and are freed only by the GC, so they are
+ * kept for reuse instead: at most maxPooled of them are kept, the others are dropped
+ * when released. Any thread may acquire and release
+ */
+class ByteBufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+
+    /**
+     * @param bufferSize the capacity of every buffer
+     * @param maxPooled  the maximum number of free buffers kept
+     */
+    ByteBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * A cleared buffer, a pooled one if any is free
+     */
+    ByteBuffer acquire() {
+        acquired.increment();
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            allocated.increment();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buffer.clear();
+    }
+
+    /**
+     * Give a buffer back, it must not be used afterwards
+     * Buffers not made by this pool are ignored
+     *
+     * @param buffer the buffer, may be null
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    String statistics() {
+        long n = acquired.sum();
+        return String.format("buffers: %d acquired, %d allocated (%.2f%% reused), %d free", n, allocated.sum(),
+                n == 0 ? 0.0 : 100.0 * (n - allocated.sum()) / n, pooled.get());
+    }
+}
@@ -0,0 +1,61 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A row of table card (a reader's proof)
+ */
+class Card {
+    static final String[] COLUMNS = {"cno", "name", "department", "type"};
+
+    final String cno;
+    final String name;
+    final String department;
+    final String type; // "S" (student) or "T" (teacher)
+
+    Card(String cno, String name, String department, String type) {
+        this.cno = cno;
+        this.name = name;
+        this.department = department;
+        this.type = type;
+    }
+
+    /**
+     * Read the current row of a "select * from card" result
+     *
+     * @param rSet the result set, on a row
+     * @return the card of the row
+     * @throws SQLException if the columns cannot be read
+     */
+    static Card from(ResultSet rSet) throws SQLException {
+        return new Card(rSet.getString("cno"), rSet.getString("name"), rSet.getString("department"),
+                rSet.getString("type"));
+    }
+
+    /**
+     * Set the 4 parameters of an "insert into card values (?,?,?,?)" like statement
+     *
+     * @param pStmt the statement to be filled
+     * @throws SQLException if a parameter cannot be set
+     */
+    void setParameters(PreparedStatement pStmt) throws SQLException {
+        pStmt.setString(1, cno);
+        pStmt.setString(2, name);
+        pStmt.setString(3, department);
+        pStmt.setString(4, type);
+    }
+
+    /**
+     * The values in column order, used for printing
+     *
+     * @return the row as strings
+     */
+    String[] toRow() {
+        return new String[]{cno, name, department, type};
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", toRow());
+    }
+}
@@ -0,0 +1,134 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * Borrow and return as single atomic transactions
+ * The stock is changed by a conditional update, so the check and the change are one
+ * statement and two borrowers can never take the last copy together. Everything else
+ * (no such card, already borrowed) is found out by the constraints of table borrow
+ * instead of queries ahead of the transaction
+ * Both transactions lock the book row first then the borrow row, in the same order
+ */
+class Circulation {
+    static final String TAKE = "update book set stock=stock-1 where bno=? and stock>0";
+    static final String INSERT = "insert into borrow values (?,?,?,?)";
+    static final String GIVE_BACK = "update book set stock=stock+1 where bno=? "
+            + "and exists (select 1 from borrow where cno=? and bno=?)";
+    static final String DELETE = "delete from borrow where cno=? and bno=?";
+
+    // MySQL error codes
+    static final int DUPLICATE_KEY = 1062;
+    static final int NO_REFERENCED_ROW = 1452;
+
+    /**
+     * What became of a borrow or a return
+     */
+    enum Outcome {
+        OK,
+        NO_CARD,
+        NO_BOOK,
+        NO_STOCK, // Also reported if the reader has the book already but no copy is left
+        ALREADY_BORROWED,
+        NOT_BORROWED
+    }
+
+    /**
+     * Borrow a book: take a copy and record the borrow, or change nothing
+     *
+     * @param conn       the connection, left in auto commit mode
+     * @param cno        the card number of the reader
+     * @param bno        the book number
+     * @param borrowDate the date of the borrow
+     * @param returnDate the date the book is due
+     * @return OK, NO_CARD, NO_BOOK, NO_STOCK or ALREADY_BORROWED
+     * @throws SQLException if the transaction failed (it is rolled back)
+     */
+    static Outcome borrow(Connection conn, String cno, String bno, LocalDate borrowDate, LocalDate returnDate)
+            throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            try (PreparedStatement pStmt = conn.prepareStatement(TAKE)) {
+                pStmt.setString(1, bno);
+                if (pStmt.executeUpdate() == 0) {
+                    conn.rollback();
+                    return exists(conn, bno) ? Outcome.NO_STOCK : Outcome.NO_BOOK; // Only asked when failing
+                }
+            }
+            try (PreparedStatement pStmt = conn.prepareStatement(INSERT)) {
+                pStmt.setString(1, cno);
+                pStmt.setString(2, bno);
+                pStmt.setDate(3, Date.valueOf(borrowDate));
+                pStmt.setDate(4, Date.valueOf(returnDate));
+                pStmt.executeUpdate();
+            } catch (SQLException e) {
+                if (e.getErrorCode() == DUPLICATE_KEY) {
+                    conn.rollback();
+                    return Outcome.ALREADY_BORROWED;
+                } else if (e.getErrorCode() == NO_REFERENCED_ROW) { // The book exists, so it's the card
+                    conn.rollback();
+                    return Outcome.NO_CARD;
+                }
+                throw e;
+            }
+            conn.commit();
+            return Outcome.OK;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Return a book: give the copy back and delete the borrow record, or change nothing
+     *
+     * @param conn the connection, left in auto commit mode
+     * @param cno  the card number of the reader
+     * @param bno  the book number
+     * @return OK or NOT_BORROWED
+     * @throws SQLException if the transaction failed (it is rolled back)
+     */
+    static Outcome giveBack(Connection conn, String cno, String bno) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            try (PreparedStatement pStmt = conn.prepareStatement(GIVE_BACK)) {
+                pStmt.setString(1, bno);
+                pStmt.setString(2, cno);
+                pStmt.setString(3, bno);
+                if (pStmt.executeUpdate() == 0) {
+                    conn.rollback();
+                    return Outcome.NOT_BORROWED;
+                }
+            }
+            try (PreparedStatement pStmt = conn.prepareStatement(DELETE)) {
+                pStmt.setString(1, cno);
+                pStmt.setString(2, bno);
+                if (pStmt.executeUpdate() == 0) { // Returned by someone else in the meantime
+                    conn.rollback();
+                    return Outcome.NOT_BORROWED;
+                }
+            }
+            conn.commit();
+            return Outcome.OK;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static boolean exists(Connection conn, String bno) throws SQLException {
+        try (PreparedStatement pStmt = conn.prepareStatement("select exists(select 1 from book where bno=?)")) {
+            pStmt.setString(1, bno);
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                return rSet.next() && rSet.getBoolean(1);
+            }
+        }
+    }
+}
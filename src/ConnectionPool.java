@@ -0,0 +1,391 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of JDBC connections
+ * Connections handed out are light handles, calling close() on them returns the
+ * physical connection to the pool (so try-with-resources is the way to use it)
+ * Features:
+ * 1. fixed min/max size, callers wait at most maxWait for a free connection
+ * 2. validation on borrow (skipped if the connection was used very recently)
+ * 3. idle eviction (down to min size) and max lifetime rotation in the background
+ * 4. wait time and usage statistics
+ * 5. a cache of prepared statements for every connection (see StatementCache)
+ * 6. latency, row and error counts of every statement run through it, and a log of
+ * the slow ones (see SqlStats)
+ */
+class ConnectionPool implements AutoCloseable {
+    static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private final String url;
+    private final Properties info;
+    private final int minSize;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final int validationTimeoutSeconds;
+    private final long validationIntervalNanos;
+    private final long idleTimeoutNanos;
+    private final long maxLifetimeNanos;
+    private final int statementCacheSize;
+    private final SqlStats sqlStats; // null if disabled
+
+    // Most recently used connections are at the front (they're the most likely to be alive)
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits; // One permit per connection that could be handed out
+    private final AtomicInteger total = new AtomicInteger(); // Open physical connections
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    // Statistics
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final StatementCache.Counters statementCounters = new StatementCache.Counters();
+
+    /**
+     * Create the pool and open the minimum number of connections
+     *
+     * @param config       the configuration to read pool limits and url from
+     * @param userID       the user's id as String
+     * @param userPassword the user's password as String
+     * @throws SQLException if the initial connections cannot be opened
+     */
+    ConnectionPool(LibraryConfig config, String userID, String userPassword) throws SQLException {
+        this.url = config.jdbcUrl();
+        this.info = new Properties();
+        if (userID != null) {
+            info.setProperty("user", userID);
+        }
+        if (userPassword != null) {
+            info.setProperty("password", userPassword);
+        }
+        if (config.getBoolean("jdbc.allowLoadLocalInfile", false)) { // Needed by BookFileLoader
+            info.setProperty("allowLoadLocalInfile", "true");
+        }
+        // Update counts are the rows changed, not the rows found: an upsert reports 1 inserted,
+        // 2 updated and 0 for a row left as it was (see BookBatchWriter, LibraryService.putBook)
+        info.setProperty("useAffectedRows", "true");
+        this.maxSize = Math.max(1, config.getInt("pool.maxSize", 10));
+        this.minSize = Math.min(maxSize, Math.max(0, config.getInt("pool.minSize", 1)));
+        this.maxWaitMillis = config.getLong("pool.maxWaitMillis", 30000);
+        this.validationTimeoutSeconds = config.getInt("pool.validationTimeoutSeconds", 2);
+        this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong("pool.validationIntervalMillis", 500));
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong("pool.idleTimeoutMillis", 600000));
+        this.maxLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong("pool.maxLifetimeMillis", 1800000));
+        this.statementCacheSize = config.getInt("pool.statementCacheSize", 64);
+        this.permits = new Semaphore(maxSize, true);
+        this.sqlStats = config.getBoolean("sql.stats.enabled", true) || config.getBoolean("sql.slowLog.enabled", true)
+                ? new SqlStats(config) : null;
+
+        // Fail fast on wrong credentials: open the minimum connections right away
+        for (int i = 0; i < minSize; i++) {
+            idle.offerLast(open());
+        }
+
+        long interval = config.getLong("pool.evictionIntervalMillis", 30000);
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, interval, interval, TimeUnit.MILLISECONDS);
+        logger.info("Connection pool started with {} to {} connection(s) to {}", minSize, maxSize, url);
+    }
+
+    /**
+     * Borrow a connection, waiting at most pool.maxWaitMillis for one
+     * The returned connection must be closed to be given back
+     *
+     * @return a validated connection in auto commit mode
+     * @throws SQLException if no connection is available in time or cannot be opened
+     */
+    Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool has been closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTimeoutException("Timed out after " + maxWaitMillis + "ms waiting for a connection, "
+                        + active.get() + " in use");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        try {
+            while (true) {
+                PooledConnection pc = idle.pollFirst();
+                if (pc == null) {
+                    pc = open();
+                } else if (pc.expired(System.nanoTime()) || !validate(pc)) {
+                    destroy(pc);
+                    continue;
+                }
+                long waited = System.nanoTime() - start;
+                waitNanos.add(waited);
+                maxWaitNanos.accumulateAndGet(waited, Math::max);
+                borrowed.increment();
+                active.incrementAndGet();
+                return pc.handle();
+            }
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Take back a connection from a handle
+     * Uncommitted work is rolled back so the next borrower starts clean
+     *
+     * @param pc the connection to be returned
+     */
+    private void release(PooledConnection pc) {
+        active.decrementAndGet();
+        try {
+            boolean reusable = !closed && !pc.physical.isClosed() && !pc.expired(System.nanoTime());
+            if (reusable && !pc.physical.getAutoCommit()) {
+                pc.physical.rollback();
+                pc.physical.setAutoCommit(true);
+            }
+            if (reusable) {
+                pc.lastUsed = System.nanoTime();
+                idle.offerFirst(pc);
+            } else {
+                destroy(pc);
+            }
+        } catch (SQLException e) {
+            logger.warn("Discarding connection that failed to reset: {}", e.getMessage());
+            destroy(pc);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Check whether an idle connection is still alive
+     * A connection used within pool.validationIntervalMillis is trusted without a round trip
+     */
+    private boolean validate(PooledConnection pc) {
+        if (System.nanoTime() - pc.lastUsed < validationIntervalNanos) {
+            return true;
+        }
+        try {
+            if (pc.physical.isValid(validationTimeoutSeconds)) {
+                return true;
+            }
+        } catch (SQLException e) {
+            logger.debug("Validation failed with exception", e);
+        }
+        validationFailures.increment();
+        logger.warn("Dropping a dead connection from the pool");
+        return false;
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, info);
+        total.incrementAndGet();
+        created.increment();
+        return new PooledConnection(physical);
+    }
+
+    private void destroy(PooledConnection pc) {
+        total.decrementAndGet();
+        destroyed.increment();
+        if (pc.statements != null) {
+            pc.statements.close();
+        }
+        try {
+            pc.physical.close();
+        } catch (SQLException e) {
+            logger.debug("Unable to close the connection", e);
+        }
+    }
+
+    /**
+     * Background task: evict idle and expired connections then top up to min size
+     */
+    private void housekeep() {
+        long now = System.nanoTime();
+        Iterator<PooledConnection> it = idle.descendingIterator(); // Least recently used first
+        while (it.hasNext()) {
+            PooledConnection pc = it.next();
+            boolean idleTooLong = now - pc.lastUsed > idleTimeoutNanos && total.get() > minSize;
+            if ((idleTooLong || pc.expired(now)) && idle.remove(pc)) {
+                destroy(pc);
+            }
+        }
+        while (!closed && total.get() < minSize && permits.tryAcquire()) {
+            try {
+                idle.offerLast(open());
+            } catch (SQLException e) {
+                logger.warn("Unable to refill the connection pool: {}", e.getMessage());
+                break;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the statement statistics, null if sql.stats.enabled and sql.slowLog.enabled are false
+     */
+    SqlStats getSqlStats() {
+        return sqlStats;
+    }
+
+    /**
+     * Usage statistics of the pool in a human readable form
+     *
+     * @return the statistics line
+     */
+    String statistics() {
+        long n = borrowed.sum();
+        return String.format("pool: %d open, %d active, %d idle, %d borrow(s), avg wait %.3fms, max wait %.3fms, "
+                        + "%d timeout(s), %d created, %d destroyed, %d validation failure(s); %s",
+                total.get(), active.get(), idle.size(), n, n == 0 ? 0.0 : waitNanos.sum() / 1e6 / n,
+                maxWaitNanos.get() / 1e6, timeouts.sum(), created.sum(), destroyed.sum(), validationFailures.sum(),
+                statementCounters);
+    }
+
+    /**
+     * Close all idle connections, connections still in use are closed when returned
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            destroy(pc);
+        }
+        if (sqlStats != null) {
+            sqlStats.close();
+        }
+        logger.info("Connection pool closed, {}", statistics());
+    }
+
+    /**
+     * A physical connection together with its bookkeeping
+     */
+    private class PooledConnection {
+        final Connection physical;
+        final StatementCache statements; // null if disabled
+        final long createdAt = System.nanoTime();
+        volatile long lastUsed = createdAt;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = statementCacheSize > 0
+                    ? new StatementCache(physical, statementCacheSize, statementCounters) : null;
+        }
+
+        boolean expired(long now) {
+            return maxLifetimeNanos > 0 && now - createdAt > maxLifetimeNanos;
+        }
+
+        /**
+         * A new handle for every borrow so that a stale reference cannot touch the
+         * connection after it went back to the pool
+         */
+        Connection handle() {
+            Connection handle = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new Handle(this));
+            return sqlStats == null ? handle : sqlStats.wrap(handle);
+        }
+    }
+
+    /**
+     * Forwards everything to the physical connection except close() and
+     * prepareStatement(String), which goes through the statement cache
+     * Commits and rollbacks are recorded as jdbclibrary.Transaction events
+     */
+    private class Handle implements InvocationHandler {
+        private PooledConnection pc;
+
+        Handle(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (pc != null) {
+                        PooledConnection returned = pc;
+                        pc = null;
+                        if (returned.statements != null) {
+                            returned.statements.giveBackAll(); // Like closing a connection closes its statements
+                        }
+                        release(returned);
+                    }
+                    return null;
+                case "isClosed":
+                    return pc == null || pc.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + (pc == null ? "[returned]" : pc.physical.toString());
+                default:
+                    break;
+            }
+            if (pc == null) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (pc.statements != null && "prepareStatement".equals(method.getName()) && args.length == 1) {
+                return pc.statements.prepare((String) args[0], (Connection) proxy);
+            }
+            LibraryEvents.Transaction event = null;
+            if ("commit".equals(method.getName()) || "rollback".equals(method.getName())) {
+                event = new LibraryEvents.Transaction();
+                event.begin();
+            }
+            try {
+                return method.invoke(pc.physical, args);
+            } catch (InvocationTargetException e) {
+                if (event != null) {
+                    event.failed = true;
+                }
+                throw e.getCause();
+            } finally {
+                if (event != null && event.shouldCommit()) {
+                    event.action = method.getName();
+                    event.operation = OperationContext.currentName();
+                    event.commit();
+                }
+            }
+        }
+    }
+}
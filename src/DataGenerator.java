@@ -0,0 +1,432 @@
+import java.io.BufferedWriter;
+import java.io.Console;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generate a large catalog: books, cards and the books currently borrowed with them
+ * Everything derives from generate.seed (and generate.asOf for the dates), the same
+ * settings give the same rows whatever the number of writers
+ * <p>
+ * Book numbers start at 2000000000 and card numbers at 1000000, away from the sample
+ * rows of init.sql and the rows of the benchmarks and the workload driver, so the
+ * constraints of init.sql hold (10 and 7 characters, type S or T)
+ * The borrows are skewed: books and readers are picked with Zipf's law, so a few titles
+ * are borrowed by many and a few readers hold many books. They are drawn first, every
+ * book then gets enough copies for its borrows (stock = total - borrowed)
+ * <p>
+ * database: the rows are inserted with generate.writers connections at once, a batch and
+ * a transaction per generate.chunkSize rows, books and cards before the borrows
+ * files: book_data.txt (the format read by the console's import), card_data.txt and
+ * borrow_data.txt in generate.dir, the last two in column order for
+ * "load data local infile 'card_data.txt' into table card fields terminated by ','"
+ * <p>
+ * java DataGenerator [-u user] [-p]
+ */
+class DataGenerator {
+    static final Logger logger = LoggerFactory.getLogger(DataGenerator.class);
+    static final long FIRST_BOOK = 2_000_000_000L;
+    static final int FIRST_CARD = 1_000_000;
+    static final int MAX_CARDS = 7_000_000; // Card numbers from 8000000 are the workload driver's
+    static final int LOAN_DAYS = 30;
+
+    // Independent random streams per kind of row
+    private static final long BOOK_STREAM = 0x5DEECE66DL;
+    private static final long CARD_STREAM = 0x2545F4914F6CDD1DL;
+    private static final long BORROW_STREAM = 0x632BE59BD9B4E019L;
+
+    static final String[] CATEGORIES = {"English", "Math", "Chemistry", "Physics", "History", "Art", "Biology",
+            "Computer", "Economics", "Law", "Literature", "Medicine", "Music", "Philosophy", "Geography",
+            "Politics", "Psychology", "Sociology", "Engineering", "Astronomy"};
+    static final String[] PRESSES = {"AnhuiEdu", "BeijingGrp", "Seismolog", "BeijingLib", "ZJUPress", "Springer",
+            "Elsevier", "Wiley", "Pearson", "OReilly", "MITPress", "Cambridge", "Oxford", "Routledge", "Sage",
+            "McGrawHill", "Addison", "Manning", "NoStarch", "Apress", "Packt", "CRCPress", "Birkhauser",
+            "Tsinghua", "PKUPress", "FudanPress", "Zhonghua", "Commercial", "Penguin", "Harper"};
+    static final String[] WORDS = {"Introduction", "Advanced", "Modern", "Applied", "Principles", "Foundations",
+            "Theory", "Practice", "Analysis", "Methods", "Systems", "Design", "History", "Elements", "Essentials",
+            "Tutorial", "Handbook", "Guide", "Concepts", "Structures", "Algorithms", "Data", "Networks",
+            "Mathematical", "Chemical", "Physical", "Biological", "Economic", "Social", "Political", "Classical",
+            "Quantum", "Linear", "Discrete", "Numerical", "Statistical", "Organic", "Molecular", "Cellular",
+            "Digital", "Computer", "Software", "Database", "Language", "Literature", "Poetry", "Music", "Art",
+            "Philosophy", "Ethics", "Logic", "Calculus", "Algebra", "Geometry", "Topology", "Probability",
+            "Mechanics", "Dynamics", "Thermodynamics", "Optics", "Electronics", "Circuits", "Signals", "Control",
+            "Medicine", "Anatomy", "Psychology", "Law", "Finance", "Markets", "Management", "Engineering",
+            "World", "China", "Europe", "Ancient", "Medieval", "Renaissance", "Revolution", "Empire", "Science",
+            "Nature", "Earth", "Ocean", "Climate", "Energy", "Matter", "Space", "Time", "Life", "Mind", "Brain",
+            "Evolution", "Genetics", "Ecology", "Astronomy", "Cosmology", "Stars", "Planets", "Machines"};
+    static final String[] FIRST_NAMES = {"Mary", "John", "Jack", "Otis", "Yennefer", "Geralt", "Ciri", "Dandelion",
+            "Alice", "Bob", "Carol", "David", "Emma", "Frank", "Grace", "Henry", "Iris", "James", "Kate", "Leo",
+            "Mia", "Noah", "Olivia", "Paul", "Quinn", "Rose", "Sam", "Tina", "Uma", "Victor", "Wei", "Xin", "Yu",
+            "Zhang", "Li", "Ming", "Hui", "Jing", "Lei", "Fang"};
+    static final String[] LAST_NAMES = {"Smith", "Johnson", "Brown", "Taylor", "Miller", "Wilson", "Moore", "Clark",
+            "Lewis", "Walker", "Hall", "Young", "King", "Wright", "Green", "Baker", "Adams", "Nelson", "Hill",
+            "Campbell", "Wang", "Li", "Zhang", "Liu", "Chen", "Yang", "Huang", "Zhao", "Wu", "Zhou", "Xu", "Sun",
+            "Ma", "Zhu", "Hu", "Guo", "He", "Lin", "Luo", "Gao"};
+    static final String[] DEPARTMENTS = {"CS", "EE", "Math", "Physics", "Chemistry", "Biology", "History",
+            "Economics", "Law", "Medicine", "Arts", "Music", "Philosophy", "Management", "Civil"};
+
+    private final int books;
+    private final int cards;
+    private final int borrows;
+    private final long seed;
+    private final double bookExponent;
+    private final double readerExponent;
+    private final LocalDate asOf;
+    private final int historyDays;
+    private final int writers;
+    private final int chunkSize;
+
+    private long[] pairs; // The borrows: card index << 32 | book index
+    private int[] borrowed; // Borrows per book
+
+    DataGenerator(LibraryConfig config) {
+        this.books = config.getInt("generate.books", 1_000_000);
+        this.cards = config.getInt("generate.cards", 100_000);
+        this.borrows = config.getInt("generate.borrows", 200_000);
+        this.seed = config.getLong("generate.seed", 1);
+        this.bookExponent = Double.parseDouble(config.get("generate.zipfExponent", "0.99"));
+        this.readerExponent = Double.parseDouble(config.get("generate.readerZipfExponent", "0.6"));
+        String date = config.get("generate.asOf", "");
+        this.asOf = date.isEmpty() ? LocalDate.now(ZoneId.systemDefault()) : LocalDate.parse(date);
+        this.historyDays = Math.max(1, config.getInt("generate.historyDays", 90));
+        this.writers = Math.max(1, config.getInt("generate.writers", 4));
+        this.chunkSize = Math.max(1, config.getInt("generate.chunkSize", 1000));
+        if (books < 1 || books > Integer.MAX_VALUE - 1 || cards < 1 || cards > MAX_CARDS || borrows < 0) {
+            throw new IllegalArgumentException("generate.books must be at least 1 and generate.cards from 1 to "
+                    + MAX_CARDS + ", generate.borrows at least 0");
+        }
+        if (borrows > (long) books * cards / 2) {
+            throw new IllegalArgumentException("generate.borrows cannot exceed half of books * cards");
+        }
+    }
+
+    /**
+     * Draw the borrows (distinct card and book pairs) and count them per book
+     * Done once, before any row is written, so the books know their stock
+     */
+    void prepare() {
+        long start = System.nanoTime();
+        SplittableRandom random = new SplittableRandom(seed ^ BORROW_STREAM);
+        Zipf bookRanks = new Zipf(books, bookExponent);
+        Zipf readerRanks = new Zipf(cards, readerExponent);
+        long bookStep = step(books);
+        long cardStep = step(cards);
+        long bookOffset = Math.floorMod(seed, (long) books);
+        long cardOffset = Math.floorMod(seed, (long) cards);
+        pairs = new long[borrows];
+        borrowed = new int[books];
+        long[] seen = new long[Integer.highestOneBit(Math.max(1, borrows)) * 4]; // Open addressing, 0 is empty
+        long draws = 0;
+        for (int n = 0; n < borrows; ) {
+            if (++draws > 20L * borrows + 1000) {
+                throw new IllegalStateException("Too many repeated borrows, lower generate.borrows or the skew");
+            }
+            // The popularity order is scattered, so the hot books are spread over the key space
+            int book = (int) Math.floorMod(bookRanks.next(random) * bookStep + bookOffset, (long) books);
+            int card = (int) Math.floorMod(readerRanks.next(random) * cardStep + cardOffset, (long) cards);
+            long pair = (long) card << 32 | book;
+            if (add(seen, pair)) {
+                pairs[n++] = pair;
+                borrowed[book]++;
+            }
+        }
+        logger.info("{} borrow(s) drawn in {}ms, the most popular 1% of the books have {}% of them", borrows,
+                (System.nanoTime() - start) / 1_000_000,
+                String.format("%.1f", 100 * bookRanks.share(Math.max(1, books / 100))));
+    }
+
+    /**
+     * A step coprime with n, so rank * step % n visits every index once
+     */
+    private static long step(int n) {
+        long step = (long) (n * 0.6180339887) | 1;
+        while (gcd(step, n) != 1) {
+            step += 2;
+        }
+        return step;
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    /**
+     * Add a pair to an open addressing set
+     *
+     * @return whether the pair was not in the set yet
+     */
+    private static boolean add(long[] table, long pair) {
+        long key = pair + 1;
+        int mask = table.length - 1;
+        int i = (int) (key * 0x9E3779B97F4A7C15L >>> 40) & mask;
+        while (table[i] != 0) {
+            if (table[i] == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = key;
+        return true;
+    }
+
+    /**
+     * The random source of one row, independent of the order rows are generated in
+     */
+    private SplittableRandom random(long stream, long row) {
+        return new SplittableRandom(seed ^ stream ^ row * 0x9E3779B97F4A7C15L);
+    }
+
+    private static String pick(String[] values, SplittableRandom random) {
+        return values[random.nextInt(values.length)];
+    }
+
+    static String bno(int i) {
+        return Long.toString(FIRST_BOOK + i);
+    }
+
+    static String cno(int i) {
+        return Integer.toString(FIRST_CARD + i);
+    }
+
+    /**
+     * The i-th book, with a copy at least for each of its borrows
+     */
+    Book book(int i) {
+        SplittableRandom random = random(BOOK_STREAM, i);
+        String category = pick(CATEGORIES, random);
+        int words = 1 + random.nextInt(4);
+        StringBuilder title = new StringBuilder(pick(WORDS, random));
+        for (int w = 1; w < words; w++) {
+            title.append(' ').append(pick(WORDS, random));
+        }
+        String press = pick(PRESSES, random);
+        // Most books are recent, a few are a century old
+        int year = asOf.getYear() - (int) Math.min(120, -Math.log(1 - random.nextDouble()) * 12);
+        String author = pick(FIRST_NAMES, random) + " " + pick(LAST_NAMES, random);
+        // Prices spread evenly on a log scale from 5 to 300
+        long cents = Math.round(Math.exp(random.nextDouble(Math.log(5), Math.log(300))) * 100);
+        int total = Math.max(1 + random.nextInt(10), borrowed[i]);
+        return new Book(bno(i), category, title.toString(), press, year, author, BigDecimal.valueOf(cents, 2),
+                total, total - borrowed[i]);
+    }
+
+    /**
+     * The i-th card, one in ten is a teacher's
+     */
+    Card card(int i) {
+        SplittableRandom random = random(CARD_STREAM, i);
+        String name = pick(FIRST_NAMES, random) + " " + pick(LAST_NAMES, random);
+        return new Card(cno(i), name, pick(DEPARTMENTS, random), random.nextInt(10) == 0 ? "T" : "S");
+    }
+
+    /**
+     * The i-th borrow, taken within generate.historyDays before generate.asOf for
+     * LOAN_DAYS days (some are overdue)
+     */
+    Loan loan(int i) {
+        SplittableRandom random = random(BORROW_STREAM, i);
+        LocalDate borrowDate = asOf.minusDays(random.nextInt(historyDays));
+        return new Loan(cno((int) (pairs[i] >>> 32)), bno((int) pairs[i]), borrowDate, borrowDate.plusDays(LOAN_DAYS));
+    }
+
+    /**
+     * Write the rows of a range with a connection
+     */
+    private interface ChunkWriter {
+        void write(Connection conn, int from, int to) throws SQLException;
+    }
+
+    /**
+     * Insert everything with generate.writers connections at once
+     * Refuses to run when generated books or cards are there already (their stock
+     * would not match the borrows), drop them first
+     *
+     * @param pool the pool to borrow the connections from, at least generate.writers big
+     * @throws SQLException         if a chunk cannot be written (the committed chunks stay)
+     * @throws InterruptedException if interrupted while waiting for the writers
+     */
+    void toDatabase(ConnectionPool pool) throws SQLException, InterruptedException {
+        try (Connection conn = pool.getConnection()) {
+            if (count(conn, "select count(*) from book where bno >= ? and bno < ?", bno(0), bno(books)) > 0
+                    || count(conn, "select count(*) from card where cno >= ? and cno < ?", cno(0), cno(cards)) > 0) {
+                throw new IllegalStateException("Generated books or cards are in the database already, delete the "
+                        + "books from " + bno(0) + " and the cards from " + cno(0) + " first");
+            }
+        }
+        BookBatchWriter bookWriter = new BookBatchWriter(false, chunk -> {
+        });
+        parallel(pool, "book", books, (conn, from, to) -> {
+            List<Book> chunk = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                chunk.add(book(i));
+            }
+            bookWriter.write(conn, chunk);
+        });
+        parallel(pool, "card", cards, (conn, from, to) -> batch(conn, "insert into card values (?,?,?,?)",
+                from, to, (pStmt, i) -> card(i).setParameters(pStmt)));
+        parallel(pool, "borrow", borrows, (conn, from, to) -> batch(conn, "insert into borrow values (?,?,?,?)",
+                from, to, (pStmt, i) -> {
+                    Loan loan = loan(i);
+                    pStmt.setString(1, loan.cno);
+                    pStmt.setString(2, loan.bno);
+                    pStmt.setDate(3, Date.valueOf(loan.borrowDate));
+                    pStmt.setDate(4, Date.valueOf(loan.returnDate));
+                }));
+    }
+
+    private static long count(Connection conn, String sql, String from, String to) throws SQLException {
+        try (PreparedStatement pStmt = conn.prepareStatement(sql)) {
+            pStmt.setString(1, from);
+            pStmt.setString(2, to);
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                return rSet.next() ? rSet.getLong(1) : 0;
+            }
+        }
+    }
+
+    private interface RowSetter {
+        void set(PreparedStatement pStmt, int row) throws SQLException;
+    }
+
+    /**
+     * Insert the rows of a range with executeBatch in one transaction
+     */
+    private static void batch(Connection conn, String sql, int from, int to, RowSetter setter) throws SQLException {
+        conn.setAutoCommit(false);
+        try (PreparedStatement pStmt = conn.prepareStatement(sql)) {
+            for (int i = from; i < to; i++) {
+                setter.set(pStmt, i);
+                pStmt.addBatch();
+            }
+            pStmt.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Write rows chunk by chunk with generate.writers threads, each with its own connection
+     */
+    private void parallel(ConnectionPool pool, String table, int rows, ChunkWriter writer)
+            throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(writers, r -> {
+            Thread t = new Thread(r, "generate-writer-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < rows; from += chunkSize) {
+            int f = from;
+            int t = Math.min(rows, from + chunkSize);
+            futures.add(executor.submit(() -> {
+                try (Connection conn = pool.getConnection()) {
+                    writer.write(conn, f, t);
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IllegalStateException("Cannot write the " + table + " rows", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        logger.info("{} {} row(s) written in {}s ({} rows/s)", rows, table, String.format("%.1f", seconds),
+                String.format("%.0f", rows / seconds));
+    }
+
+    /**
+     * Write book_data.txt, card_data.txt and borrow_data.txt, one row per line, the
+     * values in column order separated by commas
+     *
+     * @param dir the directory to write to, created if needed
+     * @throws IOException if a file cannot be written
+     */
+    void toFiles(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        long start = System.nanoTime();
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("book_data.txt"), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < books; i++) {
+                out.write(book(i).toString());
+                out.newLine();
+            }
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("card_data.txt"), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < cards; i++) {
+                out.write(card(i).toString());
+                out.newLine();
+            }
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("borrow_data.txt"), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < borrows; i++) {
+                out.write(loan(i).toString());
+                out.newLine();
+            }
+        }
+        logger.info("{} book(s), {} card(s) and {} borrow(s) written to {} in {}ms", books, cards, borrows,
+                dir.toAbsolutePath(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String userID = System.getenv().get("USERNAME");
+        userID = userID == null ? "jdbc" : userID;
+        String userPassword = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("-u".equals(args[i]) && i != args.length - 1) {
+                userID = args[++i];
+            } else if ("-p".equals(args[i])) {
+                Console console = System.console();
+                System.out.print("Please input your password: ");
+                userPassword = console == null ? new java.util.Scanner(System.in).next()
+                        : new String(console.readPassword());
+            }
+        }
+        LibraryConfig config = LibraryConfig.load();
+        DataGenerator generator = new DataGenerator(config);
+        generator.prepare();
+        if ("files".equals(config.get("generate.target", "database"))) {
+            generator.toFiles(Paths.get(config.get("generate.dir", "generated")));
+            return;
+        }
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        try (ConnectionPool pool = new ConnectionPool(config, userID, userPassword)) {
+            generator.toDatabase(pool);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The outstanding return dates of every borrowed book, a min-heap per book number,
+ * so the nearest return date of a book is a peek
+ * Loaded once from table borrow, then kept in line by our own borrows and returns
+ * (borrow records written by other clients are not seen until the next build)
+ */
+class DueDateIndex {
+    static final Logger logger = LoggerFactory.getLogger(DueDateIndex.class);
+
+    private final Map<String, PriorityQueue<LocalDate>> dueDates = new HashMap<>();
+    private final Map<String, LocalDate> loans = new HashMap<>(); // cno/bno -> return date, to find it on return
+    private volatile boolean built; // Until then the nearest return dates must be queried
+
+    /**
+     * Load the return dates of every borrow record, replacing what was known
+     *
+     * @param pool the pool to borrow the connection from
+     */
+    void build(ConnectionPool pool) {
+        long start = System.nanoTime();
+        Map<String, PriorityQueue<LocalDate>> loaded = new HashMap<>();
+        Map<String, LocalDate> loadedLoans = new HashMap<>();
+        int records = 0;
+        try (Connection conn = pool.getConnection();
+             PreparedStatement pStmt = conn.prepareStatement(
+                     "select cno, bno, return_date from borrow where return_date is not null")) {
+            pStmt.setFetchSize(Integer.MIN_VALUE); // Stream, the table is large
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                while (rSet.next()) {
+                    LocalDate due = rSet.getDate(3).toLocalDate();
+                    loaded.computeIfAbsent(rSet.getString(2), bno -> new PriorityQueue<>(2)).add(due);
+                    loadedLoans.put(loan(rSet.getString(1), rSet.getString(2)), due);
+                    records++;
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Unable to load the return dates: {}", e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            dueDates.clear();
+            dueDates.putAll(loaded);
+            loans.clear();
+            loans.putAll(loadedLoans);
+        }
+        built = true;
+        logger.info("Return dates of {} borrow record(s) of {} book(s) loaded in {}ms", records, loaded.size(),
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Record a committed borrow
+     *
+     * @param cno the card number of the reader
+     * @param bno the book number
+     * @param due the return date of the borrow
+     */
+    synchronized void borrowed(String cno, String bno, LocalDate due) {
+        if (due != null) {
+            dueDates.computeIfAbsent(bno, b -> new PriorityQueue<>(2)).add(due);
+            loans.put(loan(cno, bno), due);
+        }
+    }
+
+    /**
+     * Record a committed return
+     *
+     * @param cno the card number of the reader
+     * @param bno the book number
+     */
+    synchronized void returned(String cno, String bno) {
+        LocalDate due = loans.remove(loan(cno, bno));
+        PriorityQueue<LocalDate> dates = dueDates.get(bno);
+        if (dates != null && due != null) {
+            dates.remove(due);
+            if (dates.isEmpty()) {
+                dueDates.remove(bno);
+            }
+        }
+    }
+
+    private static String loan(String cno, String bno) {
+        return cno + "/" + bno;
+    }
+
+    /**
+     * The nearest return date of a book
+     *
+     * @param bno the book number
+     * @return the date, null if no copy is out
+     */
+    synchronized LocalDate nearest(String bno) {
+        PriorityQueue<LocalDate> dates = dueDates.get(bno);
+        return dates == null ? null : dates.peek();
+    }
+
+    boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * The nearest return date of a book, from the database
+     * One indexed read of the (bno, return_date) index
+     *
+     * @param conn the connection to query with
+     * @param bno  the book number
+     * @return the date, null if no copy is out
+     * @throws SQLException if the query fails
+     */
+    static LocalDate query(Connection conn, String bno) throws SQLException {
+        try (PreparedStatement pStmt = conn.prepareStatement("select min(return_date) from borrow where bno=?")) {
+            pStmt.setString(1, bno);
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                Date date = rSet.next() ? rSet.getDate(1) : null;
+                return date == null ? null : date.toLocalDate();
+            }
+        }
+    }
+}
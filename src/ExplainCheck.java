@@ -0,0 +1,229 @@
+import java.io.Console;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Check that no query of the library scans a whole table
+ * The select, update and delete statements are taken from the string literals of the
+ * sources (adjacent literals joined with + are put together, a literal joined with a
+ * value built at run time or written in a comment is not a statement). The statements
+ * built at run time (range pages, "in" lists of every width) come from the builders of
+ * their classes (see generated()). Every "?" is bound to a dummy value and the statement
+ * is EXPLAINed. A table accessed with type ALL (full
+ * table scan) or index (full index scan) while no index could be used is a failure
+ * A full scan chosen although an index could be used is only reported: on a small
+ * table the optimizer rightly prefers reading the few pages
+ * Run it against a migrated database:
+ * java ExplainCheck [-u user] [-p] [source files (default every java file under src)]
+ * The exit status is 1 if a query fails the check
+ */
+class ExplainCheck {
+    static final Logger logger = LoggerFactory.getLogger(ExplainCheck.class);
+    static final Pattern LITERALS = Pattern.compile("\"((?:[^\"\\\\\\n]|\\\\.)*)\"(\\s*\\+\\s*\"((?:[^\"\\\\\\n]|\\\\.)*)\")*");
+    static final Pattern LITERAL = Pattern.compile("\"((?:[^\"\\\\\\n]|\\\\.)*)\"");
+    static final Pattern STATEMENT = Pattern.compile("^\\s*(select|update|delete)\\s", Pattern.CASE_INSENSITIVE);
+    static final Pattern LIMIT_PARAMETER = Pattern.compile("(?i)\\blimit\\s+\\?");
+
+    // Statements that read everything on purpose
+    static final Set<String> ALLOWED = Set.of(
+            "select exists(select 1 from book)", // Stops at the first row
+            "select bno from borrow group by bno order by count(*) desc limit ?", // BookCache warm up
+            "select cno, bno, return_date from borrow where return_date is not null", // DueDateIndex build
+            "select bno, year, price from book", // BookRangeIndex build
+            "select count(*) from book", // BookSearchIndex build: split into key ranges
+            "select bno from book order by bno", // Idem, reads the primary key only
+            "select * from book where bno >= ?", // BookSearchIndex build: the last key range
+            "select version, checksum from schema_version", // SchemaMigrator, a row per version
+            "select k.k from lookup_keys k join book t on t.bno = k.k", // KeyLookup, every staged key
+            "select 1 from information_schema.statistics where table_schema = database() and table_name = ? "
+                    + "and index_name = ? limit 1", // SchemaMigrator, a data dictionary view
+            // BookFileLoader: the temporary staging tables hold the file being loaded
+            "delete from book_stage where bno = '' and category is null",
+            "select count(*) from book_stage_last",
+            "select count(*) from book_stage_last l join book_stage s on s.line = l.line join book b on b.bno = s.bno"
+    );
+
+    public static void main(String[] args) throws Exception {
+        String userID = System.getenv().get("USERNAME");
+        userID = userID == null ? "jdbc" : userID;
+        String userPassword = null;
+        List<Path> sources = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-u".equals(args[i]) && i != args.length - 1) {
+                userID = args[++i];
+            } else if ("-p".equals(args[i])) {
+                Console console = System.console();
+                System.out.print("Please input your password: ");
+                userPassword = console == null ? new java.util.Scanner(System.in).next()
+                        : new String(console.readPassword());
+            } else {
+                sources.add(Paths.get(args[i]));
+            }
+        }
+        if (sources.isEmpty()) {
+            try (Stream<Path> files = Files.walk(Paths.get("src"))) {
+                files.filter(file -> file.toString().endsWith(".java")).sorted().forEach(sources::add);
+            }
+        }
+
+        Set<String> statements = new LinkedHashSet<>();
+        for (Path source : sources) {
+            statements.addAll(statements(source));
+        }
+        LibraryConfig config = LibraryConfig.load();
+        statements.addAll(generated(config));
+        int failures;
+        try (Connection conn = DriverManager.getConnection(config.jdbcUrl(), userID, userPassword)) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(KeyLookup.CREATE_KEYS); // The staged keys joined by KeyLookup
+            }
+            failures = check(conn, statements);
+        }
+        System.out.printf("%d statement(s) explained, %d doing a full scan\n", statements.size(), failures);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * The statements built at run time, in every shape they take
+     *
+     * @param config the configuration giving the widths of the "in" lists
+     * @return the range pages of LibraryService, the reads of BookCache and the lookups of KeyLookup
+     */
+    static List<String> generated(LibraryConfig config) {
+        List<String> statements = new ArrayList<>();
+        for (String column : new String[]{"year", "price"}) {
+            statements.add(LibraryService.rangeSql(column, false));
+            statements.add(LibraryService.rangeSql(column, true));
+        }
+        for (int width : KeyLookup.listWidths(BookCache.BATCH)) {
+            statements.add(BookCache.readSql(width));
+        }
+        statements.addAll(new KeyLookup(config).statements("book", "bno"));
+        return statements;
+    }
+
+    /**
+     * The select, update and delete statements written as string literals in a source file
+     *
+     * @param source the java source
+     * @return the statements in order of appearance
+     * @throws IOException if the source cannot be read
+     */
+    static List<String> statements(Path source) throws IOException {
+        String code = Files.readString(source, StandardCharsets.UTF_8);
+        List<String> statements = new ArrayList<>();
+        Matcher literals = LITERALS.matcher(code);
+        while (literals.find()) {
+            char after = next(code, literals.end(), 1);
+            if (inComment(code, literals.start()) || after == '+' || after == '.'
+                    || next(code, literals.start() - 1, -1) == '+') {
+                continue; // Documentation, or a fragment of a statement built at run time
+            }
+            StringBuilder sql = new StringBuilder();
+            Matcher literal = LITERAL.matcher(literals.group());
+            while (literal.find()) {
+                sql.append(literal.group(1).replace("\\\"", "\""));
+            }
+            if (STATEMENT.matcher(sql).find()) {
+                statements.add(sql.toString().trim());
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * The first character that is not white space from index on, in the direction step
+     * (1 or -1), 0 if there is none
+     */
+    private static char next(String code, int index, int step) {
+        for (int i = index; i >= 0 && i < code.length(); i += step) {
+            if (!Character.isWhitespace(code.charAt(i))) {
+                return code.charAt(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Whether the line holding index is a comment line (javadoc, block or line comment)
+     */
+    private static boolean inComment(String code, int index) {
+        String line = code.substring(code.lastIndexOf('\n', index) + 1, index).trim();
+        return line.startsWith("*") || line.startsWith("/*") || line.startsWith("//");
+    }
+
+    /**
+     * EXPLAIN the statements and report the full scans
+     *
+     * @param conn       the connection to a migrated database
+     * @param statements the statements, "?" allowed
+     * @return the number of statements failing the check (a statement that cannot be explained fails)
+     */
+    static int check(Connection conn, Iterable<String> statements) {
+        int failures = 0;
+        for (String sql : statements) {
+            List<String> scans = new ArrayList<>();
+            boolean failed = false;
+            try (Statement stmt = conn.createStatement()) {
+                ResultSet rSet = stmt.executeQuery("explain " + bind(sql));
+                while (rSet.next()) {
+                    String table = rSet.getString("table");
+                    String type = rSet.getString("type");
+                    if (table == null || table.startsWith("<") || type == null) { // Derived tables, no table
+                        continue;
+                    }
+                    type = type.toUpperCase(Locale.ROOT);
+                    if ("ALL".equals(type) || "INDEX".equals(type)) {
+                        boolean usable = rSet.getString("possible_keys") != null;
+                        scans.add(String.format("%s scan of %s (%s rows%s)", "ALL".equals(type) ? "full table"
+                                        : "full index", table, rSet.getString("rows"),
+                                usable ? ", an index could be used" : ""));
+                        failed |= !usable;
+                    }
+                }
+            } catch (SQLException e) {
+                scans.add("cannot be explained: " + e.getMessage());
+                failed = true;
+            }
+            if (ALLOWED.contains(sql)) {
+                failed = false;
+            }
+            if (failed) {
+                failures++;
+                logger.warn("FULL SCAN {}: {}", sql, scans);
+            } else if (!scans.isEmpty()) {
+                logger.info("ok (scan chosen on cost) {}: {}", sql, scans);
+            } else {
+                logger.info("ok {}", sql);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Replace the parameters with dummy values: 1 for a limit, '1' anywhere else
+     * (a string constant is converted once, the indexes of numeric columns stay usable)
+     */
+    static String bind(String sql) {
+        return LIMIT_PARAMETER.matcher(sql).replaceAll("limit 1").replace("?", "'1'");
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable progress of a file import, stored next to the file as &lt;file&gt;.checkpoint
+ * Chunks are numbered in file order from the start offset. The checkpoint keeps the
+ * byte offset after the last chunk such that it and every chunk before it are
+ * committed, plus the numbers of chunks committed beyond it (parallel writers
+ * commit out of order). A restarted import of the same (unchanged) file resumes
+ * from the offset with the same chunk size and skips the chunks already committed
+ * The checkpoint is rewritten atomically and forced to disk after every commit
+ */
+class ImportCheckpoint {
+    static final Logger logger = LoggerFactory.getLogger(ImportCheckpoint.class);
+    static final String SUFFIX = ".checkpoint";
+
+    private final Path file;
+    private final Path checkpoint;
+    private final long fileSize;
+    private final long fileModified;
+    private final int chunkSize;
+
+    private long offset; // Everything before it is committed
+    private long nextChunk; // The number of the chunk starting at offset
+    private long rows; // Books committed so far
+    private final TreeSet<Long> committedAhead = new TreeSet<>(); // Committed chunks after nextChunk
+    private final TreeMap<Long, Long> endOffsets = new TreeMap<>(); // End offset of the chunks in committedAhead
+
+    private ImportCheckpoint(Path file, long fileSize, long fileModified, int chunkSize) {
+        this.file = file;
+        this.checkpoint = file.resolveSibling(file.getFileName() + SUFFIX);
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Open the checkpoint of a file, a new one if there is none or if the file changed since
+     *
+     * @param file      the file to be imported
+     * @param chunkSize the chunk size used if the import starts from scratch
+     * @return the checkpoint
+     * @throws IOException if the file cannot be accessed
+     */
+    static ImportCheckpoint open(Path file, int chunkSize) throws IOException {
+        long size = Files.size(file);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        Path path = file.resolveSibling(file.getFileName() + SUFFIX);
+        if (Files.isRegularFile(path)) {
+            Properties props = new Properties();
+            try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                props.load(in);
+                if (Long.parseLong(props.getProperty("size")) == size
+                        && Long.parseLong(props.getProperty("modified")) == modified) {
+                    ImportCheckpoint ckpt = new ImportCheckpoint(file, size, modified,
+                            Integer.parseInt(props.getProperty("chunkSize")));
+                    ckpt.offset = Long.parseLong(props.getProperty("offset"));
+                    ckpt.nextChunk = Long.parseLong(props.getProperty("nextChunk"));
+                    ckpt.rows = Long.parseLong(props.getProperty("rows"));
+                    String ahead = props.getProperty("committedAhead", "");
+                    for (String chunk : ahead.split(",")) {
+                        if (!chunk.isEmpty()) {
+                            ckpt.committedAhead.add(Long.parseLong(chunk));
+                        }
+                    }
+                    return ckpt;
+                }
+                logger.warn("\"{}\" changed since its checkpoint was written, starting over", file);
+            } catch (RuntimeException e) {
+                logger.warn("Ignoring unreadable checkpoint \"{}\": {}", path, e.toString());
+            }
+        }
+        return new ImportCheckpoint(file, size, modified, chunkSize);
+    }
+
+    /**
+     * Whether a previous import left committed work behind
+     */
+    synchronized boolean isResumed() {
+        return offset > 0 || !committedAhead.isEmpty();
+    }
+
+    /**
+     * Whether a chunk was committed by the previous run (and must not be sent again)
+     *
+     * @param chunk the number of the chunk, counted from the resume offset
+     */
+    synchronized boolean isCommitted(long chunk) {
+        return committedAhead.contains(chunk);
+    }
+
+    /**
+     * Record a committed chunk and persist the checkpoint
+     * Chunks skipped because the previous run committed them are recorded with a count of 0
+     *
+     * @param chunk     the number of the chunk
+     * @param endOffset the offset right after the chunk
+     * @param count     the number of books in the chunk
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void committed(long chunk, long endOffset, int count) throws IOException {
+        rows += count;
+        committedAhead.add(chunk);
+        endOffsets.put(chunk, endOffset);
+        // Move the offset over every chunk that is now contiguous (chunks loaded from the
+        // previous run only get an end offset when they are read, and skipped, again)
+        while (endOffsets.containsKey(nextChunk)) {
+            offset = endOffsets.remove(nextChunk);
+            committedAhead.remove(nextChunk);
+            nextChunk++;
+        }
+        save();
+    }
+
+    /**
+     * Forget the checkpoint once the whole file is imported
+     */
+    synchronized void finish() {
+        try {
+            Files.deleteIfExists(checkpoint);
+        } catch (IOException e) {
+            logger.warn("Unable to delete checkpoint \"{}\"", checkpoint);
+        }
+    }
+
+    private void save() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("file", file.toAbsolutePath().toString());
+        props.setProperty("size", Long.toString(fileSize));
+        props.setProperty("modified", Long.toString(fileModified));
+        props.setProperty("chunkSize", Integer.toString(chunkSize));
+        props.setProperty("offset", Long.toString(offset));
+        props.setProperty("nextChunk", Long.toString(nextChunk));
+        props.setProperty("rows", Long.toString(rows));
+        StringBuilder ahead = new StringBuilder();
+        for (Long chunk : committedAhead) {
+            ahead.append(ahead.length() == 0 ? "" : ",").append(chunk);
+        }
+        props.setProperty("committedAhead", ahead.toString());
+
+        // Write aside, force to disk, then atomically replace the old checkpoint
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = Channels.newOutputStream(channel);
+            props.store(out, "Import checkpoint of " + file.getFileName());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    synchronized long getOffset() {
+        return offset;
+    }
+
+    /**
+     * The number of the chunk that starts at the offset, chunks read from there are numbered on from it
+     */
+    synchronized long getNextChunk() {
+        return nextChunk;
+    }
+
+    synchronized long getRows() {
+        return rows;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+}
@@ -1,28 +1,33 @@
 import java.io.Console;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.sql.Connection;
-import java.sql.Date;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.InputMismatchException;
-import java.util.Map;
+import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * The console of the library, a client of LibraryService
+ * Everything here is prompting and printing, the operations themselves are in the service
+ */
 public class JDBCLibrary {
 
-    static Connection conn;
+    static LibraryConfig config;
+    static LibraryService service;
+    static TableRenderer renderer = new TableRenderer(System.out, 40);
     static final Logger logger = LoggerFactory.getLogger(JDBCLibrary.class);
     static Scanner reader = new Scanner(System.in);
     static String pattern = "\\p{javaWhitespace}*,\\p{javaWhitespace}*";
@@ -56,6 +61,7 @@ public class JDBCLibrary {
 
     /**
      * Connect to mysql with userID and userPassword
+     * The connection string and the pool limits come from jdbclibrary.properties
      *
      * @param userID       the user's id as String
      * @param userPassword the user's userPassword as String
@@ -64,42 +70,42 @@ public class JDBCLibrary {
         // Might be SQLException, so we try
         try {
             Class.forName("com.mysql.cj.jdbc.Driver"); // Need this for connection with MySQL
-            String connectString = "jdbc:mysql://localhost:3306/JDBCLibrary?characterEncoding=utf8&useSSL=true"
-                    + "&serverTimezone=" + ZoneId.systemDefault();
-//            String connectString = "jdbc:mysql://localhost:3306/JDBCLibrary?characterEncoding=utf8&useSSL=true";
-            conn = DriverManager.getConnection(connectString, userID, userPassword);
-            System.out.println("Welcome to the JDBCLibrary.");
-            System.out.println("Choose your operation please.");
-            int choice;
-            while (true) {
-                try {
-                    choice = getChoice("""
-                            1. Query books
-                            2. Borrow books
-                            3. Return books
-                            4. Add book to stock
-                            5. Add books to stock
-                            6. Add books from file
-                            7. Manage reader's proof
-                            8. Print create tables
-                            0. Exit the system""");
-                } catch (InputMismatchException e) {
-                    continue;
-                }
-                switch (choice) {
-                    case 0 -> {
-                        conn.close();
-                        return;
+            config = LibraryConfig.load();
+            try (LibraryService opened = LibraryService.open(config, userID, userPassword)) {
+                service = opened;
+                renderer = new TableRenderer(System.out, config.getInt("render.maxColumnWidth", 40));
+                System.out.println("Welcome to the JDBCLibrary.");
+                System.out.println("Choose your operation please.");
+                int choice;
+                while (true) {
+                    try {
+                        choice = getChoice("""
+                                1. Query books
+                                2. Borrow books
+                                3. Return books
+                                4. Add book to stock
+                                5. Add books to stock
+                                6. Add books from file
+                                7. Manage reader's proof
+                                8. Print create tables
+                                0. Exit the system""");
+                    } catch (InputMismatchException e) {
+                        continue;
+                    }
+                    switch (choice) {
+                        case 0 -> {
+                            return;
+                        }
+                        case 1 -> checkBook();
+                        case 2 -> borrowBook();
+                        case 3 -> returnBook();
+                        case 4 -> addBook();
+                        case 5 -> addBooks();
+                        case 7 -> manageProof();
+                        case 8 -> showTable();
+                        case 6 -> addBooksFromFile();
+                        default -> logger.warn("Wrong service code: {}", choice);
                     }
-                    case 1 -> checkBook();
-                    case 2 -> borrowBook();
-                    case 3 -> returnBook();
-                    case 4 -> addBook();
-                    case 5 -> addBooks();
-                    case 7 -> manageProof();
-                    case 8 -> showTable();
-                    case 6 -> addBooksFromFile();
-                    default -> logger.warn("Wrong service code: {}", choice);
                 }
             }
         } catch (Exception e) {
@@ -108,166 +114,34 @@ public class JDBCLibrary {
     }
 
     /**
-     * A thin wrapper around executePrepQuery. Everything would be converted to a
-     * string to be returned. The query result will be printed to the console
+     * Print books as a table
      *
-     * @param query the query to be executed
-     * @return the result array of the query
+     * @param books the books to be printed
      */
-    static ArrayList<String> executePrepQuery(String query) {
-        try {
-            PreparedStatement pStmt = conn.prepareStatement(query);
-            return executePrepQuery(pStmt);
-        } catch (Exception e) {
-            e.printStackTrace();
+    static void printBooks(List<Book> books) {
+        ArrayList<String[]> rows = new ArrayList<>(books.size());
+        for (Book book : books) {
+            rows.add(book.toRow());
         }
-        return new ArrayList<>();
+        renderer.render(Book.COLUMNS, rows);
     }
 
     /**
-     * Wrapper around the executePrepQuery function
+     * Print one book as a table
      *
-     * @param query  the query to be executed (already fixed)
-     * @param update whether we're trying to perform update
-     * @return the result array list
+     * @param book the book to be printed
      */
-    static ArrayList<String> executePrepQuery(String query, boolean update) {
-        try {
-            PreparedStatement pStmt = conn.prepareStatement(query);
-            return executePrepQuery(pStmt, update);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return new ArrayList<>();
-    }
-
-    static ArrayList<String> executePrepQuery(PreparedStatement pStmt) {
-        return executePrepQuery(pStmt, false);
+    static void printBook(Book book) {
+        renderer.render(Book.COLUMNS, List.<String[]>of(book.toRow()));
     }
 
     /**
-     * Print the result set provided in an elegant way Useful when the result set is
-     * already generated
+     * Print one card as a table
      *
-     * @param rSet the result set to be printed
-     * @throws SQLException throws SQLException if error occurs when extracting
-     *                      information from the rSet
+     * @param card the card to be printed
      */
-    static void printResultSet(ResultSet rSet) throws SQLException {
-        final int widthMore = 2; // The width of a column - the width of the widest element
-        int colWSum = 0; // Sum of all column widths
-        String colV; // The value to be dealt with
-        ResultSetMetaData rsmd = rSet.getMetaData();
-        int colN = rsmd.getColumnCount();
-        ArrayList<Integer> colW = new ArrayList<>(colN + 1); // The first element is always zero
-
-        // Initialization
-        for (int i = 0; i <= colN; i++) {
-            colW.add(0);
-        }
-
-        // Reset result set cursor position
-        rSet.beforeFirst();
-        // Compute the maximum width from the elements
-        while (rSet.next()) {
-            for (int i = 1; i <= colN; i++) {
-                colV = rSet.getString(i);
-                if (colV.length() > colW.get(i))
-                    colW.set(i, colV.length());
-            }
-        }
-
-        // Compute the final width (with correction and comparison to column name)
-        for (int i = 1; i <= colN; i++) {
-            colV = rsmd.getColumnName(i);
-            if (colV.length() > colW.get(i))
-                colW.set(i, colV.length());
-            colW.set(i, colW.get(i) + widthMore);
-        }
-
-        // Compute sum of all width
-        for (Integer width : colW) {
-            colWSum += width;
-        }
-
-        printLine('-', colWSum);
-
-        // Print column names
-        for (int i = 1; i <= colN; i++) {
-            System.out.printf("%" + colW.get(i) + "s", rsmd.getColumnName(i));
-        }
-        System.out.println();
-
-        printLine('-', colWSum);
-
-        // Reset result set cursor position
-        rSet.beforeFirst();
-
-        // Print fixed width column value
-        while (rSet.next()) {
-            for (int i = 1; i <= colN; i++) {
-                colV = rSet.getString(i);
-                System.out.printf("%" + colW.get(i) + "s", colV);
-            }
-            System.out.println();
-        }
-
-        printLine('-', colWSum);
-    }
-
-    /**
-     * Print formatted query result to the console (width adapted). For example:
-     * varchar(2000) and max width 20 -> column width equals max width + correction
-     * (default 2 chars). Everything would be converted to a string to be returned.
-     * The query result will be printed to the console.
-     *
-     * @param pStmt the prepared statement to be executed. Must already been
-     *              prepared.
-     * @return the result array of the query
-     */
-    static ArrayList<String> executePrepQuery(PreparedStatement pStmt, boolean update) {
-        ArrayList<String> results = new ArrayList<>(); // For storing the results
-        ResultSet rSet; // A resultSet
-        try {
-            if (update) {
-                int affectedN = 0;
-                try {
-                    affectedN = pStmt.executeUpdate();
-                } catch (SQLException e) {
-                    rSet = pStmt.executeQuery();
-                    if (rSet.next()) {
-                        results.add("1");
-                    }
-                }
-                results.add(Integer.toString(affectedN));
-                return results;
-            }
-            rSet = pStmt.executeQuery();
-            int colN = rSet.getMetaData().getColumnCount();
-            while (rSet.next()) {
-                for (int i = 0; i < colN; i++) {
-                    results.add(rSet.getString(i + 1));
-                }
-            }
-            printResultSet(rSet);
-        } catch (SQLException e) {
-            logger.warn("Unable to perform the following query {}", pStmt);
-            e.printStackTrace();
-        }
-        return results;
-    }
-
-    /**
-     * Print a line of ch, total number is count
-     *
-     * @param ch    the character to be printed as line constructor
-     * @param count the number of character to print on screen
-     */
-    static void printLine(char ch, int count) {
-        for (int i = 0; i < count; i++) {
-            System.out.print(ch);
-        }
-        System.out.println();
+    static void printCard(Card card) {
+        renderer.render(Card.COLUMNS, List.<String[]>of(card.toRow()));
     }
 
     /**
@@ -294,6 +168,29 @@ public class JDBCLibrary {
         return choice;
     }
 
+    /**
+     * Ask a yes or no question until one of them is answered
+     *
+     * @param prompt the question
+     * @return true for yes
+     */
+    static boolean confirm(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String str = reader.next();
+            switch (str.charAt(0)) {
+                case 'N', 'n' -> {
+                    return false;
+                }
+                case 'Y', 'y' -> {
+                    return true;
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
     /**
      * Check the books executing queries
      */
@@ -311,6 +208,7 @@ public class JDBCLibrary {
                         6. Query by author
                         7. Query by year range
                         8. Query by price range
+                        9. Search by keywords (title, author, press, category)
                         0. Return (q. Return when querying)""");
             } catch (InputMismatchException e) {
                 continue;
@@ -319,88 +217,167 @@ public class JDBCLibrary {
                 case 0 -> {
                     return;
                 }
-                case 1 -> {
-                    String query = "SELECT * FROM book";
-                    if ("0".equals(executePrepQuery(query, true).get(0))) { // Returns an array whose first element is
-                        // zero if nothing is found
-                        System.out.println("Cannot find any book");
-                    } else {
-                        executePrepQuery(query); // Print the whole book table
-                    }
-
-                }
-                // The prompt and query and error message is passed as parameters
+                case 1 -> browseBooks();
+                // The prompt and column and error message is passed as parameters
                 case 2 -> checkBookByString("Please input the name of the book you want to query: ",
-                        "select * from book where title=?", "Cannot find any book named: \"%s\"");
-                case 3 -> checkBookByString("Please input the book number (length: 10) of the book you want to query: ",
-                        "select * from book where bno=?", "Cannot find any book of book number: \"%s\"");
+                        LibraryService.By.TITLE, "Cannot find any book named: \"%s\"");
+                case 3 -> checkBookByNumber();
                 case 4 -> checkBookByString("Please input the category of the book you want to query: ",
-                        "select * from book where category=?", "Cannot find any book of category: \"%s\"");
+                        LibraryService.By.CATEGORY, "Cannot find any book of category: \"%s\"");
                 case 5 -> checkBookByString("Please input the press of the book you want to query: ",
-                        "select * from book where press=?", "Cannot find any book published by press: \"%s\"");
+                        LibraryService.By.PRESS, "Cannot find any book published by press: \"%s\"");
                 case 6 -> checkBookByString("Please input the author of the book you want to query: ",
-                        "select * from book where author=?", "Cannot find any book written by author: \"%s\"");
+                        LibraryService.By.AUTHOR, "Cannot find any book written by author: \"%s\"");
                 case 7 -> checkBookByRange("Please input the range of the year you want to query (separated by space): ",
-                        "select * from book where year between ? and ?", "Cannot find any book of year range: %d to %d",
-                        false);
+                        "Cannot find any book of year range: %s to %s", false);
                 case 8 -> checkBookByRange("Please input the range of the price of the book you want to query (separated by space): ",
-                        "select * from book where price between ? and ?",
-                        "Cannot find any book of price range: %f to %f", true);
+                        "Cannot find any book of price range: %s to %s", true);
+                case 9 -> searchBooks();
                 default -> logger.warn("Wrong service code: {}", choice);
             }
         }
     }
 
     /**
-     * Check the books by a range and a specified query + prompt
+     * Browse all books page by page, ordered by book number
+     * Pages are fetched with a keyset cursor (bno > last seen / bno < first seen),
+     * so every page costs one indexed range read however deep we are
+     */
+    static void browseBooks() {
+        try {
+            if (!service.hasBooks()) {
+                System.out.println("Cannot find any book");
+                return;
+            }
+
+            int pageSize = config.getInt("browse.pageSize", 20);
+            String[] bounds = {"", ""}; // The first and the last book number of the current page
+            int page = 1;
+            printBookPage(service.booksAfter("", pageSize), bounds);
+            while (true) {
+                System.out.printf("Page %d (%d per page). n. Next page p. Previous page s. Set page size q. Return: ",
+                        page, pageSize);
+                String str = reader.next();
+                switch (str.charAt(0)) {
+                    case 'N', 'n' -> {
+                        if (printBookPage(service.booksAfter(bounds[1], pageSize), bounds)) {
+                            page++;
+                        } else {
+                            System.out.println("This is the last page");
+                        }
+                    }
+                    case 'P', 'p' -> {
+                        if (printBookPage(service.booksBefore(bounds[0], pageSize), bounds)) {
+                            page--;
+                        } else {
+                            System.out.println("This is the first page");
+                        }
+                    }
+                    case 'S', 's' -> {
+                        System.out.print("Please input the page size: ");
+                        try {
+                            int size = reader.nextInt();
+                            if (size <= 0) {
+                                System.out.println("Cannot accept non-positive value");
+                                continue;
+                            }
+                            pageSize = size;
+                            // Start the new page size from the current position
+                            printBookPage(service.booksFrom(bounds[0], pageSize), bounds);
+                        } catch (InputMismatchException e) {
+                            str = reader.nextLine();
+                            logger.warn("Unable to interpret \"{}\" as a page size", str);
+                        }
+                    }
+                    case 'Q', 'q' -> {
+                        return;
+                    }
+                    default -> logger.warn("Wrong navigation command: {}", str);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Print one page of books
+     *
+     * @param page   the books of the page
+     * @param bounds updated with the first and the last book number of the page if it's not empty
+     * @return false if the page is empty (nothing is printed)
+     */
+    static boolean printBookPage(List<Book> page, String[] bounds) {
+        if (page.isEmpty()) {
+            return false;
+        }
+        printBooks(page);
+        bounds[0] = page.get(0).bno;
+        bounds[1] = page.get(page.size() - 1).bno;
+        return true;
+    }
+
+    /**
+     * Check the books by a range
      *
      * @param promptIn  prompt of this range selection
-     * @param sqlQuery  the query that contains two ?
-     * @param promptErr what to say when error occur, should have corresponding type
-     *                  of range
-     * @param isDouble  whether the range in represented in integer or double
-     *                  precision float
+     * @param promptErr what to say when error occur, takes the two bounds as strings
+     * @param isPrice   whether the range is a price (decimal) or a year (integer)
      */
-    static void checkBookByRange(String promptIn, String sqlQuery, String promptErr, boolean isDouble) {
+    static void checkBookByRange(String promptIn, String promptErr, boolean isPrice) {
         System.out.print(promptIn);
         reader.skip(skipPattern); // Skip unwanted pattern (newline or space)
         String str;
-        Object left; // Might be int or double
-        Object right; // Might be int or double
+        int leftYear = 0;
+        int rightYear = 0;
+        BigDecimal leftPrice = null;
+        BigDecimal rightPrice = null;
         while (true) {
             try {
-                if (isDouble) { // Get input we need
-                    left = reader.nextDouble();
-                    right = reader.nextDouble();
+                if (isPrice) { // Get input we need, prices are kept exact
+                    leftPrice = reader.nextBigDecimal();
+                    rightPrice = reader.nextBigDecimal();
                 } else {
-                    left = reader.nextInt();
-                    right = reader.nextInt();
+                    leftYear = reader.nextInt();
+                    rightYear = reader.nextInt();
                 }
                 break;
             } catch (InputMismatchException e) { // Mismatch, continue loop, let user try again
                 str = reader.nextLine();
                 if ("q".equals(str)) // If we've got "q", then quit this check
                     return;
-                logger.warn("Unable to interpret \"{}\" as an integer range", str);
-                System.out.print("Wrong format as int. Try again: ");
+                logger.warn("Unable to interpret \"{}\" as a range", str);
+                System.out.print(isPrice ? "Wrong format as price. Try again: " : "Wrong format as int. Try again: ");
             } catch (Exception e) {
                 e.printStackTrace(); // Unable to handle
             }
         }
+        String left = isPrice ? leftPrice.toPlainString() : Integer.toString(leftYear);
+        String right = isPrice ? rightPrice.toPlainString() : Integer.toString(rightYear);
+        logger.debug("The range read in is: {} to {}", left, right);
         try {
-            // Execute query
-            PreparedStatement pStmt = conn.prepareStatement(sqlQuery);
-            pStmt.setObject(1, left);
-            pStmt.setObject(2, right);
-            logger.debug("The range read in is: {} to {}", left, right);
-            ResultSet rSet = pStmt.executeQuery(); // execute the query to check whether the required book exists
-
-            // Nothing exists
-            if (!rSet.next()) {
-                System.out.printf(promptErr + "\n", left, right);
-                return;
+            // Page by page, the range may hold most of the catalog
+            int pageSize = config.getInt("browse.pageSize", 20);
+            String after = null;
+            int found = 0;
+            while (true) {
+                List<Book> books = isPrice ? service.booksByPrice(leftPrice, rightPrice, after, pageSize)
+                        : service.booksByYear(leftYear, rightYear, after, pageSize);
+                // Nothing exists
+                if (books.isEmpty() && after == null) {
+                    System.out.printf(promptErr + "\n", left, right);
+                    return;
+                }
+                if (!books.isEmpty()) {
+                    printBooks(books);
+                    found += books.size();
+                }
+                if (books.size() < pageSize || !confirm("Show the next page (Y/N)? ")) {
+                    break;
+                }
+                after = books.get(books.size() - 1).bno;
             }
-            printResultSet(rSet);
+            System.out.printf("%d book(s) shown\n", found);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -409,12 +386,12 @@ public class JDBCLibrary {
     /**
      * Check the books by a string value.
      *
-     * @param promptIn  prompt of this range selection
-     * @param sqlQuery  the query that contains two ?
+     * @param promptIn  prompt of this selection
+     * @param by        the column compared with the value
      * @param promptErr what to say when error occur, should have corresponding type
      *                  of string
      */
-    static void checkBookByString(String promptIn, String sqlQuery, String promptErr) {
+    static void checkBookByString(String promptIn, LibraryService.By by, String promptErr) {
         System.out.print(promptIn);
         reader.skip(skipPattern); // Skip unwanted newline or space (we've test that calling on empty string would
         // result in input being eaten)
@@ -422,20 +399,74 @@ public class JDBCLibrary {
         if ("q".equals(str)) // Quit on entering "q"
             return;
         try {
-            // Execute query
-            PreparedStatement pStmt = conn.prepareStatement(sqlQuery);
-            pStmt.setString(1, str);
             logger.debug("The value of the read string is: \"{}\"", str);
-            ResultSet rSet = pStmt.executeQuery(); // check whether the required query exists
+            // Page by page, a category may hold a large part of the catalog
+            int pageSize = config.getInt("browse.pageSize", 20);
+            String after = null;
+            while (true) {
+                List<Book> books = service.findBooks(by, str, after, pageSize);
+                // Nothing exists
+                if (books.isEmpty() && after == null) {
+                    System.out.printf(promptErr + "\n", str);
+                    return;
+                }
+                if (!books.isEmpty()) {
+                    printBooks(books);
+                }
+                if (books.size() < pageSize || !confirm("Show the next page (Y/N)? ")) {
+                    break;
+                }
+                after = books.get(books.size() - 1).bno;
+            }
+        } catch (Exception e) {
+            e.printStackTrace(); // Unable to handle (print useful information)
+        }
+    }
 
-            // Nothing exists
-            if (!rSet.next()) {
-                System.out.printf(promptErr + "\n", str);
+    /**
+     * Search the books by keywords with the in-memory index
+     * The last keyword can be incomplete, small typos are tolerated
+     */
+    static void searchBooks() {
+        System.out.print("Please input the keywords of the book you want to search: ");
+        reader.skip(skipPattern);
+        String str = reader.nextLine();
+        if ("q".equals(str)) // Quit on entering "q"
+            return;
+        List<String> completions = service.completeWord(str, 5);
+        if (!completions.isEmpty()) {
+            System.out.println("Completions: " + String.join(", ", completions));
+        }
+        try {
+            List<Book> books = service.searchBooks(str, config.getInt("search.maxResults", 50));
+            if (books.isEmpty()) {
+                System.out.printf("Cannot find any book matching: \"%s\"\n", str);
                 return;
             }
-            printResultSet(rSet);
+            printBooks(books);
         } catch (Exception e) {
-            e.printStackTrace(); // Unable to handle (print useful information)
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Check a book by its book number, served by the book cache
+     */
+    static void checkBookByNumber() {
+        System.out.print("Please input the book number (length: 10) of the book you want to query: ");
+        reader.skip(skipPattern);
+        String str = reader.nextLine();
+        if ("q".equals(str)) // Quit on entering "q"
+            return;
+        try {
+            Book book = service.getBook(str);
+            if (book == null) {
+                System.out.printf("Cannot find any book of book number: \"%s\"\n", str);
+                return;
+            }
+            printBook(book);
+        } catch (Exception e) {
+            e.printStackTrace();
         }
     }
 
@@ -443,13 +474,12 @@ public class JDBCLibrary {
      * Print create table information of the tables Used for debugging
      */
     static void showTable() {
-        String query = "show tables";
-        ArrayList<String> tables = executePrepQuery(query);
-
-        // Print the table needed
-        for (String table : tables) {
-            query = "show create table " + table;
-            executePrepQuery(query);
+        try {
+            for (String create : service.createTables()) {
+                System.out.println(create);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
     }
 
@@ -461,39 +491,16 @@ public class JDBCLibrary {
      */
     static void printNearestReturnDate(String book_number) {
         try {
-            PreparedStatement pStmt = conn.prepareStatement("select return_date from borrow where bno=?");
-            pStmt.setString(1, book_number);
-            try {
-                ResultSet rSet = pStmt.executeQuery();
-                LocalDate return_date;
-                LocalDate nearest = null;
-                LocalDate now = LocalDate.now(ZoneId.systemDefault());
-                // If query is unable to be executed, both rSet.next() will return false
-                if (rSet.next()) {
-                    nearest = rSet.getDate(1).toLocalDate();
-                }
-                while (rSet.next()) {
-                    return_date = rSet.getDate(1).toLocalDate();
-                    assert nearest != null;
-                    if (return_date.isBefore(nearest)) {
-                        nearest = return_date;
-                    }
-                }
-                // Do nothing is book is unable to be located
-                if (nearest != null) {
-                    System.out.println("The nearest return date is: " + nearest);
-                    System.out.println("Which is " + now.until(nearest, ChronoUnit.DAYS) + " days from now");
-                }
-            } catch (SQLException e) {
-                // Unable to query (error encountered when doing query)
-                logger.warn("Unable to perform query {}", pStmt);
-                e.printStackTrace();
+            LocalDate nearest = service.nearestReturnDate(book_number);
+            LocalDate now = LocalDate.now(ZoneId.systemDefault());
+            // Do nothing is book is unable to be located
+            if (nearest != null) {
+                System.out.println("The nearest return date is: " + nearest);
+                System.out.println("Which is " + now.until(nearest, ChronoUnit.DAYS) + " days from now");
             }
         } catch (SQLException e) {
-            // Unable to prepare
-            System.out.println("Unable to prepare the statement");
-            e.printStackTrace();
-        } catch (Exception e) {
+            // Unable to query (error encountered when doing query)
+            logger.warn("Unable to query the nearest return date of {}", book_number);
             e.printStackTrace();
         }
     }
@@ -501,35 +508,15 @@ public class JDBCLibrary {
     /**
      * Borrow a book
      * The prompt is quite self explaining
+     * Nothing is checked ahead: the borrow is one atomic transaction that tells what went wrong
      */
     static void borrowBook() {
-        PreparedStatement pStmt = null; // this variable is needed when logging exception information, defined out of
-        // try
         try {
             System.out.print("Please input your reader's proof number: ");
             String card_number = reader.next();
             if ("q".equals(card_number)) {
                 return;
             }
-            // Check proof existence, return if not
-            pStmt = conn.prepareStatement("select * from card where cno=?");
-            pStmt.setString(1, card_number);
-            ResultSet rSet = pStmt.executeQuery();
-            if (!rSet.next()) {
-                System.out.printf("Unable to find the proof specified by card number: %s\n", card_number);
-                return;
-            }
-            printResultSet(rSet);
-
-            // Check borrow record
-            pStmt = conn.prepareStatement("select * from borrow where cno=?");
-            pStmt.setString(1, card_number);
-            rSet = pStmt.executeQuery();
-            if (!rSet.next()) {
-                System.out.printf("You haven't borrowed any book as : %s\n", card_number);
-            } else {
-                printResultSet(rSet);
-            }
 
             // Get the book number needed
             System.out.print("Please input the book number of your desired book: ");
@@ -538,76 +525,42 @@ public class JDBCLibrary {
                 return;
             }
 
-            // Check borrow record, return if already borrowed
-            pStmt = conn.prepareStatement("select * from borrow where cno=? and bno=?");
-            pStmt.setString(1, card_number);
-            pStmt.setString(2, book_number);
-            rSet = pStmt.executeQuery();
-            if (rSet.next()) {
-                System.out.printf("You've already borrowed book: %s as: %s\n", card_number, book_number);
-                return;
-            }
-
-            // Check book information, return if out of stock
-            pStmt = conn.prepareStatement("select * from book where bno=?");
-            pStmt.setString(1, book_number);
-            rSet = pStmt.executeQuery();
-            if (!rSet.next()) {
+            // Show the book (from the cache), the stock is checked again by the borrow
+            Book book = service.getBook(book_number);
+            if (book == null) {
                 System.out.printf("Unable to find the book specified by book number: %s\n", book_number);
                 return;
-            } else if (rSet.getInt("stock") <= 0) {
+            } else if (book.stock <= 0) {
                 System.out.println("The book is out of stock, please return later");
                 printNearestReturnDate(book_number);
                 return;
             }
-            printResultSet(rSet);
+            printBook(book);
 
             // make sure...
-            while (true) {
-                System.out.print("Are you sure you want to borrow this book (Y/N)? ");
-                String str = reader.next();
-                switch (str.charAt(0)) {
-                    case 'N':
-                    case 'n':
-                    case 'Y':
-                    case 'y':
-                        break;
-                    default:
-                        continue;
-                }
-                break;
+            if (!confirm("Are you sure you want to borrow this book (Y/N)? ")) {
+                return;
             }
 
             // Change borrow duration if needed
             int duration = 14;// in days
-            // reader.skip(skipPattern);
             while (true) {
-                System.out
-                        .print("Note that the default return date is 2 weeks later, do you want to change it (Y/N)? ");
-                String str = reader.next();
-                switch (str.charAt(0)) {
-                    case 'n':
-                    case 'N':
-                        break;
-                    case 'Y':
-                    case 'y':
-                        System.out.print("Please input your desired borrow duration in day: ");
-                        try {
-                            duration = reader.nextInt();
-                            if (duration <= 0) {
-                                System.out.println("Cannot accept negative value, try again");
-                                continue;
-                            }
-                            System.out.printf("You've changed your borrowing duration to: %d day(s)\n", duration);
-                        } catch (InputMismatchException e) {
-                            str = reader.nextLine();
-                            logger.warn("Unable to parse int from: {}", str);
-                            System.out.println("Illegal input, try again");
-                            continue;
-                        }
-                        break;
-                    default:
+                if (!confirm("Note that the default return date is 2 weeks later, do you want to change it (Y/N)? ")) {
+                    break;
+                }
+                System.out.print("Please input your desired borrow duration in day: ");
+                try {
+                    duration = reader.nextInt();
+                    if (duration <= 0) {
+                        System.out.println("Cannot accept negative value, try again");
                         continue;
+                    }
+                    System.out.printf("You've changed your borrowing duration to: %d day(s)\n", duration);
+                } catch (InputMismatchException e) {
+                    String str = reader.nextLine();
+                    logger.warn("Unable to parse int from: {}", str);
+                    System.out.println("Illegal input, try again");
+                    continue;
                 }
                 break;
             }
@@ -618,50 +571,36 @@ public class JDBCLibrary {
             logger.info("Default timezone is {}", ZoneId.systemDefault());
             logger.info("Time in default time zone is {}", borrow_date);
 
-            // execute transaction query
-            conn.setAutoCommit(false);
-            pStmt = conn.prepareStatement("update book set stock=stock-1 where bno=?");
-            pStmt.setString(1, book_number);
-            pStmt.executeUpdate();
-            pStmt = conn.prepareStatement("insert into borrow values (?,?,?,?)");
-            pStmt.setString(1, card_number);
-            pStmt.setString(2, book_number);
-            pStmt.setDate(3, Date.valueOf(borrow_date));
-            pStmt.setDate(4, Date.valueOf(return_date));
-            pStmt.executeUpdate();
-            conn.commit();
-            conn.setAutoCommit(true);
-            System.out.println("The books is borrowed");
-
-            // Print borrow information
-            pStmt = conn.prepareStatement("select * from borrow where cno=? and bno=?");
-            pStmt.setString(1, card_number);
-            pStmt.setString(2, book_number);
-            executePrepQuery(pStmt);
-
-            // Print updated book information
-            pStmt = conn.prepareStatement("select * from book where bno=?");
-            pStmt.setString(1, book_number);
-            executePrepQuery(pStmt);
-        } catch (Exception e) {
-            logger.warn("Unable to perform the query: {}", pStmt);
-            e.printStackTrace();
-            try {
-                if (!conn.getAutoCommit()) {
-                    conn.rollback(); // If no error, do nothing, if exception, rollback
+            // execute transaction
+            switch (service.borrow(card_number, book_number, borrow_date, return_date)) {
+                case OK -> {
+                    System.out.printf("The books is borrowed on %s, please return it by %s\n", borrow_date,
+                            return_date);
+                    printBook(service.getBook(book_number)); // Print updated book information
                 }
-                conn.setAutoCommit(true);
-            } catch (Exception ein) {
-                ein.printStackTrace();
+                case NO_CARD -> System.out.printf("Unable to find the proof specified by card number: %s\n",
+                        card_number);
+                case NO_BOOK -> System.out.printf("Unable to find the book specified by book number: %s\n",
+                        book_number);
+                case NO_STOCK -> {
+                    System.out.println("The book is out of stock, please return later");
+                    printNearestReturnDate(book_number);
+                }
+                case ALREADY_BORROWED -> System.out.printf("You've already borrowed book: %s as: %s\n", book_number,
+                        card_number);
+                default -> logger.warn("Unexpected outcome of a borrow");
             }
+        } catch (Exception e) {
+            logger.warn("Unable to borrow the book: {}", e.getMessage());
+            e.printStackTrace();
         }
     }
 
     /**
      * Return a book, prompted.
+     * The return is one atomic transaction, only the borrow records of the reader are read ahead
      */
     static void returnBook() {
-        PreparedStatement pStmt = null; // Needed in catch statement, so defined outside
         try {
             // Get reader's proof
             System.out.print("Please input your reader's proof number: ");
@@ -670,26 +609,17 @@ public class JDBCLibrary {
                 return;
             }
 
-            // Check proof
-            pStmt = conn.prepareStatement("select * from card where cno=?");
-            pStmt.setString(1, card_number);
-            ResultSet rSet = pStmt.executeQuery();
-            if (!rSet.next()) {
-                System.out.printf("Unable to find the proof specified by card number: %s\n", card_number);
-                return;
-            }
-            printResultSet(rSet);
-
             // Check borrow information
-            pStmt = conn.prepareStatement("select * from borrow where cno=?");
-            pStmt.setString(1, card_number);
-            rSet = pStmt.executeQuery();
-            if (!rSet.next()) {
+            List<Loan> loans = service.loans(card_number);
+            if (loans.isEmpty()) {
                 System.out.printf("You haven't borrowed any book as : %s\n", card_number);
                 return;
-            } else {
-                printResultSet(rSet);
             }
+            ArrayList<String[]> rows = new ArrayList<>(loans.size());
+            for (Loan loan : loans) {
+                rows.add(loan.toRow());
+            }
+            renderer.render(Loan.COLUMNS, rows);
 
             // Get book number
             System.out.print("Please input the book number of the book to be returned: ");
@@ -698,76 +628,48 @@ public class JDBCLibrary {
                 return;
             }
 
-            // Check borrow information again
-            pStmt = conn.prepareStatement("select * from borrow where cno=? and bno=?");
-            pStmt.setString(1, card_number);
-            pStmt.setString(2, book_number);
-            rSet = pStmt.executeQuery();
-            if (!rSet.next()) {
-                System.out.printf("You haven't borrowed book: %s as: %s\n", card_number, book_number);
+            // Make sure ...
+            if (!confirm("Are you sure you want to return this book (Y/N)? ")) {
                 return;
             }
 
-            // Check book information
-            pStmt = conn.prepareStatement("select * from book where bno=?");
-            pStmt.setString(1, book_number);
-            rSet = pStmt.executeQuery();
-            if (!rSet.next()) {
-                System.out.printf("Unable to find the book specified by book number: %s\n", book_number);
+            // Execute transaction
+            if (service.giveBack(card_number, book_number) != Circulation.Outcome.OK) {
+                System.out.printf("You haven't borrowed book: %s as: %s\n", book_number, card_number);
                 return;
-            } else if (rSet.getInt("stock") <= 0) {
-                System.out.println("The book is out of stock, do return it if possible");
             }
-            printResultSet(rSet);
-
-            // Make sure ...
-            while (true) {
-                System.out.print("Are you sure you want to return this book (Y/N)? ");
-                String str = reader.next();
-                switch (str.charAt(0)) {
-                    case 'N':
-                    case 'n':
-                        return;
-                    case 'Y':
-                    case 'y':
-                        break;
-                    default:
-                        continue;
-                }
-                break;
-            }
-
-            // Execute transaction
-            conn.setAutoCommit(false);
-            pStmt = conn.prepareStatement("update book set stock=stock+1 where bno=?");
-            pStmt.setString(1, book_number);
-            pStmt.executeUpdate();
-            pStmt = conn.prepareStatement("delete from borrow where cno=? and bno=?");
-            pStmt.setString(1, card_number);
-            pStmt.setString(2, book_number);
-            pStmt.executeUpdate();
-            conn.commit();
-            conn.setAutoCommit(true);
             System.out.println("The books is returned");
 
             // Print book information again
-            pStmt = conn.prepareStatement("select * from book where bno=?");
-            pStmt.setString(1, book_number);
-            executePrepQuery(pStmt);
+            printBook(service.getBook(book_number));
         } catch (Exception e) {
-            logger.warn("Unable to perform the query: {}", pStmt);
+            logger.warn("Unable to return the book: {}", e.getMessage());
             e.printStackTrace();
-            try {
-                if (!conn.getAutoCommit()) {
-                    conn.rollback(); // If no error, do nothing, if exception, rollback
-                }
-                conn.setAutoCommit(true);
-            } catch (Exception ein) {
-                ein.printStackTrace();
-            }
         }
     }
 
+    /**
+     * Read the 9 comma separated values of a book from the input
+     *
+     * @return the book
+     * @throws InputMismatchException if a value cannot be read (the delimiter is reset)
+     */
+    static Book readBook() throws InputMismatchException {
+        reader.useDelimiter(pattern); // pattern: \\p{javaWhitespace}*,\\p{javaWhitespace}*
+        String book_number = reader.next();
+        String category = reader.next();
+        String title = reader.next();
+        String press = reader.next();
+        int year = reader.nextInt();
+        String author = reader.next();
+        BigDecimal price = reader.nextBigDecimal();
+        int total = reader.nextInt();
+        reader.reset(); // the delimiter of the last input is a little tricky
+        reader.skip(pattern); // Get rid of the next pattern
+        int stock = reader.nextInt();
+        return new Book(book_number, category, title, press, year, author, price, total, stock);
+    }
+
     /**
      * Accept one book in the database
      * Update with confirmation if primary key is duplicated
@@ -777,7 +679,7 @@ public class JDBCLibrary {
                 Please input the
                 1. book number 2. category 3. title 4. press 5. year 6. author 7. price 8. total 9. stock
                 of the book (existing books will be updated (by book number))
-                (input q to quit) (separate by comma): """);
+                (input q to quit) (separate by comma):""");
         // 0000000013, English, English Total, Ali, 1995, Bab, 100.2, 10, 10
         while (true) {
             try {
@@ -788,77 +690,32 @@ public class JDBCLibrary {
                 }
 
                 // Read information needed for update
-                reader.useDelimiter(pattern);
-                String book_number = reader.next();
-                String category = reader.next();
-                String title = reader.next();
-                String press = reader.next();
-                int year = reader.nextInt();
-                String author = reader.next();
-                double price = reader.nextDouble();
-                int total = reader.nextInt();
-                reader.reset();
-                reader.skip(pattern); // Get rid of the next pattern
-                int stock = reader.nextInt(); // The last int is a little bit tricky
+                Book book = readBook();
 
                 // Trying to find books
                 System.out.println("Executing select command to find book by book number");
-                PreparedStatement pStmtSelect = conn.prepareStatement("select * from book where bno=?");
-                pStmtSelect.setString(1, book_number);
-                // Here we only process InputMismatch in outer try
-                try {
-                    // Execute query silently and print nothing
-                    ResultSet rSet = pStmtSelect.executeQuery();
-                    if (rSet.next()) { // Has elements
-                        System.out.println("Duplication found");
-                        printResultSet(rSet); // Execute query and print result
-                        while (true) {
-                            System.out.print("Are you sure you want to update this book's information(Y/N)? ");
-                            String str = reader.next();
-                            switch (str.charAt(0)) {
-                                case 'N':
-                                case 'n':
-                                    return;
-                                case 'Y':
-                                case 'y':
-                                    break;
-                                default:
-                                    continue;
-                            }
-                            break;
-                        }
-                        System.out.println("Trying to perform update");
-                    } else {
-                        System.out.println("No duplication found, trying to perform insertion");
+                Book existing = service.getBook(book.bno);
+                if (existing != null) {
+                    System.out.println("Duplication found");
+                    printBook(existing);
+                    if (!confirm("Are you sure you want to update this book's information(Y/N)? ")) {
+                        return;
                     }
-                } catch (SQLException e) {
-                    logger.warn("Unable to perform the selection by book number: {}", book_number);
-                    e.printStackTrace();
-                    return;
+                    System.out.println("Trying to perform update");
+                } else {
+                    System.out.println("No duplication found, trying to perform insertion");
                 }
 
-                // Prepare update statement
-                PreparedStatement pStmt = conn.prepareStatement("replace into book values (?,?,?,?,?,?,?,?,?)");
-                pStmt.setString(1, book_number);
-                pStmt.setString(2, category);
-                pStmt.setString(3, title);
-                pStmt.setString(4, press);
-                pStmt.setInt(5, year);
-                pStmt.setString(6, author);
-                pStmt.setDouble(7, price);
-                pStmt.setInt(8, total);
-                pStmt.setInt(9, stock);
-
                 // Execute update statement
                 try {
-                    int result = pStmt.executeUpdate();
+                    int result = service.putBook(book);
                     System.out.printf("OK, %d row(s) affected\n", result);
-                } catch (Exception e) {
+                } catch (SQLException e) {
                     logger.warn("Unable to perform the update or insertion, check your input");
                     e.printStackTrace();
                     break;
                 }
-                executePrepQuery(pStmtSelect);
+                printBook(service.getBook(book.bno));
                 break;
             } catch (InputMismatchException e) {
                 // If input cannot match, try again
@@ -881,17 +738,14 @@ public class JDBCLibrary {
      * Handles duplication according user's confirmation
      */
     static void addBooks() {
-        ArrayList<Map<String, String>> maps = new ArrayList<>();
-        PreparedStatement pStmt; // needed for error log
-        PreparedStatement pStmtSelect; // needed for error log
+        ArrayList<Book> books = new ArrayList<>();
 
         System.out.println("""
                 Please input the
                 1. book number 2. category 3. title 4. press 5. year 6. author 7. price 8. total 9. stock
                 of the book (existing books will be updated (by book number))
-                (input b to break, q to quit) (separate by comma): """);
+                (input b to break, q to quit) (separate by comma):""");
         while (true) {
-            Map<String, String> map = new HashMap<>(); // new map on every loop
             try {
                 reader.skip(skipPattern);
                 if (!reader.hasNext()) { // For file (EOF returns false)
@@ -905,23 +759,7 @@ public class JDBCLibrary {
                     reader.nextLine();
                     return;
                 }
-
-                // Getting the input
-                reader.useDelimiter(pattern); // pattern: \\p{javaWhitespace}*,\\p{javaWhitespace}*
-                map.put("book_number", reader.next());
-                map.put("category", reader.next());
-                map.put("title", reader.next());
-                map.put("press", reader.next());
-                map.put("year", Integer.toString(reader.nextInt()));
-                map.put("author", reader.next());
-                map.put("price", Double.toString(reader.nextDouble()));
-                map.put("total", Integer.toString(reader.nextInt()));
-                reader.reset(); // the delimiter of the last input is a little tricky
-                reader.skip(pattern); // Get rid of the next pattern
-                map.put("stock", Integer.toString(reader.nextInt()));
-
-                // Update the outer map array
-                maps.add(map);
+                books.add(readBook());
             } catch (InputMismatchException e) {
                 String str = reader.nextLine();
                 logger.warn("Cannot interpret input {}", str);
@@ -933,71 +771,33 @@ public class JDBCLibrary {
             }
         }
 
-        if (!maps.isEmpty()) {
+        if (!books.isEmpty()) {
             // Confirmation of entry number
-            System.out.printf("We've received %d entry(s) to update or insert\n", maps.size());
+            System.out.printf("We've received %d entry(s) to update or insert\n", books.size());
             try {
-                // Select book information
-                StringBuilder sql = new StringBuilder("select * from book where ");
-                sql.append("bno=? or ".repeat(maps.size()));
-                sql = new StringBuilder(sql.substring(0, sql.length() - 4));
-                pStmtSelect = conn.prepareStatement(sql.toString());
-                for (int i = 0; i < maps.size(); i++) {
-                    pStmtSelect.setString(i + 1, maps.get(i).get("book_number"));
+                // Look the book numbers up in bounded chunks instead of one "bno=? or ..." per entry
+                ArrayList<String> keys = new ArrayList<>(books.size());
+                for (Book book : books) {
+                    keys.add(book.bno);
                 }
-                ResultSet rSet = pStmtSelect.executeQuery();
-                if (rSet.next()) {
-                    System.out.println("Duplication found");
-                    printResultSet(rSet);
-
-                    // Backup the scanner in case we are reading from file
-                    // If in file the current scanner should have been exhausted
-                    while (true) {
-                        System.out.print("Are you sure you want to update this(these) book(s)' information(Y/N)? ");
-                        String str = (new Scanner(System.in)).next(); // Don't know why eclipse warns me about not
-                        // closing the scanner here. Isn't system.in to be
-                        // used later, why bother closing it?
-                        switch (str.charAt(0)) {
-                            case 'N':
-                            case 'n':
-                                return;
-                            case 'Y':
-                            case 'y':
-                                break;
-                            default:
-                                continue;
-                        }
-                        break;
+                Set<String> found = service.existingBooks(keys);
+                if (!found.isEmpty()) {
+                    System.out.printf("Duplication found: %d book(s) already exist\n", found.size());
+                    printKeys(found, 20);
+                    if (!confirm("Are you sure you want to update this(these) book(s)' information(Y/N)? ")) {
+                        return;
                     }
                     System.out.println("Trying to perform update");
                 } else {
                     System.out.println("No duplication found, trying to perform update");
                 }
-                pStmt = conn.prepareStatement("replace into book values (?,?,?,?,?,?,?,?,?)");
-                for (Map<String, String> map : maps) {
-                    pStmt.setString(1, map.get("book_number"));
-                    pStmt.setString(2, map.get("category"));
-                    pStmt.setString(3, map.get("title"));
-                    pStmt.setString(4, map.get("press"));
-                    pStmt.setInt(5, Integer.parseInt(map.get("year")));
-                    pStmt.setString(6, map.get("author"));
-                    pStmt.setDouble(7, Double.parseDouble(map.get("price")));
-                    pStmt.setInt(8, Integer.parseInt(map.get("total")));
-                    pStmt.setInt(9, Integer.parseInt(map.get("stock")));
-                    pStmt.addBatch();
-                }
                 try {
-                    // ResultSetMetaData rsmd = pStmt.getMetaData();
-                    int[] ns = pStmt.executeBatch();
-                    int sum = 0;
-                    for (int n : ns) {
-                        sum += n;
-                    }
-                    System.out.println("OK, " + sum + " row(s) affected."); // batch中每个SQL执行的结果数量
-                    // Select book information
-                    executePrepQuery(pStmtSelect);
+                    LibraryService.Written written = service.putBooks(books);
+                    System.out.printf("OK, %s\n", written);
+                    System.out.printf("%d book(s) inserted, %d book(s) updated\n",
+                            new HashSet<>(keys).size() - found.size(), found.size());
                 } catch (SQLException e) {
-                    logger.warn("Unable to perform batch execution: {}", pStmt);
+                    logger.warn("Unable to perform batch execution: {}", e.getMessage());
                     e.printStackTrace();
                 }
             } catch (Exception e) {
@@ -1006,6 +806,25 @@ public class JDBCLibrary {
         }
     }
 
+    /**
+     * Print at most limit keys on one line
+     *
+     * @param keys  the keys to be printed
+     * @param limit the maximum number of keys printed
+     */
+    static void printKeys(Collection<String> keys, int limit) {
+        StringBuilder line = new StringBuilder();
+        int n = 0;
+        for (String key : keys) {
+            if (n++ == limit) {
+                line.append(" ... (").append(keys.size() - limit).append(" more)");
+                break;
+            }
+            line.append(' ').append(key);
+        }
+        System.out.println(line);
+    }
+
     /**
      * Manage reader's proof
      */
@@ -1049,52 +868,24 @@ public class JDBCLibrary {
         System.out.println("Executing selection from table card");
         try {
             // Check existence
-            PreparedStatement pStmtSelect = conn.prepareStatement("select * from card where cno=?");
-            pStmtSelect.setString(1, card_number);
-            PreparedStatement pStmt = null;
-            try {
-                ResultSet rSet = pStmtSelect.executeQuery();
-                if (!rSet.next()) {
-                    System.out.printf("Unable to find the proof specified by card number: %s\n", card_number);
-                    return;
-                }
-
-                // Print information
-                printResultSet(rSet);
-                while (true) { // Loop till a valid input is get
-                    System.out.print("Is this the card you want to delete (Y/N)? ");
-                    String str = reader.next();
-                    switch (str.charAt(0)) {
-                        case 'N':
-                        case 'n':
-                            return;
-                        case 'Y':
-                        case 'y':
-                            break;
-                        default:
-                            continue;
-                    }
-                    break;
-                }
-            } catch (SQLException e) {
-                logger.warn("Unable to perform the query: {}", pStmtSelect);
-                e.printStackTrace();
+            Card card = service.getCard(card_number);
+            if (card == null) {
+                System.out.printf("Unable to find the proof specified by card number: %s\n", card_number);
+                return;
             }
-            try {
-                // Execute update
-                System.out.println("Trying to perform update");
-                pStmt = conn.prepareStatement("delete from card where cno=?");
-                pStmt.setString(1, card_number);
-                int result = pStmt.executeUpdate();
-                System.out.printf("OK, %d row(s) affected\n", result);
-            } catch (SQLException e) {
-                logger.warn("Unable to perform the query: {}", pStmt);
-                e.printStackTrace();
+
+            // Print information
+            printCard(card);
+            if (!confirm("Is this the card you want to delete (Y/N)? ")) {
+                return;
             }
-        } catch (Exception e) {
+
+            // Execute update
+            System.out.println("Trying to perform update");
+            System.out.printf("OK, %d row(s) affected\n", service.deleteCard(card_number) ? 1 : 0);
+        } catch (SQLException e) {
+            logger.warn("Unable to delete the card {}: {}", card_number, e.getMessage());
             e.printStackTrace();
-        } finally {
-            reader.reset();
         }
     }
 
@@ -1113,72 +904,18 @@ public class JDBCLibrary {
         }
         System.out.println("Executing selection from table card");
         try {
-            PreparedStatement pStmtSelect = conn.prepareStatement("select * from card where cno=?");
-            PreparedStatement pStmt = null;
-            pStmtSelect.setString(1, card_number);
-            try {
-                ResultSet rSet = pStmtSelect.executeQuery();
-                if (rSet.next()) {
-                    System.out.println("Found duplication"); // if duplicated, ask for confirmation
-                    printResultSet(rSet);
-                    while (true) {
-                        System.out.print("Do you want to modify this card's information (Y/N)? ");
-                        String str = reader.next();
-                        switch (str.charAt(0)) {
-                            case 'N':
-                            case 'n':
-                                return;
-                            case 'Y':
-                            case 'y':
-                                break;
-                            default:
-                                continue;
-                        }
-                        break;
-                    }
-                }
-            } catch (SQLException e) {
-                logger.warn("Unable to perform the query: {}", pStmtSelect);
-                e.printStackTrace();
-            }
-            try {
-                // Here we use the preview feature of Java 14
-                // in text block we can also use \040: octal escape char as space
-                System.out.println("""
-                        Please input the
-                        1. owner name 2. department 3. type ("S" or "T")
-                        of the new card (separate by comma): """);
-                pStmt = conn.prepareStatement("replace into card values (?,?,?,?)");
-                reader.skip(skipPattern); // Get rid of the CRLF
-                if (reader.hasNext("q")) {
-                    reader.nextLine();
+            Card card = service.getCard(card_number);
+            if (card != null) {
+                System.out.println("Found duplication"); // if duplicated, ask for confirmation
+                printCard(card);
+                if (!confirm("Do you want to modify this card's information (Y/N)? ")) {
                     return;
                 }
-
-                // Change delimiter
-                reader.useDelimiter(pattern);
-                String name = reader.next();
-                String department = reader.next();
-                reader.reset();
-                reader.skip(pattern); // Get rid of the next pattern
-                String type = reader.next();
-
-                // Perform query
-                pStmt.setString(1, card_number);
-                pStmt.setString(2, name);
-                pStmt.setString(3, department);
-                pStmt.setString(4, type);
-                int result = pStmt.executeUpdate();
-                System.out.printf("OK, %d row(s) affected\n", result);
-                executePrepQuery(pStmtSelect);
-            } catch (SQLException e) {
-                logger.warn("Unable to perform the query: {}", pStmt);
-                e.printStackTrace();
             }
-        } catch (Exception e) {
+            putProof(card_number);
+        } catch (SQLException e) {
+            logger.warn("Unable to add the card {}: {}", card_number, e.getMessage());
             e.printStackTrace();
-        } finally {
-            reader.reset(); // reset the reader's delimiter upon error
         }
     }
 
@@ -1194,93 +931,116 @@ public class JDBCLibrary {
         }
         System.out.println("Executing selection from table card");
         try {
-            PreparedStatement pStmtSelect = conn.prepareStatement("select * from card where cno=?");
-            pStmtSelect.setString(1, card_number);
-            PreparedStatement pStmt = null;
-            try {
-                ResultSet rSet = pStmtSelect.executeQuery();
-                if (!rSet.next()) {
-                    System.out.printf("Unable to find the proof specified by card number: %s\n", card_number);
-                    return;
-                }
-                printResultSet(rSet);
-                while (true) {
-                    System.out.print("Is this the card you want to modify (Y/N)? ");
-                    String str = reader.next();
-                    switch (str.charAt(0)) {
-                        case 'N':
-                        case 'n':
-                            return;
-                        case 'Y':
-                        case 'y':
-                            break;
-                        default:
-                            continue;
-                    }
-                    break;
-                }
-            } catch (SQLException e) {
-                logger.warn("Unable to perform the query: {}", pStmtSelect);
-                e.printStackTrace();
+            Card card = service.getCard(card_number);
+            if (card == null) {
+                System.out.printf("Unable to find the proof specified by card number: %s\n", card_number);
+                return;
             }
-            try {
-                System.out.println("""
-                        Please input the
-                        1. owner name 2. department 3. type ("S" or "T")
-                        of the new card (separate by comma): """);
-                pStmt = conn.prepareStatement("replace into card values (?,?,?,?)");
-                reader.skip(skipPattern); // Get rid of the CRLF
-                if (reader.hasNext("q")) {
-                    reader.nextLine();
-                    return;
-                }
-                reader.useDelimiter(pattern);
-                String name = reader.next();
-                String department = reader.next();
-                reader.reset();
-                reader.skip(pattern); // Get rid of the next pattern
-                String type = reader.next();
-                pStmt.setString(1, card_number);
-                pStmt.setString(2, name);
-                pStmt.setString(3, department);
-                pStmt.setString(4, type);
-                int result = pStmt.executeUpdate();
-                System.out.printf("OK, %d row(s) affected\n", result);
-                executePrepQuery(pStmtSelect);
-            } catch (SQLException e) {
-                logger.warn("Unable to perform the query: {}", pStmt);
-                e.printStackTrace();
+            printCard(card);
+            if (!confirm("Is this the card you want to modify (Y/N)? ")) {
+                return;
             }
-        } catch (Exception e) {
+            putProof(card_number);
+        } catch (SQLException e) {
+            logger.warn("Unable to modify the card {}: {}", card_number, e.getMessage());
             e.printStackTrace();
+        }
+    }
+
+    /**
+     * Read the other values of a card and write it
+     *
+     * @param card_number the card number of the card
+     * @throws SQLException if the card cannot be written
+     */
+    static void putProof(String card_number) throws SQLException {
+        // Here we use the preview feature of Java 14
+        // in text block we can also use \040: octal escape char as space
+        System.out.println("""
+                Please input the
+                1. owner name 2. department 3. type ("S" or "T")
+                of the new card (separate by comma):""");
+        try {
+            reader.skip(skipPattern); // Get rid of the CRLF
+            if (reader.hasNext("q")) {
+                reader.nextLine();
+                return;
+            }
+
+            // Change delimiter
+            reader.useDelimiter(pattern);
+            String name = reader.next();
+            String department = reader.next();
+            reader.reset();
+            reader.skip(pattern); // Get rid of the next pattern
+            String type = reader.next();
+
+            // Perform query
+            int result = service.putCard(new Card(card_number, name, department, type));
+            System.out.printf("OK, %d row(s) affected\n", result);
+            Card card = service.getCard(card_number);
+            if (card != null) {
+                printCard(card);
+            }
         } finally {
-            reader.reset(); // reset reader's delimiter
+            reader.reset(); // reset the reader's delimiter upon error
         }
     }
 
     /**
-     * Calls addBooks() after changing the reader (Scanner) to a file stream
+     * Import the books of a file (the format of book_data.txt)
+     * The import is checkpointed, a failed import resumes where it stopped (see LibraryService.importBooks)
+     * Trusted files can be handed to the server's own loader instead (see BookFileLoader)
      */
     static void addBooksFromFile() {
-        Scanner backup = reader;
         System.out.println("Working directory: " + System.getProperty("user.dir"));
         System.out.print("Please input the file that contains the book information: ");
+        Path path;
         while (true) {
             String filePath = reader.next();
             if ("q".equals(filePath)) {
                 return;
             }
-            try {
-                reader = new Scanner(new File(filePath)); // Try initializing the file with given path
+            path = Paths.get(filePath);
+            if (Files.isRegularFile(path)) {
                 break;
-            } catch (FileNotFoundException e) {
-                logger.warn("File not found for file path: \"{}\"", filePath);
-                System.out.print("Cannot find the file specified, try again: ");
             }
+            logger.warn("File not found for file path: \"{}\"", filePath);
+            System.out.print("Cannot find the file specified, try again: ");
+        }
+
+        boolean update = confirm("Do you want to update the books that already exist (Y/N)? ");
+
+        if (config.getBoolean("jdbc.allowLoadLocalInfile", false)
+                && confirm("Is this a trusted file to be loaded by the server (LOAD DATA LOCAL INFILE) (Y/N)? ")) {
+            long start = System.nanoTime();
+            try {
+                BookFileLoader.Result result = service.loadBooks(path, update);
+                System.out.printf("OK, %s in %.3fs\n", result, (System.nanoTime() - start) / 1e9);
+            } catch (SQLException e) {
+                logger.warn("Unable to load \"{}\" on the server, nothing is changed: {}", path, e.getMessage());
+                e.printStackTrace();
+            }
+            return;
         }
 
-        addBooks();
-        reader.close();
-        reader = backup;
+        try {
+            LibraryService.ImportResult result = service.importBooks(path, update);
+            if (result.resumedRows > 0 || result.resumedOffset > 0) {
+                System.out.printf("Resumed the previous import of this file: %d book(s) were already committed, "
+                        + "started from byte %d\n", result.resumedRows, result.resumedOffset);
+            }
+            if (result.failure != null) {
+                System.out.printf("The import stopped, %d book(s) are committed, run it again to resume\n",
+                        result.committed);
+                result.failure.printStackTrace();
+            }
+            System.out.printf("Read %d book(s) from %d line(s), %d rejected\n", result.rows, result.lines,
+                    result.rejected);
+            System.out.printf("OK, %s (%.0f book(s)/s)\n", result.written,
+                    result.rows / Math.max(result.seconds, 1e-3));
+        } catch (IOException e) {
+            logger.warn("Unable to access \"{}\": {}", path, e.getMessage());
+        }
     }
-}
\ No newline at end of file
+}
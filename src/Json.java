@@ -0,0 +1,377 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the servers: writing the rows of the library and reading
+ * small request bodies
+ * Parsed objects are LinkedHashMaps, arrays are ArrayLists, numbers are BigDecimals
+ * The parser recurses into nested values, so their depth is bounded (MAX_DEPTH): a body
+ * of "[[[[..." fails like any invalid document instead of overflowing the stack
+ */
+class Json {
+    static final int MAX_DEPTH = 64;
+
+    private final String text;
+    private int pos;
+    private int depth; // Of the objects and arrays being parsed
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    // Writing
+
+    static String book(Book book) {
+        StringBuilder sb = new StringBuilder(160);
+        appendBook(sb, book);
+        return sb.toString();
+    }
+
+    static String books(List<Book> books) {
+        StringBuilder sb = new StringBuilder(16 + books.size() * 160);
+        sb.append('[');
+        for (int i = 0; i < books.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendBook(sb, books.get(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    static void appendBook(StringBuilder sb, Book book) {
+        sb.append("{\"bno\":");
+        quote(sb, book.bno);
+        sb.append(",\"category\":");
+        quote(sb, book.category);
+        sb.append(",\"title\":");
+        quote(sb, book.title);
+        sb.append(",\"press\":");
+        quote(sb, book.press);
+        sb.append(",\"year\":").append(book.year);
+        sb.append(",\"author\":");
+        quote(sb, book.author);
+        sb.append(",\"price\":").append(book.price == null ? "null" : book.price.toPlainString());
+        sb.append(",\"total\":").append(book.total);
+        sb.append(",\"stock\":").append(book.stock).append('}');
+    }
+
+    static String card(Card card) {
+        StringBuilder sb = new StringBuilder(96);
+        sb.append("{\"cno\":");
+        quote(sb, card.cno);
+        sb.append(",\"name\":");
+        quote(sb, card.name);
+        sb.append(",\"department\":");
+        quote(sb, card.department);
+        sb.append(",\"type\":");
+        quote(sb, card.type);
+        return sb.append('}').toString();
+    }
+
+    static String loans(List<Loan> loans) {
+        StringBuilder sb = new StringBuilder(16 + loans.size() * 96);
+        sb.append('[');
+        for (int i = 0; i < loans.size(); i++) {
+            Loan loan = loans.get(i);
+            sb.append(i > 0 ? ",{\"cno\":" : "{\"cno\":");
+            quote(sb, loan.cno);
+            sb.append(",\"bno\":");
+            quote(sb, loan.bno);
+            sb.append(",\"borrowDate\":");
+            quote(sb, loan.borrowDate == null ? null : loan.borrowDate.toString());
+            sb.append(",\"returnDate\":");
+            quote(sb, loan.returnDate == null ? null : loan.returnDate.toString());
+            sb.append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * An object of string keys and values (null values are written as null)
+     *
+     * @param keyValues key, value, key, value, ...
+     */
+    static String object(String... keyValues) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append('{');
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            quote(sb, keyValues[i]);
+            sb.append(':');
+            quote(sb, keyValues[i + 1]);
+        }
+        return sb.append('}').toString();
+    }
+
+    static void quote(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    // Reading
+
+    /**
+     * Parse a JSON document
+     *
+     * @param text the document
+     * @return a Map, List, String, BigDecimal, Boolean or null
+     * @throws IllegalArgumentException if it's not valid JSON
+     */
+    static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skipSpace();
+        if (json.pos != text.length()) {
+            throw json.error("trailing characters");
+        }
+        return value;
+    }
+
+    /**
+     * Parse a JSON object
+     *
+     * @throws IllegalArgumentException if it's not a valid JSON object
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> parseObject(String text) {
+        Object value = parse(text);
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("A JSON object is expected");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    /**
+     * A book of an object with the fields written by appendBook
+     *
+     * @throws IllegalArgumentException if a field is missing or has the wrong type
+     */
+    static Book toBook(Map<String, Object> object) {
+        return new Book(string(object, "bno"), string(object, "category"), string(object, "title"),
+                string(object, "press"), integer(object, "year"), string(object, "author"),
+                number(object, "price"), integer(object, "total"), integer(object, "stock"));
+    }
+
+    static String string(Map<String, Object> object, String key) {
+        Object value = object.get(key);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("\"" + key + "\" must be a string");
+        }
+        return (String) value;
+    }
+
+    static BigDecimal number(Map<String, Object> object, String key) {
+        Object value = object.get(key);
+        if (!(value instanceof BigDecimal)) {
+            throw new IllegalArgumentException("\"" + key + "\" must be a number");
+        }
+        return (BigDecimal) value;
+    }
+
+    static int integer(Map<String, Object> object, String key) {
+        try {
+            return number(object, key).intValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("\"" + key + "\" must be an integer");
+        }
+    }
+
+    private Object value() {
+        skipSpace();
+        if (pos >= text.length()) {
+            throw error("unexpected end");
+        }
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{' -> {
+                nest();
+                Map<String, Object> map = object();
+                depth--;
+                return map;
+            }
+            case '[' -> {
+                nest();
+                List<Object> list = array();
+                depth--;
+                return list;
+            }
+            case '"' -> {
+                return string();
+            }
+            case 't' -> {
+                literal("true");
+                return Boolean.TRUE;
+            }
+            case 'f' -> {
+                literal("false");
+                return Boolean.FALSE;
+            }
+            case 'n' -> {
+                literal("null");
+                return null;
+            }
+            default -> {
+                return number();
+            }
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++; // {
+        skipSpace();
+        if (peek() == '}') {
+            pos++;
+            return map;
+        }
+        while (true) {
+            skipSpace();
+            if (peek() != '"') {
+                throw error("a key is expected");
+            }
+            String key = string();
+            skipSpace();
+            expect(':');
+            map.put(key, value());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return map;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> list = new ArrayList<>();
+        pos++; // [
+        skipSpace();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            list.add(value());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return list;
+            }
+        }
+    }
+
+    private String string() {
+        pos++; // "
+        StringBuilder sb = new StringBuilder();
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= text.length()) {
+                break;
+            }
+            char e = text.charAt(pos++);
+            switch (e) {
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'u' -> {
+                    if (pos + 4 > text.length()) {
+                        throw error("bad unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw error("bad unicode escape");
+                    }
+                    pos += 4;
+                }
+                default -> sb.append(e); // " \ /
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private BigDecimal number() {
+        int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            pos++;
+        }
+        try {
+            return new BigDecimal(text.substring(start, pos));
+        } catch (NumberFormatException e) {
+            throw error("a value is expected");
+        }
+    }
+
+    private void nest() {
+        if (++depth > MAX_DEPTH) {
+            throw error("nested deeper than " + MAX_DEPTH + " levels");
+        }
+    }
+
+    private void literal(String word) {
+        if (!text.startsWith(word, pos)) {
+            throw error("a value is expected");
+        }
+        pos += word.length();
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw error("'" + c + "' is expected");
+        }
+        pos++;
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : '\0';
+    }
+
+    private void skipSpace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String what) {
+        return new IllegalArgumentException("Invalid JSON at " + pos + ": " + what);
+    }
+}
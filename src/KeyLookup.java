@@ -0,0 +1,178 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Find which of many keys already exist in a table
+ * Small key sets are looked up with bounded "in (?,...,?)" lists of a few fixed widths
+ * (see listWidth), a short list is padded with its last key, so a handful of (cached)
+ * prepared statements serves any number of keys instead of one SQL text per count
+ * Large key sets are staged into a temporary table with multi-row inserts of one width
+ * and joined on the server in one query
+ * Either way the number of round trips is keys / list size, not one statement with
+ * a placeholder per key
+ */
+class KeyLookup {
+    private static final int[] LIST_WIDTHS = {1, 8, 32}; // The narrow lists, then inListSize
+    static final String CREATE_KEYS = "create temporary table if not exists lookup_keys (k varchar(255) primary key)";
+
+    private final int inListSize;
+    private final int tempTableThreshold;
+
+    /**
+     * @param inListSize         the number of keys per "in" list (and per staging insert)
+     * @param tempTableThreshold from this number of keys on, a temporary table is used
+     */
+    KeyLookup(int inListSize, int tempTableThreshold) {
+        this.inListSize = Math.max(1, inListSize);
+        this.tempTableThreshold = tempTableThreshold;
+    }
+
+    KeyLookup(LibraryConfig config) {
+        this(config.getInt("lookup.inListSize", 500), config.getInt("lookup.tempTableThreshold", 20000));
+    }
+
+    /**
+     * Every width of the lists up to max: 1, 8, 32 and max
+     */
+    static int[] listWidths(int max) {
+        return IntStream.concat(Arrays.stream(LIST_WIDTHS).filter(width -> width < max), IntStream.of(max))
+                .toArray();
+    }
+
+    /**
+     * The statements of a lookup in table.column (also EXPLAINed by ExplainCheck): an "in"
+     * list of each width, then the join with the keys staged in the table of CREATE_KEYS
+     */
+    List<String> statements(String table, String column) {
+        List<String> statements = new ArrayList<>();
+        for (int width : listWidths(inListSize)) {
+            statements.add(inListSql(table, column, width));
+        }
+        statements.add(joinSql(table, column));
+        return statements;
+    }
+
+    static String inListSql(String table, String column, int width) {
+        return "select " + column + " from " + table + " where " + column + " in (" + "?,".repeat(width - 1) + "?)";
+    }
+
+    static String joinSql(String table, String column) {
+        return "select k.k from lookup_keys k join " + table + " t on t." + column + " = k.k";
+    }
+
+    /**
+     * The number of placeholders of a list holding n keys: the smallest of 1, 8, 32 and max
+     * that fits them, the rest of the list repeats the last key
+     *
+     * @param n   the number of keys, at most max
+     * @param max the widest list
+     * @return the width of the list
+     */
+    static int listWidth(int n, int max) {
+        for (int width : LIST_WIDTHS) {
+            if (n <= width && width < max) {
+                return width;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Find the keys that exist in table.column
+     *
+     * @param conn   the connection to query with
+     * @param table  the table to look into (trusted, not user input)
+     * @param column the key column of the table (trusted, not user input)
+     * @param keys   the keys to be looked up, duplicates are fine
+     * @return the subset of keys found in the table
+     * @throws SQLException if a lookup fails
+     */
+    Set<String> findExisting(Connection conn, String table, String column, Collection<String> keys)
+            throws SQLException {
+        Set<String> distinct = new LinkedHashSet<>(keys);
+        if (distinct.isEmpty()) {
+            return new HashSet<>();
+        }
+        return distinct.size() >= tempTableThreshold
+                ? findByTempTable(conn, table, column, distinct)
+                : findByInLists(conn, table, column, distinct);
+    }
+
+    private Set<String> findByInLists(Connection conn, String table, String column, Set<String> keys)
+            throws SQLException {
+        Set<String> found = new HashSet<>();
+        Iterator<String> it = keys.iterator();
+        int left = keys.size();
+        while (left > 0) {
+            int size = listWidth(Math.min(inListSize, left), inListSize);
+            try (PreparedStatement pStmt = conn.prepareStatement(inListSql(table, column, size))) {
+                String key = null;
+                for (int i = 1; i <= size; i++) {
+                    if (it.hasNext()) {
+                        key = it.next();
+                        left--;
+                    }
+                    pStmt.setString(i, key); // A short list is padded with its last key
+                }
+                try (ResultSet rSet = pStmt.executeQuery()) {
+                    while (rSet.next()) {
+                        found.add(rSet.getString(1));
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private Set<String> findByTempTable(Connection conn, String table, String column, Set<String> keys)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_KEYS);
+            stmt.execute("truncate table lookup_keys");
+            try {
+                String sql = "insert ignore into lookup_keys values " + "(?),".repeat(inListSize - 1) + "(?)";
+                try (PreparedStatement pStmt = conn.prepareStatement(sql)) {
+                    List<String> batch = new ArrayList<>(inListSize);
+                    for (String key : keys) {
+                        batch.add(key);
+                        if (batch.size() == inListSize) {
+                            insertKeys(pStmt, batch);
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        insertKeys(pStmt, batch); // Padded with its last key, ignored as a duplicate
+                    }
+                }
+                Set<String> found = new HashSet<>();
+                try (ResultSet rSet = stmt.executeQuery(joinSql(table, column))) {
+                    while (rSet.next()) {
+                        found.add(rSet.getString(1));
+                    }
+                }
+                return found;
+            } finally {
+                stmt.execute("drop temporary table if exists lookup_keys");
+            }
+        }
+    }
+
+    private void insertKeys(PreparedStatement pStmt, List<String> batch) throws SQLException {
+        for (int i = 0; i < inListSize; i++) {
+            pStmt.setString(i + 1, batch.get(Math.min(i, batch.size() - 1)));
+        }
+        pStmt.executeUpdate();
+        batch.clear();
+    }
+}
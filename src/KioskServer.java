@@ -0,0 +1,591 @@
+import java.io.Console;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compact binary protocol for the self-checkout kiosks
+ * One selector thread does all the network work for every connection, the database
+ * work runs on a pool of kiosk.workers threads, so an idle kiosk costs a socket and no
+ * thread (nor a buffer: a read buffer is only held while a frame is incomplete)
+ * <p>
+ * Every message is a frame: an int length (big endian, not counting itself) then the payload
+ * Request:  byte op, int id, fields
+ * 1 LOOKUP  string bno
+ * 2 BORROW  string cno, string bno, short days
+ * 3 RETURN  string cno, string bno
+ * 4 FIND    byte column (0 title, 1 category, 2 press, 3 author), string value
+ * Response: byte status, int id (of the request), fields
+ * status 0 OK .. 5 NOT_BORROWED (the ordinals of Circulation.Outcome), 64 BAD_REQUEST, 65 ERROR
+ * LOOKUP OK: book            FIND OK: short count, count books
+ * BORROW OK: int return date (epoch day)      BORROW NO_STOCK: int nearest return date (epoch day, -1 if unknown)
+ * A string is an unsigned short length then UTF-8 bytes, a book is string bno, category,
+ * title, press, int year, string author, string price, int total, int stock
+ * <p>
+ * Requests are pipelined: a kiosk may send many without waiting, they are served
+ * concurrently and the responses come back as they are ready (match them by id).
+ * A connection with kiosk.maxInFlight requests unanswered is not read until one is
+ * <p>
+ * java KioskServer [-u user] [-p] [--port n]
+ */
+class KioskServer implements AutoCloseable {
+    static final Logger logger = LoggerFactory.getLogger(KioskServer.class);
+
+    // Operations
+    static final byte LOOKUP = 1;
+    static final byte BORROW = 2;
+    static final byte RETURN = 3;
+    static final byte FIND = 4;
+
+    // Statuses besides the outcomes
+    static final byte OK = 0;
+    static final byte BAD_REQUEST = 64;
+    static final byte ERROR = 65;
+
+    static final int HEADER = 5; // op or status, id
+
+    /**
+     * A decoded request
+     */
+    private static class Request {
+        final Session session;
+        final byte op;
+        final int id;
+        String cno;
+        String bno;
+        int days;
+        LibraryService.By by;
+        String value;
+
+        Request(Session session, byte op, int id) {
+            this.session = session;
+            this.op = op;
+            this.id = id;
+        }
+    }
+
+    /**
+     * The state of a connection, only touched by the selector thread
+     */
+    private static class Session {
+        final SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer in; // An incomplete frame, null when there is none
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>(); // Responses to be written, in order
+        int inFlight; // Requests handed to the workers and not answered yet
+        boolean closed;
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * A response made by a worker, to be written by the selector thread
+     */
+    private static class Reply {
+        final Session session;
+        final ByteBuffer buffer;
+
+        Reply(Session session, ByteBuffer buffer) {
+            this.session = session;
+            this.buffer = buffer;
+        }
+    }
+
+    private final LibraryService service;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ExecutorService workers;
+    private final ByteBufferPool buffers;
+    private final int maxInFlight;
+    private final int defaultDays;
+    private final ConcurrentLinkedQueue<Reply> replies = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private int accepted; // Selector thread only
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder badRequests = new LongAdder();
+
+    /**
+     * Bind the server, it answers once started
+     *
+     * @param service the service the requests are served by (left open on close)
+     * @param address where to listen
+     * @throws IOException if the address cannot be bound
+     */
+    KioskServer(LibraryService service, InetSocketAddress address) throws IOException {
+        LibraryConfig config = service.getConfig();
+        this.service = service;
+        this.maxInFlight = Math.max(1, config.getInt("kiosk.maxInFlight", 16));
+        this.defaultDays = config.getInt("kiosk.defaultDays", 14);
+        this.buffers = new ByteBufferPool(config.getInt("kiosk.bufferSize", 4096),
+                config.getInt("kiosk.maxPooledBuffers", 1024));
+        int threads = Math.max(1, config.getInt("kiosk.workers", config.getInt("pool.maxSize", 10)));
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "library-kiosk-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(address, config.getInt("kiosk.backlog", 1024));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::loop, "library-kiosk-selector");
+    }
+
+    void start() {
+        thread.start();
+        logger.info("Listening on {}", server.socket().getLocalSocketAddress());
+    }
+
+    InetSocketAddress getAddress() {
+        return (InetSocketAddress) server.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Stop listening and close every connection, the requests in progress are dropped
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+        logger.info("Stopped, {} connection(s) accepted, {} request(s) served ({} bad), {}", accepted,
+                requests.sum(), badRequests.sum(), buffers.statistics());
+    }
+
+    // Selector thread
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select();
+                Reply reply;
+                while ((reply = replies.poll()) != null) {
+                    deliver(reply);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Session session = (Session) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(session);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(session);
+                        }
+                    } catch (IOException e) {
+                        logger.debug("Closing {}: {}", session.channel, e.getMessage());
+                        closeSession(session);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("The selector failed: {}", e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Session) {
+                    closeSession((Session) key.attachment());
+                }
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close the selector: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true); // Small frames, answered one by one
+            Session session = new Session(channel);
+            session.key = channel.register(selector, SelectionKey.OP_READ, session);
+            accepted++;
+        }
+    }
+
+    private void read(Session session) throws IOException {
+        if (session.in == null) {
+            session.in = buffers.acquire();
+        }
+        int n = session.channel.read(session.in);
+        if (n < 0) {
+            closeSession(session);
+            return;
+        }
+        parse(session);
+    }
+
+    /**
+     * Hand the complete frames read so far to the workers, as long as the connection
+     * may have more requests in flight
+     */
+    private void parse(Session session) throws IOException {
+        ByteBuffer in = session.in;
+        if (in == null) {
+            interest(session);
+            return;
+        }
+        in.flip();
+        while (in.remaining() >= 4 && session.inFlight + session.out.size() < maxInFlight) {
+            int start = in.position();
+            int length = in.getInt(start);
+            if (length < HEADER || length > in.capacity() - 4) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            if (in.remaining() < 4 + length) {
+                break;
+            }
+            int end = start + 4 + length;
+            int limit = in.limit();
+            in.position(start + 4).limit(end);
+            byte op = in.get();
+            int id = in.getInt();
+            Request request = new Request(session, op, id);
+            boolean valid;
+            try {
+                valid = decode(in, request) && !in.hasRemaining();
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                valid = false;
+            }
+            in.limit(limit).position(end);
+            if (valid) {
+                dispatch(request);
+            } else {
+                badRequests.increment();
+                ByteBuffer reply = buffers.acquire();
+                begin(reply, BAD_REQUEST, id);
+                session.out.add(end(reply));
+            }
+        }
+        in.compact();
+        if (in.position() == 0) { // Nothing left over, don't hold a buffer for an idle kiosk
+            buffers.release(in);
+            session.in = null;
+        }
+        interest(session);
+    }
+
+    private static boolean decode(ByteBuffer in, Request request) {
+        switch (request.op) {
+            case LOOKUP -> request.bno = getString(in);
+            case BORROW -> {
+                request.cno = getString(in);
+                request.bno = getString(in);
+                request.days = in.getShort();
+            }
+            case RETURN -> {
+                request.cno = getString(in);
+                request.bno = getString(in);
+            }
+            case FIND -> {
+                int column = in.get();
+                if (column < 0 || column >= LibraryService.By.values().length) {
+                    return false;
+                }
+                request.by = LibraryService.By.values()[column];
+                request.value = getString(in);
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void dispatch(Request request) {
+        request.session.inFlight++;
+        requests.increment();
+        try {
+            workers.execute(() -> {
+                replies.add(new Reply(request.session, handle(request)));
+                selector.wakeup();
+            });
+        } catch (RejectedExecutionException e) { // Closing
+            request.session.inFlight--;
+        }
+    }
+
+    private void deliver(Reply reply) {
+        Session session = reply.session;
+        if (session.closed) {
+            buffers.release(reply.buffer);
+            return;
+        }
+        session.inFlight--;
+        session.out.add(reply.buffer);
+        try {
+            write(session);
+        } catch (IOException e) {
+            logger.debug("Closing {}: {}", session.channel, e.getMessage());
+            closeSession(session);
+        }
+    }
+
+    private void write(Session session) throws IOException {
+        while (!session.out.isEmpty()) {
+            ByteBuffer buffer = session.out.peek();
+            session.channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                break; // The socket is full, wait for OP_WRITE
+            }
+            buffers.release(session.out.poll());
+        }
+        parse(session); // Frames left unread for lack of room in flight
+    }
+
+    private void interest(Session session) {
+        if (session.closed || !session.key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (session.inFlight + session.out.size() < maxInFlight) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!session.out.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        session.key.interestOps(ops);
+    }
+
+    private void closeSession(Session session) {
+        if (session.closed) {
+            return;
+        }
+        session.closed = true;
+        session.key.cancel();
+        try {
+            session.channel.close();
+        } catch (IOException e) {
+            logger.debug("Unable to close {}: {}", session.channel, e.getMessage());
+        }
+        buffers.release(session.in);
+        session.in = null;
+        for (ByteBuffer buffer : session.out) {
+            buffers.release(buffer);
+        }
+        session.out.clear();
+    }
+
+    // Workers
+
+    /**
+     * Serve a request
+     *
+     * @return the response frame, ready to be written
+     */
+    private ByteBuffer handle(Request request) {
+        try {
+            return respond(request);
+        } catch (SQLException e) {
+            logger.warn("Unable to serve request {} (op {}): {}", request.id, request.op, e.getMessage());
+        } catch (RuntimeException e) {
+            logger.warn("Unable to serve request {} (op {})", request.id, request.op, e);
+        }
+        ByteBuffer reply = buffers.acquire();
+        begin(reply, ERROR, request.id);
+        return end(reply);
+    }
+
+    private ByteBuffer respond(Request request) throws SQLException {
+        switch (request.op) {
+            case LOOKUP -> {
+                Book book = service.getBook(request.bno);
+                if (book == null) {
+                    return status((byte) Circulation.Outcome.NO_BOOK.ordinal(), request.id, null);
+                }
+                return books(request.id, List.of(book), false);
+            }
+            case FIND -> {
+                return books(request.id, service.findBooks(request.by, request.value, null, Short.MAX_VALUE), true);
+            }
+            case BORROW -> {
+                int days = request.days > 0 ? request.days : defaultDays;
+                LocalDate borrowDate = LocalDate.now(ZoneId.systemDefault());
+                LocalDate returnDate = borrowDate.plusDays(days);
+                Circulation.Outcome outcome = service.borrow(request.cno, request.bno, borrowDate, returnDate);
+                Integer date = null;
+                if (outcome == Circulation.Outcome.OK) {
+                    date = (int) returnDate.toEpochDay();
+                } else if (outcome == Circulation.Outcome.NO_STOCK) {
+                    LocalDate due = service.nearestReturnDate(request.bno);
+                    date = due == null ? -1 : (int) due.toEpochDay();
+                }
+                return status((byte) outcome.ordinal(), request.id, date);
+            }
+            case RETURN -> {
+                return status((byte) service.giveBack(request.cno, request.bno).ordinal(), request.id, null);
+            }
+            default -> {
+                return status(BAD_REQUEST, request.id, null);
+            }
+        }
+    }
+
+    private ByteBuffer status(byte status, int id, Integer epochDay) {
+        ByteBuffer reply = buffers.acquire();
+        begin(reply, status, id);
+        if (epochDay != null) {
+            reply.putInt(epochDay);
+        }
+        return end(reply);
+    }
+
+    /**
+     * An OK response with books, in a pooled buffer if they fit (a heap buffer otherwise)
+     */
+    private ByteBuffer books(int id, List<Book> books, boolean counted) {
+        int size = 4 + HEADER + (counted ? 2 : 0);
+        for (Book book : books) {
+            size += bookSize(book);
+        }
+        ByteBuffer reply = size <= buffers.getBufferSize() ? buffers.acquire() : ByteBuffer.allocate(size);
+        begin(reply, OK, id);
+        if (counted) {
+            reply.putShort((short) books.size());
+        }
+        for (Book book : books) {
+            putBook(reply, book);
+        }
+        return end(reply);
+    }
+
+    // Encoding
+
+    private static void begin(ByteBuffer buffer, byte status, int id) {
+        buffer.putInt(0).put(status).putInt(id); // The length is written by end
+    }
+
+    private static ByteBuffer end(ByteBuffer buffer) {
+        buffer.putInt(0, buffer.position() - 4);
+        return buffer.flip();
+    }
+
+    private static int bookSize(Book book) {
+        return 7 * 2 + 3 * 4 + utf8Length(book.bno) + utf8Length(book.category) + utf8Length(book.title)
+                + utf8Length(book.press) + utf8Length(book.author)
+                + (book.price == null ? 0 : book.price.toPlainString().length());
+    }
+
+    private static int utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4; // With the low surrogate
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putBook(ByteBuffer buffer, Book book) {
+        putString(buffer, book.bno);
+        putString(buffer, book.category);
+        putString(buffer, book.title);
+        putString(buffer, book.press);
+        buffer.putInt(book.year);
+        putString(buffer, book.author);
+        putString(buffer, book.price == null ? "" : book.price.toPlainString());
+        buffer.putInt(book.total);
+        buffer.putInt(book.stock);
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String too long: " + bytes.length + " bytes");
+        }
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String userID = System.getenv().get("USERNAME");
+        userID = userID == null ? "jdbc" : userID;
+        String userPassword = null;
+        Integer port = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("-u".equals(args[i]) && i != args.length - 1) {
+                userID = args[++i];
+            } else if ("--port".equals(args[i]) && i != args.length - 1) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("-p".equals(args[i])) {
+                Console console = System.console();
+                System.out.print("Please input your password: ");
+                userPassword = console == null ? new java.util.Scanner(System.in).next()
+                        : new String(console.readPassword());
+            }
+        }
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        LibraryConfig config = LibraryConfig.load();
+        LibraryService service = LibraryService.open(config, userID, userPassword);
+        KioskServer server = new KioskServer(service, new InetSocketAddress(config.get("kiosk.host", "0.0.0.0"),
+                port != null ? port : config.getInt("kiosk.port", 9090)));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            service.close();
+        }, "library-kiosk-shutdown"));
+        server.start();
+    }
+}
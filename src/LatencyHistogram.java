@@ -0,0 +1,149 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds with a relative error below 1/32 (3.2%)
+ * Values are counted in log-linear buckets, as in HdrHistogram: every power of two is
+ * split in 32 equal buckets (values below 64 are exact), so 1888 counters cover
+ * everything up to Long.MAX_VALUE
+ * Recording is lock and allocation free and may be done by any number of threads at
+ * once, reading while recording gives a slightly torn but usable picture
+ */
+class LatencyHistogram {
+    static final int SUB_BUCKETS = 32; // Per power of two
+    static final int LINEAR = 2 * SUB_BUCKETS; // Values below are counted exactly
+    static final int BUCKETS = LINEAR + (62 - 6 + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Count a value
+     *
+     * @param nanos the latency, negative values are counted as 0
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            // Raced with another maximum
+        }
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // 6 and above
+        int shift = exponent - 5;
+        return LINEAR + (exponent - 6) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * The highest value counted in a bucket
+     */
+    static long highestValue(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int exponent = (index - LINEAR) / SUB_BUCKETS + 6;
+        int sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = exponent - 5;
+        return ((long) sub << shift) + (1L << shift) - 1;
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * The value below which a fraction of the values are
+     *
+     * @param quantile from 0 to 1 (0.99 for p99)
+     * @return the highest value of the bucket the quantile falls in (at most the maximum), 0 if empty
+     */
+    long percentile(double quantile) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Add the counts of another histogram to this one
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        long value = other.max.get();
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            // Raced with another maximum
+        }
+    }
+
+    /**
+     * A copy of the counts so far
+     */
+    LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * Forget every value (values recorded meanwhile may be partly kept)
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * The count, the mean, p50, p95, p99, p99.9 and the maximum, in milliseconds
+     */
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.3f p50=%.3f p95=%.3f p99=%.3f p999=%.3f max=%.3f (ms)", getCount(),
+                getMean() / 1e6, percentile(0.50) / 1e6, percentile(0.95) / 1e6, percentile(0.99) / 1e6,
+                percentile(0.999) / 1e6, getMax() / 1e6);
+    }
+}
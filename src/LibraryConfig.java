@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Configuration of the JDBCLibrary
+ * Values are looked up in the following order (later ones win):
+ * 1. built in defaults
+ * 2. jdbclibrary.properties on the classpath
+ * 3. jdbclibrary.properties in the working directory (or -Djdbclibrary.config=path)
+ * 4. system properties prefixed with "jdbclibrary." (e.g. -Djdbclibrary.pool.maxSize=20)
+ */
+class LibraryConfig {
+    static final String FILE_NAME = "jdbclibrary.properties";
+    static final String PREFIX = "jdbclibrary.";
+    static final Logger logger = LoggerFactory.getLogger(LibraryConfig.class);
+
+    private final Properties props;
+
+    LibraryConfig(Properties props) {
+        this.props = props;
+    }
+
+    /**
+     * Load the configuration from all the sources
+     *
+     * @return the merged configuration
+     */
+    static LibraryConfig load() {
+        Properties props = defaults();
+
+        // Classpath resource
+        try (InputStream in = LibraryConfig.class.getClassLoader().getResourceAsStream(FILE_NAME)) {
+            if (in != null) {
+                props.load(in);
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to read {} from classpath", FILE_NAME);
+        }
+
+        // File in the working directory
+        Path path = Paths.get(System.getProperty(PREFIX + "config", FILE_NAME));
+        if (Files.isRegularFile(path)) {
+            try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                props.load(in);
+                logger.info("Configuration loaded from {}", path.toAbsolutePath());
+            } catch (IOException e) {
+                logger.warn("Unable to read configuration file: \"{}\"", path);
+            }
+        }
+
+        // System properties override everything
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PREFIX)) {
+                props.setProperty(name.substring(PREFIX.length()), System.getProperty(name));
+            }
+        }
+        return new LibraryConfig(props);
+    }
+
+    /**
+     * The values used when nothing is configured
+     *
+     * @return the default properties
+     */
+    static Properties defaults() {
+        Properties props = new Properties();
+        props.setProperty("jdbc.url", "jdbc:mysql://localhost:3306/JDBCLibrary?characterEncoding=utf8&useSSL=true");
+        props.setProperty("pool.minSize", "1");
+        props.setProperty("pool.maxSize", "10");
+        props.setProperty("pool.maxWaitMillis", "30000");
+        props.setProperty("pool.validationTimeoutSeconds", "2");
+        props.setProperty("pool.validationIntervalMillis", "500");
+        props.setProperty("pool.idleTimeoutMillis", "600000");
+        props.setProperty("pool.maxLifetimeMillis", "1800000");
+        props.setProperty("pool.evictionIntervalMillis", "30000");
+        props.setProperty("pool.statementCacheSize", "64");
+        return props;
+    }
+
+    /**
+     * The connection string, with the time zone of this machine if none is given
+     *
+     * @return the jdbc url
+     */
+    String jdbcUrl() {
+        String url = get("jdbc.url", null);
+        if (!url.contains("serverTimezone=")) {
+            url += (url.contains("?") ? "&" : "?") + "serverTimezone=" + ZoneId.systemDefault();
+        }
+        return url;
+    }
+
+    String get(String key, String def) {
+        String value = props.getProperty(key);
+        return value == null ? def : value.trim();
+    }
+
+    int getInt(String key, int def) {
+        return (int) getLong(key, def);
+    }
+
+    long getLong(String key, long def) {
+        String value = get(key, null);
+        if (value == null) {
+            return def;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Unable to interpret \"{}\" as a number for {}, using {}", value, key, def);
+            return def;
+        }
+    }
+
+    boolean getBoolean(String key, boolean def) {
+        String value = get(key, null);
+        return value == null ? def : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,90 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the library, in the JDBCLibrary category
+ * Operation: a call of LibraryService (see OperationContext), with the card and book
+ * numbers, the outcome and the rows; the other events happen within it
+ * Transaction: a commit or a rollback, Batch: a batch of books executed,
+ * Render: a table printed by the console
+ * Disabled events cost next to nothing, jdbclibrary.jfc enables them with thresholds
+ * fit for production, next to the JDK events of the default settings:
+ * java -XX:StartFlightRecording:settings=default,settings=jdbclibrary.jfc,filename=library.jfr ...
+ * jfr print --categories JDBCLibrary library.jfr
+ */
+class LibraryEvents {
+    private LibraryEvents() {
+    }
+
+    @Name("jdbclibrary.Operation")
+    @Label("Library Operation")
+    @Category("JDBCLibrary")
+    @Description("A call of the library service")
+    @StackTrace(false)
+    static class Operation extends jdk.jfr.Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Card Number")
+        String cardNumber;
+
+        @Label("Book Number")
+        String bookNumber;
+
+        @Label("Outcome")
+        @Description("OK, a refusal of the circulation (NO_STOCK...) or ERROR if it threw")
+        String outcome;
+
+        @Label("Rows")
+        @Description("Rows returned or written")
+        long rows;
+    }
+
+    @Name("jdbclibrary.Transaction")
+    @Label("Transaction End")
+    @Category("JDBCLibrary")
+    @Description("A commit or a rollback")
+    @StackTrace(false)
+    static class Transaction extends jdk.jfr.Event {
+        @Label("Action")
+        String action;
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("jdbclibrary.Batch")
+    @Label("Book Batch")
+    @Category("JDBCLibrary")
+    @Description("A batch of books executed by BookBatchWriter, before its commit")
+    @StackTrace(false)
+    static class Batch extends jdk.jfr.Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Size")
+        int size;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("jdbclibrary.Render")
+    @Label("Table Rendering")
+    @Category("JDBCLibrary")
+    @Description("A table printed by TableRenderer")
+    @StackTrace(false)
+    static class Render extends jdk.jfr.Event {
+        @Label("Columns")
+        int columns;
+
+        @Label("Rows")
+        long rows;
+    }
+}
@@ -0,0 +1,449 @@
+import java.io.Console;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The library over HTTP/JSON, on the server of the JDK (com.sun.net.httpserver)
+ * Every request runs on a thread of its own: a virtual thread when the JVM has them
+ * (Java 21+), a thread of a fixed pool of http.threads otherwise. Either way at most
+ * http.maxConcurrency requests (by default as many as the pool has connections) are
+ * served at once, the others wait up to http.acquireTimeoutMillis and are then
+ * answered 503, so a burst queues here instead of piling up on the connection pool
+ * <p>
+ * GET    /books?after=bno&amp;limit=n         a page of books by book number
+ * GET    /books?title=|category=|press=|author=  the books with that exact value
+ * GET    /books?q=keywords&amp;limit=n         keyword search
+ * GET    /books?yearFrom=&amp;yearTo=          GET /books?priceFrom=&amp;priceTo=
+ * GET    /books/{bno}                     PUT /books/{bno} (a book, added or updated)
+ * GET    /books/{bno}/due                 the nearest return date
+ * POST   /borrow {"cno","bno","days"}     POST /return {"cno","bno"}
+ * GET    /cards/{cno}   PUT /cards/{cno} {"name","department","type"}   DELETE /cards/{cno}
+ * GET    /cards/{cno}/loans
+ * GET    /stats                           the statistics of the service as text
+ * Every listing is a page of at most limit books (browse.pageSize by default), all but
+ * the keyword search continue after the book number given as after
+ * <p>
+ * java LibraryHttpServer [-u user] [-p] [--port n]
+ */
+class LibraryHttpServer implements AutoCloseable {
+    static final Logger logger = LoggerFactory.getLogger(LibraryHttpServer.class);
+    static final String JSON = "application/json; charset=utf-8";
+
+    /**
+     * The answer to a request
+     */
+    private static class Response {
+        final int status;
+        final String body;
+        final String type;
+
+        Response(int status, String body, String type) {
+            this.status = status;
+            this.body = body;
+            this.type = type;
+        }
+
+        Response(int status, String body) {
+            this(status, body, JSON);
+        }
+    }
+
+    /**
+     * A handler of the requests under one path
+     */
+    private interface Route {
+        Response handle(HttpExchange exchange, String[] path) throws SQLException, IOException;
+    }
+
+    private final LibraryService service;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final long acquireTimeoutMillis;
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    /**
+     * Bind the server, it answers once started
+     *
+     * @param service the service the requests are served by (left open on close)
+     * @param address where to listen
+     * @throws IOException if the address cannot be bound
+     */
+    LibraryHttpServer(LibraryService service, InetSocketAddress address) throws IOException {
+        LibraryConfig config = service.getConfig();
+        this.maxConcurrency = Math.max(1, config.getInt("http.maxConcurrency", config.getInt("pool.maxSize", 10)));
+        this.service = service;
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.acquireTimeoutMillis = config.getLong("http.acquireTimeoutMillis", 1000);
+        this.executor = executor(config.getInt("http.threads", maxConcurrency * 2));
+        this.server = HttpServer.create(address, config.getInt("http.backlog", 128));
+        server.setExecutor(executor);
+        server.createContext("/books", exchange -> serve(exchange, this::books));
+        server.createContext("/cards", exchange -> serve(exchange, this::cards));
+        server.createContext("/borrow", exchange -> serve(exchange, this::borrow));
+        server.createContext("/return", exchange -> serve(exchange, this::giveBack));
+        server.createContext("/stats", exchange -> serve(exchange, this::stats));
+        logger.info("Serving at most {} request(s) at once", maxConcurrency);
+    }
+
+    /**
+     * A virtual thread per task if the JVM has them, looked up by reflection so that
+     * the library still runs on Java 17
+     *
+     * @param threads the size of the fixed pool used otherwise
+     * @return the executor
+     */
+    static ExecutorService executor(int threads) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService) method.invoke(null);
+            logger.info("Requests run on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not there before Java 21 (a preview of Java 19 and 20 throws unless enabled)
+            logger.info("Virtual threads are not available, requests run on {} platform thread(s)", threads);
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+                Thread t = new Thread(r, "library-http-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    void start() {
+        server.start();
+        logger.info("Listening on {}", server.getAddress());
+    }
+
+    InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stop listening, let the requests in progress finish for a second
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        logger.info("Stopped, {} request(s) rejected for lack of capacity", rejected.get());
+    }
+
+    /**
+     * Run a route within the concurrency limit and write its response
+     */
+    private void serve(HttpExchange exchange, Route route) {
+        Response response;
+        boolean acquired = false;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (!acquired) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                response = error(503, "Too many requests in progress");
+            } else {
+                String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+                response = route.handle(exchange, path);
+            }
+        } catch (IllegalArgumentException e) { // Bad input, including invalid JSON
+            response = error(400, e.getMessage());
+        } catch (SQLException e) {
+            String state = e.getSQLState();
+            if (state != null && state.startsWith("23")) { // Integrity constraint violation
+                response = error(409, e.getMessage());
+            } else {
+                logger.warn("Unable to serve {} {}: {}", exchange.getRequestMethod(), exchange.getRequestURI(),
+                        e.getMessage());
+                response = error(500, "Database error");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response = error(503, "Shutting down");
+        } catch (Exception e) {
+            logger.warn("Unable to serve {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            response = error(500, "Internal error");
+        } finally {
+            if (acquired) {
+                permits.release();
+            }
+        }
+        try {
+            byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", response.type);
+            exchange.sendResponseHeaders(response.status, bytes.length == 0 ? -1 : bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to answer {}: {}", exchange.getRemoteAddress(), e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Routes
+
+    private Response books(HttpExchange exchange, String[] path) throws SQLException, IOException {
+        String method = exchange.getRequestMethod();
+        if (path.length == 1) {
+            if (!"GET".equals(method)) {
+                return notAllowed();
+            }
+            return new Response(200, Json.books(findBooks(query(exchange))));
+        }
+        String bno = path[1];
+        if (path.length == 3 && "due".equals(path[2])) {
+            if (!"GET".equals(method)) {
+                return notAllowed();
+            }
+            LocalDate due = service.nearestReturnDate(bno);
+            return new Response(200, Json.object("bno", bno, "nearestReturnDate", due == null ? null
+                    : due.toString()));
+        }
+        if (path.length != 2) {
+            return notFound();
+        }
+        switch (method) {
+            case "GET" -> {
+                Book book = service.getBook(bno);
+                return book == null ? notFound() : new Response(200, Json.book(book));
+            }
+            case "PUT" -> {
+                Map<String, Object> body = body(exchange);
+                body.putIfAbsent("bno", bno);
+                Book book = Json.toBook(body);
+                if (!bno.equals(book.bno)) {
+                    throw new IllegalArgumentException("The book number of the body is not the one of the path");
+                }
+                int result = service.putBook(book); // 1 inserted, 2 updated, 0 unchanged
+                return new Response(result == 1 ? 201 : 200, Json.book(book));
+            }
+            default -> {
+                return notAllowed();
+            }
+        }
+    }
+
+    /**
+     * The books of a query string, see the class comment
+     */
+    private List<Book> findBooks(Map<String, String> query) throws SQLException {
+        int limit = integer(query, "limit", service.getConfig().getInt("browse.pageSize", 20));
+        if (limit <= 0) {
+            throw new IllegalArgumentException("\"limit\" must be positive");
+        }
+        for (LibraryService.By by : LibraryService.By.values()) {
+            String value = query.get(by.name().toLowerCase());
+            if (value != null) {
+                return service.findBooks(by, value, query.get("after"), limit);
+            }
+        }
+        if (query.containsKey("q")) {
+            return service.searchBooks(query.get("q"), limit);
+        }
+        if (query.containsKey("yearFrom") || query.containsKey("yearTo")) {
+            return service.booksByYear(integer(query, "yearFrom", Integer.MIN_VALUE),
+                    integer(query, "yearTo", Integer.MAX_VALUE), query.get("after"), limit);
+        }
+        if (query.containsKey("priceFrom") || query.containsKey("priceTo")) {
+            return service.booksByPrice(decimal(query, "priceFrom", BookFileReader.MAX_PRICE.negate()),
+                    decimal(query, "priceTo", BookFileReader.MAX_PRICE), query.get("after"), limit);
+        }
+        return service.booksAfter(query.getOrDefault("after", ""), limit);
+    }
+
+    private Response cards(HttpExchange exchange, String[] path) throws SQLException, IOException {
+        if (path.length < 2) {
+            return notFound();
+        }
+        String cno = path[1];
+        String method = exchange.getRequestMethod();
+        if (path.length == 3 && "loans".equals(path[2])) {
+            return "GET".equals(method) ? new Response(200, Json.loans(service.loans(cno))) : notAllowed();
+        }
+        if (path.length != 2) {
+            return notFound();
+        }
+        switch (method) {
+            case "GET" -> {
+                Card card = service.getCard(cno);
+                return card == null ? notFound() : new Response(200, Json.card(card));
+            }
+            case "PUT" -> {
+                Map<String, Object> body = body(exchange);
+                Card card = new Card(cno, Json.string(body, "name"), Json.string(body, "department"),
+                        Json.string(body, "type"));
+                int result = service.putCard(card); // 1 inserted, 2 updated, 0 unchanged
+                return new Response(result == 1 ? 201 : 200, Json.card(card));
+            }
+            case "DELETE" -> {
+                return service.deleteCard(cno) ? new Response(204, "") : notFound();
+            }
+            default -> {
+                return notAllowed();
+            }
+        }
+    }
+
+    private Response borrow(HttpExchange exchange, String[] path) throws SQLException, IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return notAllowed();
+        }
+        Map<String, Object> body = body(exchange);
+        String cno = Json.string(body, "cno");
+        String bno = Json.string(body, "bno");
+        int days = body.containsKey("days") ? Json.integer(body, "days") : 14;
+        if (days <= 0) {
+            throw new IllegalArgumentException("\"days\" must be positive");
+        }
+        LocalDate borrowDate = LocalDate.now(ZoneId.systemDefault());
+        LocalDate returnDate = borrowDate.plusDays(days);
+        Circulation.Outcome outcome = service.borrow(cno, bno, borrowDate, returnDate);
+        return switch (outcome) {
+            case OK -> new Response(200, Json.object("outcome", outcome.name(), "borrowDate", borrowDate.toString(),
+                    "returnDate", returnDate.toString()));
+            case NO_STOCK -> {
+                LocalDate due = service.nearestReturnDate(bno);
+                yield new Response(409, Json.object("outcome", outcome.name(), "nearestReturnDate",
+                        due == null ? null : due.toString()));
+            }
+            default -> outcome(outcome);
+        };
+    }
+
+    private Response giveBack(HttpExchange exchange, String[] path) throws SQLException, IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return notAllowed();
+        }
+        Map<String, Object> body = body(exchange);
+        return outcome(service.giveBack(Json.string(body, "cno"), Json.string(body, "bno")));
+    }
+
+    private Response stats(HttpExchange exchange, String[] path) {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            return notAllowed();
+        }
+        return new Response(200, service.statistics() + String.format(
+                "%nhttp: %d in progress, %d waiting, %d rejected%n", maxConcurrency - permits.availablePermits(),
+                permits.getQueueLength(), rejected.get()), "text/plain; charset=utf-8");
+    }
+
+    /**
+     * The status of a circulation outcome: the missing card or book is 404, a refusal is 409
+     */
+    private static Response outcome(Circulation.Outcome outcome) {
+        int status = switch (outcome) {
+            case OK -> 200;
+            case NO_CARD, NO_BOOK -> 404;
+            default -> 409;
+        };
+        return new Response(status, Json.object("outcome", outcome.name()));
+    }
+
+    // Helpers
+
+    private static Map<String, Object> body(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return Json.parseObject(new String(in.readNBytes(1 << 20), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            query.put(key, value);
+        }
+        return query;
+    }
+
+    private static int integer(Map<String, String> query, String key, int def) {
+        String value = query.get(key);
+        try {
+            return value == null ? def : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("\"" + key + "\" must be an integer");
+        }
+    }
+
+    private static BigDecimal decimal(Map<String, String> query, String key, BigDecimal def) {
+        String value = query.get(key);
+        try {
+            return value == null ? def : new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("\"" + key + "\" must be a number");
+        }
+    }
+
+    private static Response error(int status, String message) {
+        return new Response(status, Json.object("error", message));
+    }
+
+    private static Response notFound() {
+        return error(404, "Not found");
+    }
+
+    private static Response notAllowed() {
+        return error(405, "Method not allowed");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String userID = System.getenv().get("USERNAME");
+        userID = userID == null ? "jdbc" : userID;
+        String userPassword = null;
+        Integer port = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("-u".equals(args[i]) && i != args.length - 1) {
+                userID = args[++i];
+            } else if ("--port".equals(args[i]) && i != args.length - 1) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("-p".equals(args[i])) {
+                Console console = System.console();
+                System.out.print("Please input your password: ");
+                userPassword = console == null ? new java.util.Scanner(System.in).next()
+                        : new String(console.readPassword());
+            }
+        }
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        LibraryConfig config = LibraryConfig.load();
+        LibraryService service = LibraryService.open(config, userID, userPassword);
+        LibraryHttpServer server = new LibraryHttpServer(service, new InetSocketAddress(
+                config.get("http.host", "0.0.0.0"), port != null ? port : config.getInt("http.port", 8080)));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            service.close();
+        }, "library-http-shutdown"));
+        server.start();
+    }
+}
@@ -0,0 +1,707 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The operations of the library, without any prompt or printing
+ * Every call borrows its own connection from the pool and gives it back before
+ * returning, the in-memory structures (book cache, search, range and return date
+ * indexes) are safe for concurrent use, so one service can be called from any
+ * number of threads at once
+ * Failures are thrown as SQLException, an expected refusal (no stock, no such card,
+ * ...) is a result
+ */
+class LibraryService implements AutoCloseable {
+    static final Logger logger = LoggerFactory.getLogger(LibraryService.class);
+
+    /**
+     * The columns books can be looked up by
+     */
+    enum By {
+        TITLE("select * from book where title=? and bno > ? order by bno limit ?"),
+        CATEGORY("select * from book where category=? and bno > ? order by bno limit ?"),
+        PRESS("select * from book where press=? and bno > ? order by bno limit ?"),
+        AUTHOR("select * from book where author=? and bno > ? order by bno limit ?");
+
+        final String sql; // Whole statements, so that ExplainCheck finds them
+
+        By(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * The counts of a batch of books written
+     */
+    static class Written {
+        long inserted;
+        long updated;
+        long unchanged; // Same values, or existing books kept because updates are disabled
+
+        @Override
+        public String toString() {
+            return String.format("%d inserted, %d updated, %d unchanged", inserted, updated, unchanged);
+        }
+    }
+
+    /**
+     * The outcome of a file import
+     */
+    static class ImportResult {
+        long resumedRows; // Committed by a previous run of the same import
+        long resumedOffset;
+        long lines;
+        long rows; // Books read by this run
+        long rejected;
+        long committed; // Books committed by all the runs so far
+        String written; // The counts of the writer
+        double seconds;
+        Exception failure; // Why the import stopped, null if the whole file is imported
+
+        @Override
+        public String toString() {
+            return String.format("read %d book(s) from %d line(s), %d rejected, %s (%.0f book(s)/s)", rows, lines,
+                    rejected, written, rows / Math.max(seconds, 1e-3));
+        }
+    }
+
+    private final LibraryConfig config;
+    private final ConnectionPool pool;
+    private final BookCache bookCache;
+    private final BookSearchIndex searchIndex = new BookSearchIndex();
+    private final BookRangeIndex rangeIndex = new BookRangeIndex();
+    private final DueDateIndex dueDates = new DueDateIndex();
+    private final KeyLookup keyLookup;
+    private final TransactionRunner transactions;
+
+    /**
+     * Migrate the schema and build the in-memory structures
+     *
+     * @param config the configuration
+     * @param pool   the pool the calls borrow their connections from, closed with the service
+     * @throws SQLException if the schema cannot be migrated
+     * @throws IOException  if a migration script cannot be read
+     */
+    LibraryService(LibraryConfig config, ConnectionPool pool) throws SQLException, IOException {
+        this.config = config;
+        this.pool = pool;
+        if (config.getBoolean("schema.migrate", true)) { // Before anything relies on the indexes
+            try (Connection conn = pool.getConnection()) {
+                new SchemaMigrator(conn).migrate();
+            }
+        }
+        keyLookup = new KeyLookup(config);
+        transactions = new TransactionRunner(config);
+        bookCache = new BookCache(config.getInt("cache.book.capacity", 10000));
+        bookCache.warmUp(pool, config.getInt("cache.book.warmup", 1000),
+                config.getInt("cache.book.warmupThreads", 4));
+        searchIndex.build(pool, config.getInt("search.buildThreads", 4));
+        rangeIndex.build(pool);
+        if (config.getBoolean("dueDates.inMemory", false)) {
+            dueDates.build(pool);
+        }
+    }
+
+    /**
+     * Connect and start a service
+     *
+     * @param config       the configuration
+     * @param userID       the database user
+     * @param userPassword the password of the user
+     * @return the service, to be closed
+     * @throws SQLException if the database cannot be reached or migrated
+     * @throws IOException  if a migration script cannot be read
+     */
+    static LibraryService open(LibraryConfig config, String userID, String userPassword)
+            throws SQLException, IOException {
+        ConnectionPool pool = new ConnectionPool(config, userID, userPassword);
+        try {
+            return new LibraryService(config, pool);
+        } catch (SQLException | IOException | RuntimeException e) {
+            pool.close();
+            throw e;
+        }
+    }
+
+    LibraryConfig getConfig() {
+        return config;
+    }
+
+    // Queries
+
+    /**
+     * Whether there is any book at all (one cheap probe)
+     */
+    boolean hasBooks() throws SQLException {
+        try (OperationContext op = OperationContext.enter("hasBooks"); Connection conn = pool.getConnection();
+             PreparedStatement pStmt = conn.prepareStatement("select exists(select 1 from book)");
+             ResultSet rSet = pStmt.executeQuery()) {
+            boolean exists = rSet.next() && rSet.getBoolean(1);
+            op.rows(1);
+            return exists;
+        }
+    }
+
+    /**
+     * A page of books ordered by book number, read with a keyset cursor
+     *
+     * @param bno   the book number the page starts after ("" for the first page)
+     * @param limit the maximum number of books on the page
+     * @return the books of the page in order
+     */
+    List<Book> booksAfter(String bno, int limit) throws SQLException {
+        return books("booksAfter", "select * from book where bno > ? order by bno limit ?", bno, limit);
+    }
+
+    /**
+     * Like booksAfter, including the book number itself
+     */
+    List<Book> booksFrom(String bno, int limit) throws SQLException {
+        return books("booksFrom", "select * from book where bno >= ? order by bno limit ?", bno, limit);
+    }
+
+    /**
+     * The page before a book number, in order (read backwards then put back in order)
+     */
+    List<Book> booksBefore(String bno, int limit) throws SQLException {
+        return books("booksBefore", "select * from (select * from book where bno < ? order by bno desc limit ?) "
+                + "prev order by bno", bno, limit);
+    }
+
+    private List<Book> books(String operation, String sql, String bno, int limit) throws SQLException {
+        try (OperationContext op = OperationContext.enter(operation); Connection conn = pool.getConnection();
+             PreparedStatement pStmt = conn.prepareStatement(sql)) {
+            pStmt.setString(1, bno);
+            pStmt.setInt(2, limit);
+            return op.rows(read(pStmt));
+        }
+    }
+
+    /**
+     * A page of the books whose column is exactly a value, by book number (the index of
+     * the column holds the book number, so the page is read in order from it)
+     *
+     * @param by    the column
+     * @param value the value
+     * @param after the book number the page starts after ("" for the first page)
+     * @param limit the maximum number of books on the page
+     * @return the books of the page in order
+     */
+    List<Book> findBooks(By by, String value, String after, int limit) throws SQLException {
+        try (OperationContext op = OperationContext.enter("findBooks"); Connection conn = pool.getConnection();
+             PreparedStatement pStmt = conn.prepareStatement(by.sql)) {
+            pStmt.setString(1, value);
+            pStmt.setString(2, after == null ? "" : after);
+            pStmt.setInt(3, limit);
+            return op.rows(read(pStmt));
+        }
+    }
+
+    private static List<Book> read(PreparedStatement pStmt) throws SQLException {
+        List<Book> books = new ArrayList<>();
+        try (ResultSet rSet = pStmt.executeQuery()) {
+            while (rSet.next()) {
+                books.add(Book.from(rSet));
+            }
+        }
+        return books;
+    }
+
+    /**
+     * A book by its book number, served by the book cache
+     *
+     * @param bno the book number
+     * @return the book, null if there is no such book
+     */
+    Book getBook(String bno) throws SQLException {
+        try (OperationContext op = OperationContext.enter("getBook")) {
+            op.book(bno);
+            Book book = bookCache.get(pool, bno); // A hit does not borrow a connection
+            op.rows(book == null ? 0 : 1);
+            return book;
+        }
+    }
+
+    /**
+     * The books of several book numbers, served by the book cache
+     *
+     * @param bnos the book numbers
+     * @return the books found, in the order of bnos
+     */
+    List<Book> getBooks(List<String> bnos) throws SQLException {
+        return getBooks("getBooks", bnos);
+    }
+
+    private List<Book> getBooks(String operation, List<String> bnos) throws SQLException {
+        if (bnos.isEmpty()) {
+            return new ArrayList<>();
+        }
+        try (OperationContext op = OperationContext.enter(operation)) {
+            return op.rows(bookCache.getAll(pool, bnos));
+        }
+    }
+
+    /**
+     * A page of the books published from one year to another (both included), by year
+     * then book number
+     *
+     * @param after the book number of the last book of the previous page, null for the first page
+     * @param limit the maximum number of books returned
+     * @return the books of the page in order
+     */
+    List<Book> booksByYear(int from, int to, String after, int limit) throws SQLException {
+        try (OperationContext op = OperationContext.enter("booksByYear")) {
+            Book cursor = cursor(after);
+            if (rangeIndex.isBuilt()) { // A page of book numbers, the rows come from the cache
+                return op.rows(bookCache.getAll(pool, rangeIndex.scanYears(from, to, cursor, limit)));
+            }
+            try (Connection conn = pool.getConnection()) {
+                return op.rows(range(conn, "year", from, to, cursor == null ? null : cursor.year, cursor, limit));
+            }
+        }
+    }
+
+    /**
+     * A page of the books priced from one price to another (both included), by price then
+     * book number
+     *
+     * @param after the book number of the last book of the previous page, null for the first page
+     * @param limit the maximum number of books returned
+     * @return the books of the page in order
+     */
+    List<Book> booksByPrice(BigDecimal from, BigDecimal to, String after, int limit) throws SQLException {
+        try (OperationContext op = OperationContext.enter("booksByPrice")) {
+            Book cursor = cursor(after);
+            if (cursor != null && cursor.price == null) {
+                throw new IllegalArgumentException("The book " + after + " has no price to continue after");
+            }
+            if (rangeIndex.isBuilt()) {
+                return op.rows(bookCache.getAll(pool, rangeIndex.scanPrices(from, to, cursor, limit)));
+            }
+            try (Connection conn = pool.getConnection()) {
+                return op.rows(range(conn, "price", from, to, cursor == null ? null : cursor.price, cursor, limit));
+            }
+        }
+    }
+
+    /**
+     * The book a page continues after
+     *
+     * @return the book, null for the first page
+     * @throws IllegalArgumentException if there is no such book
+     */
+    private Book cursor(String after) throws SQLException {
+        if (after == null || after.isEmpty()) {
+            return null;
+        }
+        Book book = bookCache.get(pool, after);
+        if (book == null) {
+            throw new IllegalArgumentException("There is no book " + after + " to continue after");
+        }
+        return book;
+    }
+
+    /**
+     * A page of a range of the books read from the database, used until the range index is built
+     *
+     * @param column   the column of the range (trusted, not user input)
+     * @param afterKey the value of column of the book the page continues after
+     * @param after    that book, null for the first page
+     */
+    private static List<Book> range(Connection conn, String column, Object from, Object to, Object afterKey,
+                                    Book after, int limit) throws SQLException {
+        try (PreparedStatement pStmt = conn.prepareStatement(rangeSql(column, after != null))) {
+            int i = 1;
+            pStmt.setObject(i++, from);
+            pStmt.setObject(i++, to);
+            if (after != null) {
+                pStmt.setObject(i++, afterKey);
+                pStmt.setObject(i++, afterKey);
+                pStmt.setString(i++, after.bno);
+            }
+            pStmt.setInt(i, limit);
+            return read(pStmt);
+        }
+    }
+
+    /**
+     * The statement of a page of a range (also EXPLAINed by ExplainCheck)
+     *
+     * @param column the column of the range, year or price
+     * @param after  whether the page continues after a book
+     */
+    static String rangeSql(String column, boolean after) {
+        return "select * from book where " + column + " between ? and ?"
+                + (after ? " and (" + column + " > ? or " + column + " = ? and bno > ?)" : "")
+                + " order by " + column + ", bno limit ?";
+    }
+
+    /**
+     * The books matching every keyword (the last one may be incomplete, small typos are tolerated)
+     *
+     * @param query the keywords
+     * @param limit the maximum number of books returned
+     * @return the books found, by book number
+     */
+    List<Book> searchBooks(String query, int limit) throws SQLException {
+        // The index only knows the searched fields, the rows (and the stock) come from the cache
+        return getBooks("searchBooks", searchIndex.search(query, limit));
+    }
+
+    /**
+     * Complete the last word of a query, the most frequent words first
+     */
+    List<String> completeWord(String prefix, int limit) {
+        return searchIndex.complete(prefix, limit);
+    }
+
+    /**
+     * The book numbers among the ones given that exist
+     */
+    Set<String> existingBooks(Collection<String> bnos) throws SQLException {
+        try (OperationContext op = OperationContext.enter("existingBooks"); Connection conn = pool.getConnection()) {
+            return op.rows(keyLookup.findExisting(conn, "book", "bno", bnos));
+        }
+    }
+
+    /**
+     * The nearest return date of a book
+     *
+     * @param bno the book number
+     * @return the date, null if no copy is out
+     */
+    LocalDate nearestReturnDate(String bno) throws SQLException {
+        if (dueDates.isBuilt()) { // From memory if the return dates are kept there
+            return dueDates.nearest(bno);
+        }
+        try (OperationContext op = OperationContext.enter("nearestReturnDate");
+             Connection conn = pool.getConnection()) {
+            op.book(bno);
+            LocalDate date = DueDateIndex.query(conn, bno);
+            op.rows(date == null ? 0 : 1);
+            return date;
+        }
+    }
+
+    /**
+     * The books borrowed with a card
+     *
+     * @param cno the card number
+     * @return the loans, empty if there are none (or there is no such card)
+     */
+    List<Loan> loans(String cno) throws SQLException {
+        try (OperationContext op = OperationContext.enter("loans"); Connection conn = pool.getConnection();
+             PreparedStatement pStmt = conn.prepareStatement("select * from borrow where cno=?")) {
+            op.card(cno);
+            pStmt.setString(1, cno);
+            List<Loan> loans = new ArrayList<>();
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                while (rSet.next()) {
+                    loans.add(Loan.from(rSet));
+                }
+            }
+            return op.rows(loans);
+        }
+    }
+
+    // Circulation
+
+    /**
+     * Borrow a book in one atomic transaction (retried on deadlocks and lock wait timeouts)
+     *
+     * @param cno        the card number of the reader
+     * @param bno        the book number
+     * @param borrowDate the date of the borrow
+     * @param returnDate the date the book is due
+     * @return OK, NO_CARD, NO_BOOK, NO_STOCK or ALREADY_BORROWED
+     */
+    Circulation.Outcome borrow(String cno, String bno, LocalDate borrowDate, LocalDate returnDate)
+            throws SQLException {
+        Circulation.Outcome outcome;
+        try (OperationContext op = OperationContext.enter("borrow"); Connection conn = pool.getConnection()) {
+            op.card(cno).book(bno);
+            outcome = transactions.run("borrow", conn, c -> Circulation.borrow(c, cno, bno, borrowDate, returnDate));
+            op.outcome(outcome);
+        }
+        if (outcome == Circulation.Outcome.OK || outcome == Circulation.Outcome.NO_STOCK) {
+            bookCache.invalidate(bno); // The stock changed (or the cached one was stale)
+        }
+        if (outcome == Circulation.Outcome.OK && dueDates.isBuilt()) { // Only kept with dueDates.inMemory
+            dueDates.borrowed(cno, bno, returnDate);
+        }
+        return outcome;
+    }
+
+    /**
+     * Return a book in one atomic transaction (retried on deadlocks and lock wait timeouts)
+     *
+     * @param cno the card number of the reader
+     * @param bno the book number
+     * @return OK or NOT_BORROWED
+     */
+    Circulation.Outcome giveBack(String cno, String bno) throws SQLException {
+        Circulation.Outcome outcome;
+        try (OperationContext op = OperationContext.enter("return"); Connection conn = pool.getConnection()) {
+            op.card(cno).book(bno);
+            outcome = transactions.run("return", conn, c -> Circulation.giveBack(c, cno, bno));
+            op.outcome(outcome);
+        }
+        if (outcome == Circulation.Outcome.OK) {
+            bookCache.invalidate(bno);
+            if (dueDates.isBuilt()) {
+                dueDates.returned(cno, bno);
+            }
+        }
+        return outcome;
+    }
+
+    // Stock
+
+    /**
+     * Add a book, or update it if the book number exists
+     *
+     * @param book the book
+     * @return 1 if inserted, 2 if updated, 0 if it existed with the same values
+     * (affected rows, the pool connects with useAffectedRows)
+     */
+    int putBook(Book book) throws SQLException {
+        int result;
+        try (OperationContext op = OperationContext.enter("putBook"); Connection conn = pool.getConnection();
+             PreparedStatement pStmt = conn.prepareStatement(BookBatchWriter.UPSERT)) {
+            op.book(book.bno);
+            book.setParameters(pStmt);
+            result = pStmt.executeUpdate();
+            op.rows(result);
+        }
+        bookWritten(book);
+        return result;
+    }
+
+    /**
+     * Add books in one transaction, existing books (by book number) are updated
+     *
+     * @param books the books
+     * @return the counts
+     */
+    Written putBooks(List<Book> books) throws SQLException {
+        BookBatchWriter writer = new BookBatchWriter(true, this::booksWritten);
+        if (!books.isEmpty()) {
+            try (OperationContext op = OperationContext.enter("putBooks"); Connection conn = pool.getConnection()) {
+                op.rows(writer.write(conn, books));
+            }
+        }
+        Written written = new Written();
+        written.inserted = writer.inserted.sum();
+        written.updated = writer.updated.sum();
+        written.unchanged = writer.unchanged.sum();
+        return written;
+    }
+
+    /**
+     * Import the books of a file (the format of book_data.txt)
+     * The file is streamed through BookFileReader and written in chunks of
+     * import.chunkSize books, each chunk is committed on its own
+     * With import.writers > 1 the chunks are written in parallel (see BulkLoadPipeline)
+     * Progress is checkpointed after every chunk, a failed import resumes where it stopped
+     *
+     * @param path   the file
+     * @param update whether existing books are updated
+     * @return the counts, with the failure if the import stopped
+     * @throws IOException if the file cannot be accessed
+     */
+    ImportResult importBooks(Path path, boolean update) throws IOException {
+        ImportCheckpoint checkpoint = ImportCheckpoint.open(path, config.getInt("import.chunkSize", 1000));
+        ImportResult result = new ImportResult();
+        if (checkpoint.isResumed()) {
+            result.resumedRows = checkpoint.getRows();
+            result.resumedOffset = checkpoint.getOffset();
+            logger.info("Resuming the import of \"{}\" from byte {}", path, checkpoint.getOffset());
+        }
+
+        // The chunk size must stay the one of the checkpoint to resume at the same boundaries
+        BookFileReader fileReader = new BookFileReader(path, checkpoint.getChunkSize());
+        BookBatchWriter writer = new BookBatchWriter(update, this::booksWritten);
+        int writers = Math.min(config.getInt("import.writers", 4), pool.getMaxSize());
+        long start = System.nanoTime();
+        try {
+            if (writers > 1) {
+                new BulkLoadPipeline(pool, writer, writers, config.getInt("import.queueCapacity", 8),
+                        config.getLong("import.reportIntervalMillis", 5000)).run(fileReader, checkpoint);
+            } else {
+                try (OperationContext op = OperationContext.enter("importBooks");
+                     Connection conn = pool.getConnection()) {
+                    long[] next = {checkpoint.getNextChunk()};
+                    fileReader.read(checkpoint.getOffset(), (chunk, endOffset) -> {
+                        long number = next[0]++;
+                        if (checkpoint.isCommitted(number)) { // Committed by the previous run
+                            checkpoint.committed(number, endOffset, 0);
+                            return;
+                        }
+                        writer.write(conn, chunk);
+                        checkpoint.committed(number, endOffset, chunk.size());
+                    });
+                    op.rows(fileReader.getRows());
+                }
+            }
+            checkpoint.finish();
+        } catch (Exception e) {
+            logger.warn("Import of \"{}\" stopped: {}", path, e.getMessage());
+            result.failure = e;
+        }
+        result.seconds = (System.nanoTime() - start) / 1e9;
+        result.lines = fileReader.getLines();
+        result.rows = fileReader.getRows();
+        result.rejected = fileReader.getRejected();
+        result.committed = checkpoint.getRows();
+        result.written = writer.toString();
+        return result;
+    }
+
+    /**
+     * Load a trusted file with LOAD DATA LOCAL INFILE, all or nothing (see BookFileLoader)
+     *
+     * @param path   the file in the format of book_data.txt
+     * @param update whether existing books are updated
+     * @return the counts of the load
+     * @throws SQLException if the load fails, nothing is changed then
+     */
+    BookFileLoader.Result loadBooks(Path path, boolean update) throws SQLException {
+        BookFileLoader.Result result;
+        try (OperationContext op = OperationContext.enter("loadBooks"); Connection conn = pool.getConnection()) {
+            result = new BookFileLoader(update).load(conn, path);
+            op.rows(result.inserted + result.updated);
+        }
+        // We don't know which books changed
+        bookCache.invalidateAll();
+        searchIndex.build(pool, config.getInt("search.buildThreads", 4));
+        rangeIndex.build(pool);
+        return result;
+    }
+
+    /**
+     * Keep the in-memory copies in line after a book was added or changed by us
+     *
+     * @param book the book as written
+     */
+    private void bookWritten(Book book) {
+        bookCache.invalidate(book.bno);
+        searchIndex.put(book);
+        rangeIndex.put(book);
+    }
+
+    private void booksWritten(List<Book> books) {
+        for (Book book : books) {
+            bookWritten(book);
+        }
+    }
+
+    // Cards
+
+    /**
+     * A card by its card number
+     *
+     * @param cno the card number
+     * @return the card, null if there is no such card
+     */
+    Card getCard(String cno) throws SQLException {
+        try (OperationContext op = OperationContext.enter("getCard"); Connection conn = pool.getConnection();
+             PreparedStatement pStmt = conn.prepareStatement("select * from card where cno=?")) {
+            op.card(cno);
+            pStmt.setString(1, cno);
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                Card card = rSet.next() ? Card.from(rSet) : null;
+                op.rows(card == null ? 0 : 1);
+                return card;
+            }
+        }
+    }
+
+    /**
+     * Add a card, or update it if the card number exists
+     * (an upsert: "replace into" would fail for a card with books borrowed)
+     *
+     * @param card the card
+     * @return 1 if inserted, 2 if updated, 0 if it existed with the same values
+     * (affected rows, the pool connects with useAffectedRows)
+     */
+    int putCard(Card card) throws SQLException {
+        try (OperationContext op = OperationContext.enter("putCard"); Connection conn = pool.getConnection();
+             PreparedStatement pStmt = conn.prepareStatement("insert into card values (?,?,?,?) on duplicate key "
+                     + "update name=values(name), department=values(department), type=values(type)")) {
+            op.card(card.cno);
+            card.setParameters(pStmt);
+            int result = pStmt.executeUpdate();
+            op.rows(result);
+            return result;
+        }
+    }
+
+    /**
+     * Delete a card
+     *
+     * @param cno the card number
+     * @return false if there is no such card
+     * @throws SQLException if it cannot be deleted (e.g. books are still borrowed with it)
+     */
+    boolean deleteCard(String cno) throws SQLException {
+        try (OperationContext op = OperationContext.enter("deleteCard"); Connection conn = pool.getConnection();
+             PreparedStatement pStmt = conn.prepareStatement("delete from card where cno=?")) {
+            op.card(cno);
+            pStmt.setString(1, cno);
+            int deleted = pStmt.executeUpdate();
+            op.rows(deleted);
+            return deleted > 0;
+        }
+    }
+
+    /**
+     * The "create table" statements of every table, used for debugging
+     */
+    List<String> createTables() throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (OperationContext op = OperationContext.enter("createTables"); Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            try (ResultSet rSet = stmt.executeQuery("show tables")) {
+                while (rSet.next()) {
+                    tables.add(rSet.getString(1));
+                }
+            }
+            List<String> creates = new ArrayList<>(tables.size());
+            for (String table : tables) {
+                try (ResultSet rSet = stmt.executeQuery("show create table `" + table + "`")) {
+                    if (rSet.next()) {
+                        creates.add(rSet.getString(2));
+                    }
+                }
+            }
+            return op.rows(creates);
+        }
+    }
+
+    /**
+     * The statistics of the pool, the book cache, the transactions and the statements
+     */
+    String statistics() {
+        String statistics = pool.statistics() + "\n" + bookCache.statistics() + "\n" + transactions.statistics();
+        return pool.getSqlStats() == null ? statistics : statistics + "\n" + pool.getSqlStats().snapshot();
+    }
+
+    @Override
+    public void close() {
+        logger.info("{}", statistics());
+        pool.close();
+    }
+}
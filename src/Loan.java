@@ -0,0 +1,53 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * A row of table borrow: a book borrowed with a card
+ */
+class Loan {
+    static final String[] COLUMNS = {"cno", "bno", "borrow_date", "return_date"};
+
+    final String cno;
+    final String bno;
+    final LocalDate borrowDate;
+    final LocalDate returnDate;
+
+    Loan(String cno, String bno, LocalDate borrowDate, LocalDate returnDate) {
+        this.cno = cno;
+        this.bno = bno;
+        this.borrowDate = borrowDate;
+        this.returnDate = returnDate;
+    }
+
+    /**
+     * Read the current row of a "select * from borrow" result
+     *
+     * @param rSet the result set, on a row
+     * @return the loan of the row
+     * @throws SQLException if the columns cannot be read
+     */
+    static Loan from(ResultSet rSet) throws SQLException {
+        Date borrowDate = rSet.getDate("borrow_date");
+        Date returnDate = rSet.getDate("return_date");
+        return new Loan(rSet.getString("cno"), rSet.getString("bno"),
+                borrowDate == null ? null : borrowDate.toLocalDate(),
+                returnDate == null ? null : returnDate.toLocalDate());
+    }
+
+    /**
+     * The values in column order, used for printing
+     *
+     * @return the row as strings
+     */
+    String[] toRow() {
+        return new String[]{cno, bno, borrowDate == null ? null : borrowDate.toString(),
+                returnDate == null ? null : returnDate.toString()};
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", toRow());
+    }
+}
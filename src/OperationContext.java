@@ -0,0 +1,120 @@
+import java.util.Collection;
+
+/**
+ * The library operation the current thread is running (borrow, getCard...), so that
+ * what happens below it, like the statements in the slow-query log, can be traced back
+ * Entered with try-with-resources, closing it restores the operation it was entered in
+ * try (OperationContext op = OperationContext.enter("borrow")) { ... }
+ * When the jdbclibrary.Operation event is enabled, the operation is recorded by Flight
+ * Recorder with what it was told (card, book, rows, outcome), an operation closed
+ * without rows or an outcome is recorded as ERROR (it threw)
+ */
+final class OperationContext implements AutoCloseable {
+    private static final ThreadLocal<OperationContext> current = new ThreadLocal<>();
+
+    final String name;
+    private final OperationContext outer;
+    private final LibraryEvents.Operation event; // null if not recorded
+
+    private OperationContext(String name, OperationContext outer) {
+        this.name = name;
+        this.outer = outer;
+        LibraryEvents.Operation event = new LibraryEvents.Operation();
+        if (event.isEnabled()) {
+            event.operation = name;
+            event.begin();
+            this.event = event;
+        } else {
+            this.event = null;
+        }
+    }
+
+    /**
+     * Make an operation the current one of this thread
+     *
+     * @param name the name of the operation
+     * @return the context, to be closed when the operation is done
+     */
+    static OperationContext enter(String name) {
+        OperationContext context = new OperationContext(name, current.get());
+        current.set(context);
+        return context;
+    }
+
+    /**
+     * The name of the operation this thread is running
+     *
+     * @return the name, null outside any operation
+     */
+    static String currentName() {
+        OperationContext context = current.get();
+        return context == null ? null : context.name;
+    }
+
+    /**
+     * The card the operation is about
+     */
+    OperationContext card(String cno) {
+        if (event != null) {
+            event.cardNumber = cno;
+        }
+        return this;
+    }
+
+    /**
+     * The book the operation is about
+     */
+    OperationContext book(String bno) {
+        if (event != null) {
+            event.bookNumber = bno;
+        }
+        return this;
+    }
+
+    /**
+     * How the operation ended, when it did not throw
+     */
+    void outcome(Object outcome) {
+        if (event != null) {
+            event.outcome = String.valueOf(outcome);
+        }
+    }
+
+    /**
+     * The rows the operation returned or wrote, it succeeded (OK unless told otherwise)
+     */
+    void rows(long rows) {
+        if (event != null) {
+            event.rows = rows;
+            if (event.outcome == null) {
+                event.outcome = "OK";
+            }
+        }
+    }
+
+    /**
+     * Like rows(long) with the size of a result, returned as is
+     */
+    <T extends Collection<?>> T rows(T result) {
+        rows(result.size());
+        return result;
+    }
+
+    @Override
+    public void close() {
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                if (event.outcome == null) {
+                    event.outcome = "ERROR";
+                }
+                event.commit();
+            }
+        }
+        if (outer == null) {
+            current.remove();
+        } else {
+            current.set(outer);
+        }
+    }
+}
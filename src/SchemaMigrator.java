@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Forward-only schema migrations
+ * Scripts are classpath resources migrations/V&lt;version&gt;__&lt;description&gt;.sql listed in
+ * SCRIPTS, applied in version order. Table schema_version records every applied
+ * version with the checksum of its script, a script is never run twice and an
+ * applied script that changed since is reported (never rerun: add a new version)
+ * MySQL commits DDL implicitly, so a version is recorded once all its statements
+ * succeeded. A version that failed midway is rerun from its first statement, so its
+ * statements must be idempotent: a "create index" whose index exists already is skipped
+ * (MySQL has no "create index if not exists"). A named lock keeps concurrent starts
+ * from migrating twice
+ */
+class SchemaMigrator {
+    static final Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+    static final String[] SCRIPTS = {
+            "V1__book_indexes.sql",
+            "V2__borrow_indexes.sql",
+    };
+    static final String LOCK = "JDBCLibrary.schema_version";
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+            "^create\\s+(?:unique\\s+|fulltext\\s+|spatial\\s+)?index\\s+`?(\\w+)`?\\s+on\\s+`?(\\w+)`?",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Connection conn;
+
+    /**
+     * @param conn the connection to migrate with, left in auto commit mode
+     */
+    SchemaMigrator(Connection conn) {
+        this.conn = conn;
+    }
+
+    /**
+     * Apply every script newer than the schema
+     *
+     * @return the number of versions applied
+     * @throws SQLException if the schema cannot be read or a script fails (the versions before it stay)
+     * @throws IOException  if a script cannot be read
+     */
+    int migrate() throws SQLException, IOException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table if not exists schema_version (version int primary key, "
+                    + "description varchar(100) not null, checksum bigint not null, "
+                    + "applied_at timestamp not null default current_timestamp, elapsed_ms bigint not null)");
+            ResultSet rSet = stmt.executeQuery("select get_lock('" + LOCK + "', 60)");
+            if (!rSet.next() || rSet.getInt(1) != 1) {
+                throw new SQLException("Timed out waiting for another instance to migrate the schema");
+            }
+        }
+        try {
+            Map<Integer, Long> applied = new HashMap<>();
+            try (Statement stmt = conn.createStatement()) {
+                ResultSet rSet = stmt.executeQuery("select version, checksum from schema_version");
+                while (rSet.next()) {
+                    applied.put(rSet.getInt(1), rSet.getLong(2));
+                }
+            }
+            int count = 0;
+            int previous = 0;
+            for (String script : SCRIPTS) {
+                int version = version(script);
+                if (version <= previous) {
+                    throw new IllegalStateException("Migration scripts out of order at " + script);
+                }
+                previous = version;
+                String sql = read(script);
+                long checksum = checksum(sql);
+                Long known = applied.get(version);
+                if (known != null) {
+                    if (known != checksum) {
+                        logger.warn("Migration {} changed since it was applied, add a new version instead", script);
+                    }
+                    continue;
+                }
+                apply(version, script, sql, checksum);
+                count++;
+            }
+            logger.info("Schema at version {} ({} migration(s) applied)", previous, count);
+            return count;
+        } finally {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeQuery("select release_lock('" + LOCK + "')");
+            }
+        }
+    }
+
+    private void apply(int version, String script, String sql, long checksum) throws SQLException {
+        long start = System.nanoTime();
+        logger.info("Applying migration {}", script);
+        try (Statement stmt = conn.createStatement()) {
+            for (String statement : split(sql)) {
+                if (indexExists(statement)) {
+                    logger.info("Skipping a statement of {} already applied: {}", script, statement);
+                    continue;
+                }
+                stmt.execute(statement);
+            }
+        }
+        try (PreparedStatement pStmt = conn.prepareStatement(
+                "insert into schema_version (version, description, checksum, elapsed_ms) values (?,?,?,?)")) {
+            pStmt.setInt(1, version);
+            pStmt.setString(2, script.substring(script.indexOf("__") + 2, script.length() - ".sql".length()));
+            pStmt.setLong(3, checksum);
+            pStmt.setLong(4, (System.nanoTime() - start) / 1000000);
+            pStmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Whether the statement creates an index that exists already
+     */
+    private boolean indexExists(String statement) throws SQLException {
+        Matcher matcher = CREATE_INDEX.matcher(statement);
+        if (!matcher.find()) {
+            return false;
+        }
+        try (PreparedStatement pStmt = conn.prepareStatement("select 1 from information_schema.statistics "
+                + "where table_schema = database() and table_name = ? and index_name = ? limit 1")) {
+            pStmt.setString(1, matcher.group(2));
+            pStmt.setString(2, matcher.group(1));
+            try (ResultSet rSet = pStmt.executeQuery()) {
+                return rSet.next();
+            }
+        }
+    }
+
+    private static int version(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+
+    private static String read(String script) throws IOException {
+        try (InputStream in = SchemaMigrator.class.getClassLoader().getResourceAsStream("migrations/" + script)) {
+            if (in == null) {
+                throw new IOException("Cannot find migration script migrations/" + script + " on the classpath");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static long checksum(String sql) {
+        CRC32 crc = new CRC32();
+        crc.update(sql.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * Split a script into statements at the semicolons ending a line, "--" comment lines are dropped
+     *
+     * @param sql the script
+     * @return the statements without their semicolon
+     */
+    static List<String> split(String sql) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder statement = new StringBuilder();
+        for (String line : sql.split("\r?\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+            if (trimmed.endsWith(";")) {
+                statement.append(trimmed, 0, trimmed.length() - 1);
+                statements.add(statement.toString());
+                statement.setLength(0);
+            } else {
+                statement.append(trimmed).append('\n');
+            }
+        }
+        if (statement.length() > 0) {
+            statements.add(statement.toString());
+        }
+        return statements;
+    }
+}
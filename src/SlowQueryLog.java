@@ -0,0 +1,271 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.Temporal;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A log of the statements slower than sql.slowLog.thresholdMillis (executing and fetching
+ * the rows), one line per statement with its fingerprint, bound parameters, timings,
+ * rows and the library operation that ran it (see OperationContext)
+ * The request thread only queues the entry, a background thread formats and writes it
+ * When the queue is full the entry is dropped (and counted) rather than waiting
+ * The file is rotated at sql.slowLog.maxFileBytes: slow-query.log becomes slow-query.log.1,
+ * .1 becomes .2 and so on, sql.slowLog.maxFiles old files are kept
+ */
+class SlowQueryLog {
+    static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+    static final int MAX_PARAMETER_LENGTH = 200;
+
+    /**
+     * A slow statement
+     */
+    static class Entry {
+        final long timeMillis = System.currentTimeMillis();
+        final String thread = Thread.currentThread().getName();
+        final String operation;
+        final String sql;
+        final Object[] parameters; // By index from 1, null if none were bound
+        final long executeNanos;
+        final long fetchNanos;
+        final long rows;
+        final String error; // The SQLState and message if the statement failed
+
+        Entry(String operation, String sql, Object[] parameters, long executeNanos, long fetchNanos, long rows,
+              String error) {
+            this.operation = operation;
+            this.sql = sql;
+            this.parameters = parameters;
+            this.executeNanos = executeNanos;
+            this.fetchNanos = fetchNanos;
+            this.rows = rows;
+            this.error = error;
+        }
+    }
+
+    private static final Entry END = new Entry(null, null, null, 0, 0, 0, null); // Tells the writer to stop
+
+    private final long thresholdNanos;
+    private final Path path;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final BlockingQueue<Entry> queue;
+    private final Thread writer;
+    private BufferedWriter out;
+    private long fileBytes;
+
+    // Statistics
+    private final LongAdder logged = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private SlowQueryLog(LibraryConfig config) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong("sql.slowLog.thresholdMillis", 200));
+        this.path = Paths.get(config.get("sql.slowLog.file", "logs/slow-query.log"));
+        this.maxFileBytes = config.getLong("sql.slowLog.maxFileBytes", 10 * 1024 * 1024);
+        this.maxFiles = Math.max(0, config.getInt("sql.slowLog.maxFiles", 5));
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, config.getInt("sql.slowLog.queueCapacity", 10000)));
+        this.writer = new Thread(this::write, "slow-query-log");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Start the log of the configuration
+     *
+     * @param config the configuration to read sql.slowLog.* from
+     * @return the log, null if sql.slowLog.enabled is false
+     */
+    static SlowQueryLog open(LibraryConfig config) {
+        if (!config.getBoolean("sql.slowLog.enabled", true)) {
+            return null;
+        }
+        SlowQueryLog log = new SlowQueryLog(config);
+        log.writer.start();
+        logger.info("Statements slower than {}ms are logged to {}", TimeUnit.NANOSECONDS.toMillis(log.thresholdNanos),
+                log.path.toAbsolutePath());
+        return log;
+    }
+
+    /**
+     * Whether a statement that took so long is logged
+     */
+    boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    /**
+     * Queue an entry for the writer, never waits
+     */
+    void offer(Entry entry) {
+        if (!queue.offer(entry)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * The writer thread: write the entries as they come, flush when there are no more
+     */
+    private void write() {
+        try {
+            while (true) {
+                Entry entry = queue.take();
+                if (entry == END) {
+                    break;
+                }
+                try {
+                    append(format(entry));
+                    logged.increment();
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    dropped.increment();
+                    logger.warn("Unable to write the slow-query log {}: {}", path, e.getMessage());
+                    closeFile();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeFile();
+        }
+    }
+
+    private void append(String line) throws IOException {
+        if (out == null) {
+            Path dir = path.toAbsolutePath().getParent();
+            if (dir != null) {
+                Files.createDirectories(dir);
+            }
+            out = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+            fileBytes = Files.size(path);
+        }
+        if (fileBytes > 0 && fileBytes + line.length() > maxFileBytes) {
+            rotate();
+            append(line);
+            return;
+        }
+        out.write(line);
+        out.newLine();
+        fileBytes += line.length() + 1; // Close enough for UTF-8, the lines are mostly ASCII
+    }
+
+    /**
+     * Shift the old files by one and start a new one
+     */
+    private void rotate() throws IOException {
+        closeFile();
+        Path dir = path.toAbsolutePath().getParent();
+        String name = path.getFileName().toString();
+        if (maxFiles == 0) {
+            Files.deleteIfExists(path);
+            return;
+        }
+        Files.deleteIfExists(dir.resolve(name + "." + maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path older = dir.resolve(name + "." + i);
+            if (Files.exists(older)) {
+                Files.move(older, dir.resolve(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(path, dir.resolve(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close the slow-query log", e);
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * time operation=... thread=... elapsed=...ms execute=...ms fetch=...ms rows=... [error=...]
+     * sql="..." parameters=[...]
+     */
+    static String format(Entry entry) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.timeMillis), ZoneId.systemDefault()));
+        sb.append(" operation=").append(entry.operation == null ? "-" : entry.operation);
+        sb.append(" thread=").append(entry.thread);
+        sb.append(String.format(" elapsed=%.3fms execute=%.3fms fetch=%.3fms", (entry.executeNanos
+                + entry.fetchNanos) / 1e6, entry.executeNanos / 1e6, entry.fetchNanos / 1e6));
+        sb.append(" rows=").append(entry.rows);
+        if (entry.error != null) {
+            sb.append(" error=\"").append(escape(entry.error)).append('"');
+        }
+        sb.append(" sql=\"").append(escape(entry.sql)).append('"');
+        sb.append(" parameters=[");
+        if (entry.parameters != null) {
+            for (int i = 1; i < entry.parameters.length; i++) {
+                if (i > 1) {
+                    sb.append(", ");
+                }
+                sb.append(parameter(entry.parameters[i]));
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String parameter(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        if (value instanceof Number && !(value instanceof BigDecimal) || value instanceof Boolean) {
+            return value.toString();
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        if (value instanceof CharSequence || value instanceof Date || value instanceof Temporal) {
+            String text = value.toString();
+            if (text.length() > MAX_PARAMETER_LENGTH) {
+                text = text.substring(0, MAX_PARAMETER_LENGTH) + "...";
+            }
+            return "'" + escape(text).replace("'", "''") + "'";
+        }
+        return "<" + value.getClass().getSimpleName() + ">"; // Streams, blobs...
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**
+     * Write what is queued and stop the writer
+     */
+    void close() {
+        queue.offer(END); // Without waiting, when the queue is full the rest is lost anyway
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            writer.interrupt();
+        }
+    }
+
+    String statistics() {
+        return String.format("slow-query log: %d logged, %d dropped", logged.sum(), dropped.sum());
+    }
+}
@@ -0,0 +1,667 @@
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Statistics of the SQL run through the connections of a pool, per statement fingerprint
+ * (the SQL with its literals and lists of placeholders folded, so "in (?,?,?)" and
+ * "in (?,?)" count as one statement)
+ * Every fingerprint counts its executions, errors and rows (returned or affected) with
+ * a histogram of the execute latency (executeQuery, executeUpdate, executeBatch...)
+ * and one of the fetch latency (the time spent in next() over a whole result set)
+ * Recording takes no lock, only the first execution of a new SQL text computes its
+ * fingerprint. It allocates the wrapper of every result set, the bound parameters are
+ * copied for the slow-query log only, once a statement turns out slow
+ * <p>
+ * Exposed as a text snapshot and as JMX MBeans: JDBCLibrary:type=SqlStats,pool=N for the
+ * totals, with a statement=... MBean per fingerprint
+ * Statements slower than a threshold go to the slow-query log with their bound
+ * parameters (see SlowQueryLog)
+ */
+class SqlStats {
+    static final Logger logger = LoggerFactory.getLogger(SqlStats.class);
+    static final String OTHER = "(other statements)";
+    private static final AtomicInteger instances = new AtomicInteger();
+    private static final Pattern LIST = Pattern.compile("\\( ?\\?( ?, ?\\?)* ?\\)");
+    private static final Pattern ROWS = Pattern.compile("\\(\\?\\+\\)( ?, ?\\(\\?\\+\\))+");
+
+    /**
+     * The totals, as seen through JMX
+     */
+    public interface SqlStatsMXBean {
+        int getStatementCount();
+
+        long getExecutions();
+
+        long getErrors();
+
+        String getSnapshot();
+
+        void reset();
+    }
+
+    /**
+     * A statement, as seen through JMX, the latencies in milliseconds
+     */
+    public interface StatementMXBean {
+        String getStatement();
+
+        long getExecutions();
+
+        long getErrors();
+
+        long getRows();
+
+        double getExecuteMeanMillis();
+
+        double getExecuteP50Millis();
+
+        double getExecuteP99Millis();
+
+        double getExecuteMaxMillis();
+
+        double getFetchMeanMillis();
+
+        double getFetchP99Millis();
+
+        double getFetchMaxMillis();
+    }
+
+    /**
+     * The measures of one statement fingerprint
+     */
+    static class Fingerprint implements StatementMXBean {
+        final String sql;
+        final LongAdder executions = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LatencyHistogram execute = new LatencyHistogram();
+        final LatencyHistogram fetch = new LatencyHistogram();
+
+        Fingerprint(String sql) {
+            this.sql = sql;
+        }
+
+        void reset() {
+            executions.reset();
+            errors.reset();
+            rows.reset();
+            execute.reset();
+            fetch.reset();
+        }
+
+        /**
+         * Nanoseconds spent executing and fetching
+         */
+        double totalNanos() {
+            return execute.getMean() * execute.getCount() + fetch.getMean() * fetch.getCount();
+        }
+
+        @Override
+        public String getStatement() {
+            return sql;
+        }
+
+        @Override
+        public long getExecutions() {
+            return executions.sum();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        @Override
+        public long getRows() {
+            return rows.sum();
+        }
+
+        @Override
+        public double getExecuteMeanMillis() {
+            return execute.getMean() / 1e6;
+        }
+
+        @Override
+        public double getExecuteP50Millis() {
+            return execute.percentile(0.50) / 1e6;
+        }
+
+        @Override
+        public double getExecuteP99Millis() {
+            return execute.percentile(0.99) / 1e6;
+        }
+
+        @Override
+        public double getExecuteMaxMillis() {
+            return execute.getMax() / 1e6;
+        }
+
+        @Override
+        public double getFetchMeanMillis() {
+            return fetch.getMean() / 1e6;
+        }
+
+        @Override
+        public double getFetchP99Millis() {
+            return fetch.percentile(0.99) / 1e6;
+        }
+
+        @Override
+        public double getFetchMaxMillis() {
+            return fetch.getMax() / 1e6;
+        }
+    }
+
+    private final Map<String, Fingerprint> byText = new ConcurrentHashMap<>(); // SQL as written
+    private final Map<String, Fingerprint> byFingerprint = new ConcurrentHashMap<>();
+    private final int maxStatements;
+    private final int snapshotLimit;
+    private final Fingerprint other = new Fingerprint(OTHER);
+    private final MBeanServer server;
+    private final String objectName;
+    private final SlowQueryLog slowLog; // null if disabled
+
+    /**
+     * @param config the configuration to read sql.stats.* from
+     */
+    SqlStats(LibraryConfig config) {
+        this.maxStatements = Math.max(1, config.getInt("sql.stats.maxStatements", 500));
+        this.snapshotLimit = config.getInt("sql.stats.snapshotLimit", 20);
+        this.objectName = "JDBCLibrary:type=SqlStats,pool=" + instances.incrementAndGet();
+        this.server = config.getBoolean("sql.stats.jmx", true) ? ManagementFactory.getPlatformMBeanServer() : null;
+        this.slowLog = SlowQueryLog.open(config);
+        register(objectName, new SqlStatsMXBean() {
+            @Override
+            public int getStatementCount() {
+                return byFingerprint.size();
+            }
+
+            @Override
+            public long getExecutions() {
+                return executions();
+            }
+
+            @Override
+            public long getErrors() {
+                return errors();
+            }
+
+            @Override
+            public String getSnapshot() {
+                return snapshot();
+            }
+
+            @Override
+            public void reset() {
+                SqlStats.this.reset();
+            }
+        }, SqlStatsMXBean.class);
+        register(objectName + ",statement=" + ObjectName.quote(OTHER), other, StatementMXBean.class);
+    }
+
+    private <T> void register(String name, T bean, Class<T> type) {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.registerMBean(new StandardMBean(bean, type, true), new ObjectName(name));
+        } catch (JMException e) {
+            logger.warn("Unable to register the MBean {}: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Unregister the MBeans and stop the slow-query log
+     */
+    void close() {
+        if (slowLog != null) {
+            slowLog.close();
+        }
+        if (server == null) {
+            return;
+        }
+        try {
+            for (ObjectName name : server.queryNames(new ObjectName(objectName + ",*"), null)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            logger.warn("Unable to unregister the MBeans of {}: {}", objectName, e.getMessage());
+        }
+    }
+
+    /**
+     * Fold the literals, the whitespace and the lists of placeholders of a statement
+     * "SELECT * FROM book WHERE bno IN (?, ?) AND year > 2000" gives
+     * "select * from book where bno in (?+) and year > ?"
+     *
+     * @param sql the SQL as written
+     * @return the fingerprint
+     */
+    static String fingerprint(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        int n = sql.length();
+        boolean space = false;
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            if (space && sb.length() > 0) {
+                sb.append(' ');
+            }
+            space = false;
+            if (c == '\'' || c == '"') { // A string, with doubled or escaped quotes
+                int j = i + 1;
+                while (j < n) {
+                    char d = sql.charAt(j);
+                    if (d == '\\') {
+                        j += 2;
+                    } else if (d == c && j + 1 < n && sql.charAt(j + 1) == c) {
+                        j += 2;
+                    } else if (d == c) {
+                        break;
+                    } else {
+                        j++;
+                    }
+                }
+                sb.append('?');
+                i = j + 1;
+            } else if (Character.isDigit(c) && (sb.length() == 0 || !isWordChar(sb.charAt(sb.length() - 1)))) {
+                int j = i + 1;
+                while (j < n && (isWordChar(sql.charAt(j)) || sql.charAt(j) == '.')) {
+                    j++;
+                }
+                sb.append('?');
+                i = j;
+            } else {
+                sb.append(Character.toLowerCase(c));
+                i++;
+            }
+        }
+        String folded = LIST.matcher(sb).replaceAll("(?+)");
+        return ROWS.matcher(folded).replaceAll("(?+)");
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /**
+     * The measures of a statement, created on its first execution
+     * Beyond sql.stats.maxStatements fingerprints, new ones are counted together
+     */
+    Fingerprint statement(String sql) {
+        Fingerprint fp = byText.get(sql);
+        if (fp != null) {
+            return fp;
+        }
+        String key = fingerprint(sql);
+        fp = byFingerprint.get(key);
+        if (fp == null) {
+            if (byFingerprint.size() >= maxStatements) {
+                fp = other;
+            } else {
+                Fingerprint created = new Fingerprint(key);
+                fp = byFingerprint.putIfAbsent(key, created);
+                if (fp == null) {
+                    fp = created;
+                    register(objectName + ",statement=" + ObjectName.quote(key), created, StatementMXBean.class);
+                }
+            }
+        }
+        if (byText.size() < 4 * maxStatements) { // Texts with literals in them would grow without end
+            byText.putIfAbsent(sql, fp);
+        }
+        return fp;
+    }
+
+    /**
+     * Wrap a connection so that the statements prepared or created with it are measured
+     *
+     * @param conn the connection to be measured
+     * @return a connection forwarding everything to conn
+     */
+    Connection wrap(Connection conn) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            break;
+                    }
+                    Object result = forward(conn, method, args);
+                    if ("prepareStatement".equals(method.getName()) && args[0] instanceof String) {
+                        return new StatementHandler((Statement) result, statement((String) args[0]))
+                                .proxy(PreparedStatement.class);
+                    } else if (result instanceof Statement && "createStatement".equals(method.getName())) {
+                        return new StatementHandler((Statement) result, null).proxy(Statement.class);
+                    }
+                    return result;
+                });
+    }
+
+    private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Times the executions of a statement and wraps its result sets
+     * Not thread safe, like the statement
+     */
+    private class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        private final Fingerprint prepared; // null for a plain statement, the SQL comes with every call
+        private Fingerprint last;
+        private String batchSql; // The last SQL added to the batch of a plain statement
+        private Object[] parameters; // Bound so far, by index, kept for the slow-query log only
+        private int highestIndex;
+        private ResultSetHandler open;
+
+        StatementHandler(Statement target, Fingerprint prepared) {
+            this.target = target;
+            this.prepared = prepared;
+            this.last = prepared;
+        }
+
+        Object proxy(Class<?> type) {
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "executeQuery", "executeUpdate", "executeLargeUpdate", "execute", "executeBatch",
+                        "executeLargeBatch":
+                    return execute(method, args);
+                case "addBatch":
+                    if (args != null && args[0] instanceof String) {
+                        batchSql = (String) args[0];
+                    }
+                    break;
+                case "getResultSet":
+                    Object rSet = forward(target, method, args);
+                    return rSet == null || last == null ? rSet : resultSet((ResultSet) rSet, last, 0);
+                case "clearParameters":
+                    parameters = null;
+                    highestIndex = 0;
+                    break;
+                case "close":
+                    flush();
+                    break;
+                default:
+                    if (slowLog != null && prepared != null && args != null && args.length >= 2
+                            && args[0] instanceof Integer && method.getName().startsWith("set")) {
+                        bind((Integer) args[0], method.getName().equals("setNull") ? null : args[1]);
+                    }
+                    break;
+            }
+            return forward(target, method, args);
+        }
+
+        private void bind(int index, Object value) {
+            if (index < 1) {
+                return;
+            }
+            if (open != null) {
+                open.detach(); // Its result set may still turn out slow with the parameters it ran with
+            }
+            if (parameters == null || parameters.length <= index) {
+                parameters = parameters == null ? new Object[Math.max(index + 1, 8)]
+                        : Arrays.copyOf(parameters, Math.max(index + 1, parameters.length * 2));
+            }
+            parameters[index] = value;
+            highestIndex = Math.max(highestIndex, index);
+        }
+
+        /**
+         * The parameters bound so far, index 0 unused, null if none
+         */
+        private Object[] parameters() {
+            return parameters == null ? null : Arrays.copyOf(parameters, highestIndex + 1);
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            flush(); // Executing again closes the previous result set
+            Fingerprint fp = prepared;
+            if (fp == null) {
+                String sql = args != null && args[0] instanceof String ? (String) args[0] : batchSql;
+                fp = sql == null ? other : statement(sql);
+            }
+            last = fp;
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = forward(target, method, args);
+            } catch (Throwable e) {
+                long elapsed = System.nanoTime() - start;
+                fp.execute.record(elapsed);
+                fp.errors.increment();
+                if (slowLog != null && slowLog.isSlow(elapsed)) {
+                    String error = e instanceof SQLException ? ((SQLException) e).getSQLState() + " " + e.getMessage()
+                            : e.toString();
+                    slowLog.offer(new SlowQueryLog.Entry(OperationContext.currentName(), fp.sql, parameters(),
+                            elapsed, 0, 0, error));
+                }
+                throw e;
+            }
+            long elapsed = System.nanoTime() - start;
+            fp.execute.record(elapsed);
+            fp.executions.increment();
+            if (result instanceof ResultSet) {
+                return resultSet((ResultSet) result, fp, elapsed);
+            }
+            long rows = 0;
+            if (result instanceof Integer || result instanceof Long) {
+                rows = ((Number) result).longValue();
+            } else if (result instanceof int[]) {
+                for (int n : (int[]) result) {
+                    rows += Math.max(n, 0); // SUCCESS_NO_INFO is negative
+                }
+            } else if (result instanceof long[]) {
+                for (long n : (long[]) result) {
+                    rows += Math.max(n, 0);
+                }
+            }
+            fp.rows.add(rows);
+            if (slowLog != null && slowLog.isSlow(elapsed)) {
+                slowLog.offer(new SlowQueryLog.Entry(OperationContext.currentName(), fp.sql, parameters(), elapsed, 0,
+                        rows, null));
+            }
+            return result;
+        }
+
+        /**
+         * @param executeNanos the time the statement took to execute, the rows are fetched next
+         */
+        private ResultSet resultSet(ResultSet rSet, Fingerprint fp, long executeNanos) {
+            flush();
+            open = new ResultSetHandler(rSet, fp, executeNanos, slowLog == null ? null : parameters, highestIndex);
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class}, open);
+        }
+
+        /**
+         * Count the result set still open, most callers never close theirs
+         */
+        private void flush() {
+            if (open != null) {
+                open.flush();
+                open = null;
+            }
+        }
+    }
+
+    /**
+     * Adds up the time spent in next() and the rows returned, counted once the result
+     * set is exhausted or closed, or its statement executed again or closed
+     */
+    private class ResultSetHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final Fingerprint fp;
+        private final long executeNanos;
+        private Object[] parameters; // As bound when executed: those of the statement until detached
+        private final int highestIndex;
+        private boolean shared = true;
+        private final String operation = OperationContext.currentName();
+        private long fetchNanos;
+        private long rows;
+        private boolean counted;
+
+        ResultSetHandler(ResultSet target, Fingerprint fp, long executeNanos, Object[] parameters,
+                         int highestIndex) {
+            this.target = target;
+            this.fp = fp;
+            this.executeNanos = executeNanos;
+            this.parameters = parameters;
+            this.highestIndex = highestIndex;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "next":
+                    long start = System.nanoTime();
+                    boolean more = (Boolean) forward(target, method, args);
+                    fetchNanos += System.nanoTime() - start;
+                    if (more) {
+                        rows++;
+                    } else {
+                        flush();
+                    }
+                    return more;
+                case "close":
+                    flush();
+                    break;
+                default:
+                    break;
+            }
+            return forward(target, method, args);
+        }
+
+        void flush() {
+            if (!counted) {
+                counted = true;
+                fp.fetch.record(fetchNanos);
+                fp.rows.add(rows);
+                if (slowLog != null && slowLog.isSlow(executeNanos + fetchNanos)) {
+                    Object[] bound = shared && parameters != null ? Arrays.copyOf(parameters, highestIndex + 1)
+                            : parameters;
+                    slowLog.offer(new SlowQueryLog.Entry(operation, fp.sql, bound, executeNanos, fetchNanos, rows,
+                            null));
+                }
+            }
+        }
+
+        /**
+         * Copy the parameters before the statement binds other ones, if they may still be logged
+         */
+        void detach() {
+            if (shared && parameters != null) {
+                parameters = counted ? null : Arrays.copyOf(parameters, highestIndex + 1);
+            }
+            shared = false;
+        }
+    }
+
+    long executions() {
+        long n = other.getExecutions();
+        for (Fingerprint fp : byFingerprint.values()) {
+            n += fp.getExecutions();
+        }
+        return n;
+    }
+
+    long errors() {
+        long n = other.getErrors();
+        for (Fingerprint fp : byFingerprint.values()) {
+            n += fp.getErrors();
+        }
+        return n;
+    }
+
+    /**
+     * Forget the measures so far (the statements stay)
+     */
+    void reset() {
+        other.reset();
+        for (Fingerprint fp : byFingerprint.values()) {
+            fp.reset();
+        }
+    }
+
+    /**
+     * The statements that took the most time (executing and fetching), at most
+     * sql.stats.snapshotLimit of them, the latencies in milliseconds
+     *
+     * @return a line per statement under a header
+     */
+    String snapshot() {
+        List<Fingerprint> fps = new ArrayList<>(byFingerprint.values());
+        if (other.getExecutions() + other.getErrors() > 0) {
+            fps.add(other);
+        }
+        fps.removeIf(fp -> fp.getExecutions() + fp.getErrors() == 0);
+        fps.sort(Comparator.comparingDouble(Fingerprint::totalNanos).reversed());
+        StringBuilder sb = new StringBuilder(String.format(
+                "sql: %d statement(s), %d execution(s), %d error(s)%n%9s %6s %10s %9s %9s %9s %9s %9s %10s  %s%n",
+                byFingerprint.size(), executions(), errors(), "execs", "errors", "rows", "exec avg", "exec p50",
+                "exec p99", "exec max", "fetch p99", "total", "statement"));
+        for (int i = 0; i < fps.size() && (snapshotLimit <= 0 || i < snapshotLimit); i++) {
+            Fingerprint fp = fps.get(i);
+            sb.append(String.format("%9d %6d %10d %9.3f %9.3f %9.3f %9.3f %9.3f %10.1f  %s%n", fp.getExecutions(),
+                    fp.getErrors(), fp.getRows(), fp.getExecuteMeanMillis(), fp.getExecuteP50Millis(),
+                    fp.getExecuteP99Millis(), fp.getExecuteMaxMillis(), fp.getFetchP99Millis(),
+                    fp.totalNanos() / 1e6, fp.sql));
+        }
+        if (snapshotLimit > 0 && fps.size() > snapshotLimit) {
+            sb.append(String.format("... %d more%n", fps.size() - snapshotLimit));
+        }
+        if (slowLog != null) {
+            sb.append(slowLog.statistics()).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+}
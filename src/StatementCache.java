@@ -0,0 +1,258 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A per-connection cache of prepared statements keyed by SQL text
+ * The least recently used statement is closed when the cache is full
+ * Statements handed out ignore close(): their open result set is closed, their parameters
+ * are cleared and the fetch size, max rows and query timeout the borrower changed are
+ * restored instead, so that the next prepare of the same SQL skips the parse/prepare
+ * round trip and starts from a clean statement (no parameters, no queued batch)
+ * A statement is lent to one borrower at a time: preparing the same SQL again while it is
+ * out gives a statement of its own, closed for good on close(). The statements still out
+ * when the connection goes back to the pool are taken back then (closing a connection
+ * closes its statements)
+ * Not thread safe, a connection is only used by one thread at a time
+ */
+class StatementCache {
+    static final Logger logger = LoggerFactory.getLogger(StatementCache.class);
+
+    private final Connection physical;
+    private final int capacity;
+    private final Counters counters;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private final Map<PreparedStatement, Borrowed> lent = new IdentityHashMap<>(); // The statements out
+
+    /**
+     * Hit/miss/eviction counters, shared by all caches of a pool
+     */
+    static class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        @Override
+        public String toString() {
+            long h = hits.sum();
+            long n = h + misses.sum();
+            return String.format("statement cache: %d hit(s), %d miss(es) (%.1f%% hit), %d eviction(s)", h,
+                    misses.sum(), n == 0 ? 0.0 : 100.0 * h / n, evictions.sum());
+        }
+    }
+
+    StatementCache(Connection physical, int capacity, Counters counters) {
+        this.physical = physical;
+        this.capacity = capacity;
+        this.counters = counters;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true); // Access order: iteration starts from the LRU one
+    }
+
+    /**
+     * Get the cached statement for sql or prepare a new one
+     *
+     * @param sql   the SQL text with ? placeholders
+     * @param owner the pooled handle the statement is prepared on, returned by getConnection()
+     * @return a statement whose close() keeps it in the cache
+     * @throws SQLException if the statement cannot be prepared
+     */
+    PreparedStatement prepare(String sql, Connection owner) throws SQLException {
+        PreparedStatement pStmt = statements.get(sql);
+        if (pStmt != null && lent.containsKey(pStmt)) {
+            counters.misses.increment(); // The same SQL twice at once (e.g. nested loops): not cached
+            return lend(physical.prepareStatement(sql), sql, owner);
+        }
+        if (pStmt != null && !pStmt.isClosed()) {
+            counters.hits.increment();
+            pStmt.clearParameters();
+            return lend(pStmt, sql, owner);
+        }
+        counters.misses.increment();
+        pStmt = physical.prepareStatement(sql);
+        statements.put(sql, pStmt);
+        if (statements.size() > capacity) {
+            Iterator<Map.Entry<String, PreparedStatement>> it = statements.entrySet().iterator();
+            PreparedStatement eldest = it.next().getValue();
+            it.remove();
+            counters.evictions.increment();
+            if (!lent.containsKey(eldest)) { // Otherwise closed when given back
+                closeQuietly(eldest);
+            }
+        }
+        return lend(pStmt, sql, owner);
+    }
+
+    private PreparedStatement lend(PreparedStatement pStmt, String sql, Connection owner) {
+        Borrowed borrowed = new Borrowed(pStmt, sql, owner);
+        lent.put(pStmt, borrowed);
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, borrowed);
+    }
+
+    /**
+     * Take a statement back from its borrower: reset it if it is still cached, close it otherwise
+     */
+    private void giveBack(Borrowed borrowed) throws SQLException {
+        PreparedStatement pStmt = borrowed.pStmt;
+        boolean cached = lent.remove(pStmt) != null && statements.get(borrowed.sql) == pStmt;
+        if (!cached) {
+            pStmt.close();
+            return;
+        }
+        try {
+            borrowed.reset();
+        } catch (SQLException e) {
+            statements.remove(borrowed.sql, pStmt); // Not fit for the next borrower
+            closeQuietly(pStmt);
+            throw e;
+        }
+    }
+
+    /**
+     * Take back the statements the borrower of the connection left open, called when the
+     * connection goes back to the pool
+     */
+    void giveBackAll() {
+        for (Borrowed borrowed : List.copyOf(lent.values())) {
+            borrowed.closed = true;
+            try {
+                giveBack(borrowed);
+            } catch (SQLException e) {
+                logger.debug("Unable to reset the statement left open", e);
+            }
+        }
+    }
+
+    /**
+     * Close every cached statement, called when the physical connection is closed
+     */
+    void close() {
+        for (PreparedStatement pStmt : statements.values()) {
+            closeQuietly(pStmt);
+        }
+        statements.clear();
+        lent.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement pStmt) {
+        try {
+            pStmt.close();
+        } catch (SQLException e) {
+            logger.debug("Unable to close the cached statement", e);
+        }
+    }
+
+    /**
+     * Hide close() of the cached statement from the caller: close() gives the statement
+     * back for the next borrower, after which this borrower can no longer use it
+     */
+    private class Borrowed implements InvocationHandler {
+        private final PreparedStatement pStmt;
+        private final String sql;
+        private final Connection owner;
+        private boolean closed;
+        private ResultSet resultSet; // The last one handed out, closed with the statement
+        // The settings before the borrower changed them, null if unchanged
+        private Integer fetchSize;
+        private Long maxRows;
+        private Integer queryTimeout;
+
+        Borrowed(PreparedStatement pStmt, String sql, Connection owner) {
+            this.pStmt = pStmt;
+            this.sql = sql;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        giveBack(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || pStmt.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Statement has already been closed");
+            }
+            switch (method.getName()) {
+                case "getConnection":
+                    return owner;
+                case "setFetchSize":
+                    if (fetchSize == null) {
+                        fetchSize = pStmt.getFetchSize();
+                    }
+                    break;
+                case "setMaxRows", "setLargeMaxRows":
+                    if (maxRows == null) {
+                        maxRows = pStmt.getLargeMaxRows();
+                    }
+                    break;
+                case "setQueryTimeout":
+                    if (queryTimeout == null) {
+                        queryTimeout = pStmt.getQueryTimeout();
+                    }
+                    break;
+                default:
+                    break;
+            }
+            Object result;
+            try {
+                result = method.invoke(pStmt, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof ResultSet) {
+                resultSet = (ResultSet) result;
+            }
+            return result;
+        }
+
+        /**
+         * Leave the statement as it was prepared
+         */
+        private void reset() throws SQLException {
+            if (pStmt.isClosed()) {
+                return;
+            }
+            if (resultSet != null) {
+                resultSet.close(); // A streamed one would otherwise keep the connection busy
+                resultSet = null;
+            }
+            if (fetchSize != null) {
+                pStmt.setFetchSize(fetchSize);
+            }
+            if (maxRows != null) {
+                pStmt.setLargeMaxRows(maxRows);
+            }
+            if (queryTimeout != null) {
+                pStmt.setQueryTimeout(queryTimeout);
+            }
+            pStmt.clearBatch(); // A borrower that failed before executeBatch leaves its rows queued
+            pStmt.clearParameters();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Print rows as a fixed width table through one buffered writer
+ * The column widths are computed from the rows, which the caller already holds (a page
+ * or a bounded result), cells wider than maxColumnWidth are truncated
+ * Every table printed is a jdbclibrary.Render event (see LibraryEvents)
+ */
+class TableRenderer {
+    static final int WIDTH_MORE = 2; // The width of a column - the width of the widest element
+    static final String NULL = "NULL";
+    static final String ELLIPSIS = "...";
+
+    private final PrintWriter out;
+    private final int maxColumnWidth;
+
+    /**
+     * @param out            the stream to write to (not closed by the renderer)
+     * @param maxColumnWidth the widest a column can get, longer values are truncated
+     */
+    TableRenderer(OutputStream out, int maxColumnWidth) {
+        this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out), 1 << 16), false);
+        this.maxColumnWidth = Math.max(ELLIPSIS.length() + 1, maxColumnWidth);
+    }
+
+    /**
+     * Print rows with the given header, sizing the columns in a first pass over them
+     *
+     * @param names the column names
+     * @param rows  the rows to be printed, every row has names.length values
+     */
+    void render(String[] names, Iterable<String[]> rows) {
+        LibraryEvents.Render event = new LibraryEvents.Render();
+        event.begin();
+        int[] colW = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            colW[i] = names[i].length();
+        }
+        for (String[] row : rows) {
+            for (int i = 0; i < names.length; i++) {
+                colW[i] = Math.max(colW[i], row[i] == null ? NULL.length() : row[i].length());
+            }
+        }
+        int colWSum = 0;
+        for (int i = 0; i < names.length; i++) {
+            colW[i] = Math.min(colW[i], maxColumnWidth) + WIDTH_MORE;
+            colWSum += colW[i];
+        }
+        printLine('-', colWSum);
+        printRow(names, colW);
+        printLine('-', colWSum);
+        long count = 0;
+        for (String[] row : rows) {
+            printRow(row, colW);
+            count++;
+        }
+        printLine('-', colWSum);
+        out.flush();
+        commit(event, names.length, count);
+    }
+
+    private static void commit(LibraryEvents.Render event, int columns, long rows) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.columns = columns;
+            event.rows = rows;
+            event.commit();
+        }
+    }
+
+    /**
+     * Print every value right aligned in its column
+     */
+    private void printRow(String[] row, int[] colW) {
+        for (int i = 0; i < colW.length; i++) {
+            String colV = row[i] == null ? NULL : row[i];
+            int room = colW[i] - WIDTH_MORE;
+            if (colV.length() > room) { // Truncate wide cells
+                colV = colV.substring(0, room - ELLIPSIS.length()) + ELLIPSIS;
+            }
+            for (int pad = colW[i] - colV.length(); pad > 0; pad--) {
+                out.write(' ');
+            }
+            out.write(colV);
+        }
+        out.println();
+    }
+
+    /**
+     * Print a line of ch, total number is count
+     */
+    private void printLine(char ch, int count) {
+        for (int i = 0; i < count; i++) {
+            out.write(ch);
+        }
+        out.println();
+    }
+}
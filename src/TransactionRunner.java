@@ -0,0 +1,174 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Run a transaction again when it failed for a transient reason
+ * Deadlocks (1213) and lock wait timeouts (1205), or anything else of SQLState class 40
+ * (transaction rollback), are retried up to maxAttempts times, sleeping a random time
+ * between 0 and base * 2^retry (at most maxDelay) in between ("full jitter", so the
+ * transactions that collided don't collide again). Any other failure is thrown at once
+ * The work must be a whole transaction that leaves nothing behind when it throws
+ * Retries and contention are counted per operation name
+ */
+class TransactionRunner {
+    static final Logger logger = LoggerFactory.getLogger(TransactionRunner.class);
+
+    // MySQL error codes
+    static final int DEADLOCK = 1213;
+    static final int LOCK_WAIT_TIMEOUT = 1205;
+
+    /**
+     * A transaction, run on the connection given
+     */
+    interface Work<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Map<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxAttempts     the number of tries of a transaction, 1 disables retries
+     * @param baseDelayMillis the upper bound of the first backoff
+     * @param maxDelayMillis  the upper bound of any backoff
+     */
+    TransactionRunner(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * A runner with the limits of the configuration (tx.*)
+     *
+     * @param config the configuration
+     */
+    TransactionRunner(LibraryConfig config) {
+        this(config.getInt("tx.maxAttempts", 5), config.getLong("tx.baseDelayMillis", 10),
+                config.getLong("tx.maxDelayMillis", 1000));
+    }
+
+    /**
+     * Run a transaction, again after a transient failure
+     *
+     * @param operation the name the metrics are kept under
+     * @param conn      the connection to run it on
+     * @param work      the transaction
+     * @return the result of the first successful run
+     * @throws SQLException the permanent failure, or the last transient one once the attempts are used up
+     */
+    <T> T run(String operation, Connection conn, Work<T> work) throws SQLException {
+        Metrics m = metrics.computeIfAbsent(operation, name -> new Metrics());
+        m.calls.increment();
+        long start = System.nanoTime();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return work.run(conn);
+                } catch (SQLException e) {
+                    int code = errorCode(e);
+                    if (code == DEADLOCK) {
+                        m.deadlocks.increment();
+                    } else if (code == LOCK_WAIT_TIMEOUT) {
+                        m.lockTimeouts.increment();
+                    }
+                    if (!isTransient(e)) {
+                        m.failures.increment();
+                        throw e;
+                    }
+                    if (attempt >= maxAttempts) {
+                        m.exhausted.increment();
+                        throw e;
+                    }
+                    long delay = ThreadLocalRandom.current().nextLong(
+                            Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20)) + 1);
+                    logger.debug("{} failed with {} (attempt {}), retrying in {}ms", operation, e.getMessage(),
+                            attempt, delay);
+                    m.retries.increment();
+                    m.backoffMillis.add(delay);
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            m.nanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Whether running the transaction again may succeed
+     *
+     * @param e the failure, its chain is searched too
+     * @return true for deadlocks, lock wait timeouts and other transaction rollbacks
+     */
+    static boolean isTransient(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLTransactionRollbackException) {
+                return true;
+            }
+            if (t instanceof SQLException) {
+                SQLException s = (SQLException) t;
+                String state = s.getSQLState();
+                if (s.getErrorCode() == DEADLOCK || s.getErrorCode() == LOCK_WAIT_TIMEOUT
+                        || (state != null && state.startsWith("40"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int errorCode(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException && ((SQLException) t).getErrorCode() != 0) {
+                return ((SQLException) t).getErrorCode();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Retries and contention of every operation in a human readable form
+     *
+     * @return one line per operation
+     */
+    String statistics() {
+        StringBuilder sb = new StringBuilder("transactions:");
+        for (Map.Entry<String, Metrics> entry : new TreeMap<>(metrics).entrySet()) {
+            Metrics m = entry.getValue();
+            long calls = m.calls.sum();
+            sb.append(String.format("%n  %s: %d call(s), %d retry(ies) (%.2f per call), %d deadlock(s), "
+                            + "%d lock wait timeout(s), %d given up, %d failed, %.1fms backed off, %.2fms per call",
+                    entry.getKey(), calls, m.retries.sum(), calls == 0 ? 0.0 : (double) m.retries.sum() / calls,
+                    m.deadlocks.sum(), m.lockTimeouts.sum(), m.exhausted.sum(), m.failures.sum(),
+                    (double) m.backoffMillis.sum(), calls == 0 ? 0.0 : m.nanos.sum() / 1e6 / calls));
+        }
+        return sb.toString();
+    }
+
+    private static class Metrics {
+        final LongAdder calls = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder deadlocks = new LongAdder();
+        final LongAdder lockTimeouts = new LongAdder();
+        final LongAdder exhausted = new LongAdder(); // Still transient after the last attempt
+        final LongAdder failures = new LongAdder(); // Permanent failures
+        final LongAdder backoffMillis = new LongAdder();
+        final LongAdder nanos = new LongAdder(); // Total time including the retries
+    }
+}
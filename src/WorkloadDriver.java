@@ -0,0 +1,466 @@
+import java.io.Console;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drive the library with a mix of operations from many simulated readers, then report
+ * the throughput and the latency percentiles of every operation
+ * The operations are the ones of the console, through LibraryService: a book by number,
+ * a book by title, a year or price range, a borrow, a return (of a book the reader has,
+ * a borrow if none) and a card update. The books are picked with Zipf's law
+ * (workload.zipfExponent), so a few titles are hot and their rows are fought over
+ * <p>
+ * closed: workload.readers threads, each a reader doing one operation after the
+ * other (with workload.thinkMillis in between), the load adapts to the latency
+ * open: operations arrive at workload.rate per second (Poisson) whatever the latency,
+ * served by workload.threads threads; the latency is counted from the arrival, so
+ * the queueing of an overloaded library shows (no coordinated omission)
+ * <p>
+ * The readers get cards of their own (card numbers from 8000000), every random choice
+ * derives from workload.seed. The settings are the workload.* keys of jdbclibrary.properties
+ * (or -Djdbclibrary.workload.mode=open ...)
+ * java WorkloadDriver [-u user] [-p]
+ */
+class WorkloadDriver {
+    static final Logger logger = LoggerFactory.getLogger(WorkloadDriver.class);
+    static final int FIRST_CARD = 8_000_000;
+
+    enum Op {
+        LOOKUP, SEARCH, RANGE, BORROW, RETURN, CARD
+    }
+
+    /**
+     * The measures of one operation
+     */
+    static class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+
+        void reset() {
+            latency.reset();
+            errors.reset();
+            outcomes.clear();
+        }
+    }
+
+    /**
+     * A simulated reader: a card and the books borrowed with it
+     */
+    private static class Reader {
+        final String cno;
+        final int number;
+        private final ArrayDeque<String> loans = new ArrayDeque<>();
+
+        Reader(int number) {
+            this.number = number;
+            this.cno = Integer.toString(FIRST_CARD + number);
+        }
+
+        synchronized void borrowed(String bno) {
+            loans.add(bno);
+        }
+
+        synchronized String takeLoan() {
+            return loans.poll();
+        }
+
+        synchronized List<String> takeAll() {
+            List<String> all = new ArrayList<>(loans);
+            loans.clear();
+            return all;
+        }
+    }
+
+    private final LibraryService service;
+    private final boolean open;
+    private final int readerCount;
+    private final int threads;
+    private final double rate;
+    private final int maxOutstanding;
+    private final long seconds;
+    private final long warmupSeconds;
+    private final long thinkMillis;
+    private final long seed;
+    private final double zipfExponent;
+    private final int maxBooks;
+    private final Op[] ops = Op.values();
+    private final int[] mix = new int[ops.length]; // Cumulative weights
+
+    private final Map<Op, Stats> stats = new EnumMap<>(Op.class);
+    private final LongAdder dropped = new LongAdder(); // Open loop arrivals beyond maxOutstanding
+    private Reader[] readers;
+    private String[] bnos; // In order of popularity
+    private String[] titles;
+    private int minYear = Integer.MAX_VALUE;
+    private int maxYear = Integer.MIN_VALUE;
+    private BigDecimal minPrice;
+    private BigDecimal maxPrice;
+    private Zipf zipf;
+    private volatile boolean measuring;
+
+    /**
+     * @param service the service to drive, its configuration holds the workload.* settings
+     */
+    WorkloadDriver(LibraryService service) {
+        LibraryConfig config = service.getConfig();
+        this.service = service;
+        this.open = "open".equalsIgnoreCase(config.get("workload.mode", "closed"));
+        this.readerCount = Math.max(1, config.getInt("workload.readers", 64));
+        this.threads = Math.max(1, config.getInt("workload.threads", 2 * config.getInt("pool.maxSize", 10)));
+        this.rate = Math.max(1e-3, Double.parseDouble(config.get("workload.rate", "500")));
+        this.maxOutstanding = Math.max(1, config.getInt("workload.maxOutstanding", 10000));
+        this.seconds = Math.max(1, config.getLong("workload.seconds", 60));
+        this.warmupSeconds = Math.max(0, config.getLong("workload.warmupSeconds", 10));
+        this.thinkMillis = Math.max(0, config.getLong("workload.thinkMillis", 0));
+        this.seed = config.getLong("workload.seed", 42);
+        this.zipfExponent = Double.parseDouble(config.get("workload.zipfExponent", "0.99"));
+        this.maxBooks = config.getInt("workload.books", 0);
+        String[] weights = config.get("workload.mix", "lookup:20,search:30,range:10,borrow:15,return:15,card:10")
+                .split(",");
+        for (String weight : weights) {
+            String[] kv = weight.split(":");
+            Op op = Op.valueOf(kv[0].trim().toUpperCase());
+            mix[op.ordinal()] = Integer.parseInt(kv[1].trim());
+        }
+        for (int i = 1; i < mix.length; i++) {
+            mix[i] += mix[i - 1];
+        }
+        if (mix[mix.length - 1] <= 0) {
+            throw new IllegalArgumentException("workload.mix has no operation");
+        }
+        for (Op op : ops) {
+            stats.put(op, new Stats());
+        }
+    }
+
+    /**
+     * Read the catalog and give every reader a card
+     */
+    void prepare() throws SQLException {
+        List<String> numbers = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        String last = "";
+        while (maxBooks <= 0 || numbers.size() < maxBooks) {
+            List<Book> page = service.booksAfter(last, 10000);
+            if (page.isEmpty()) {
+                break;
+            }
+            for (Book book : page) {
+                numbers.add(book.bno);
+                names.add(book.title);
+                minYear = Math.min(minYear, book.year);
+                maxYear = Math.max(maxYear, book.year);
+                if (book.price != null) {
+                    minPrice = minPrice == null || book.price.compareTo(minPrice) < 0 ? book.price : minPrice;
+                    maxPrice = maxPrice == null || book.price.compareTo(maxPrice) > 0 ? book.price : maxPrice;
+                }
+            }
+            last = page.get(page.size() - 1).bno;
+        }
+        if (numbers.isEmpty()) {
+            throw new IllegalStateException("There is no book to drive the workload with");
+        }
+        int n = maxBooks > 0 ? Math.min(maxBooks, numbers.size()) : numbers.size();
+
+        // The popularity order is a shuffle, so the hot books are spread over the key space
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        bnos = new String[n];
+        titles = new String[n];
+        for (int i = 0; i < n; i++) {
+            bnos[i] = numbers.get(order[i]);
+            titles[i] = names.get(order[i]);
+        }
+        zipf = new Zipf(n, zipfExponent);
+        logger.info("{} book(s), the most popular 1% get {}% of the picks", n,
+                String.format("%.1f", 100 * zipf.share(Math.max(1, n / 100))));
+
+        readers = new Reader[readerCount];
+        for (int i = 0; i < readerCount; i++) {
+            readers[i] = new Reader(i);
+            service.putCard(new Card(readers[i].cno, "Reader " + i, "Workload", i % 2 == 0 ? "S" : "T"));
+            // Borrows left over by a previous run are returned first
+            for (Loan loan : service.loans(readers[i].cno)) {
+                service.giveBack(loan.cno, loan.bno);
+            }
+        }
+    }
+
+    /**
+     * Run the warm up then the measured period
+     *
+     * @return the measured seconds
+     */
+    double run() throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long deadline = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        logger.info("{} loop, {} reader(s), {}s of warm up then {}s measured", open ? "Open" : "Closed",
+                readerCount, warmupSeconds, seconds);
+
+        Thread starter = new Thread(() -> {
+            LockSupport.parkNanos(measureFrom - System.nanoTime());
+            for (Stats s : stats.values()) {
+                s.reset();
+            }
+            dropped.reset();
+            measuring = true;
+        }, "workload-measure");
+        starter.setDaemon(true);
+        starter.start();
+
+        if (open) {
+            runOpen(start, deadline);
+        } else {
+            runClosed(deadline);
+        }
+        measuring = false;
+        return (Math.min(System.nanoTime(), deadline) - measureFrom) / 1e9;
+    }
+
+    private void runClosed(long deadline) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>(readerCount);
+        for (Reader reader : readers) {
+            SplittableRandom random = new SplittableRandom(seed + 1 + reader.number);
+            Thread t = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    execute(pick(random), reader, random, System.nanoTime());
+                    if (thinkMillis > 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(thinkMillis));
+                    }
+                }
+            }, "workload-reader-" + reader.number);
+            t.start();
+            workers.add(t);
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+    }
+
+    private void runOpen(long start, long deadline) throws InterruptedException {
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "workload-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger outstanding = new AtomicInteger();
+        SplittableRandom random = new SplittableRandom(seed);
+        double next = start;
+        while (true) {
+            next += -Math.log(1 - random.nextDouble()) / rate * 1e9; // Exponential inter-arrival times
+            long arrival = (long) next;
+            if (arrival >= deadline) {
+                break;
+            }
+            long wait = arrival - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Op op = pick(random);
+            Reader reader = readers[random.nextInt(readers.length)];
+            SplittableRandom own = random.split();
+            if (outstanding.get() >= maxOutstanding) {
+                dropped.increment();
+                continue;
+            }
+            outstanding.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    execute(op, reader, own, arrival);
+                } finally {
+                    outstanding.decrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private Op pick(SplittableRandom random) {
+        int r = random.nextInt(mix[mix.length - 1]);
+        for (int i = 0; i < mix.length; i++) {
+            if (r < mix[i]) {
+                return ops[i];
+            }
+        }
+        return ops[ops.length - 1];
+    }
+
+    /**
+     * Do an operation and record its latency from start
+     */
+    private void execute(Op op, Reader reader, SplittableRandom random, long start) {
+        String outcome;
+        try {
+            switch (op) {
+                case LOOKUP -> outcome = service.getBook(bnos[zipf.next(random)]) == null ? "missing" : "found";
+                case SEARCH -> outcome = service.findBooks(LibraryService.By.TITLE,
+                        titles[zipf.next(random)], null, 101).isEmpty() ? "none" : "found";
+                case RANGE -> {
+                    List<Book> found;
+                    if (random.nextBoolean() || minPrice == null) {
+                        int from = minYear + random.nextInt(maxYear - minYear + 1);
+                        found = service.booksByYear(from, from, null, 101);
+                    } else {
+                        BigDecimal width = maxPrice.subtract(minPrice).movePointLeft(2); // 1% of the prices
+                        BigDecimal from = minPrice.add(maxPrice.subtract(minPrice)
+                                .multiply(BigDecimal.valueOf(random.nextDouble())));
+                        found = service.booksByPrice(from.setScale(2, RoundingMode.DOWN),
+                                from.add(width).setScale(2, RoundingMode.UP), null, 101);
+                    }
+                    outcome = found.size() > 100 ? "over 100" : found.isEmpty() ? "none" : "found";
+                }
+                case BORROW -> outcome = borrow(reader, random);
+                case RETURN -> {
+                    String bno = reader.takeLoan();
+                    if (bno == null) { // Nothing to return, borrow instead
+                        op = Op.BORROW;
+                        outcome = borrow(reader, random);
+                    } else {
+                        outcome = service.giveBack(reader.cno, bno).name();
+                    }
+                }
+                case CARD -> outcome = service.putCard(new Card(reader.cno, "Reader " + reader.number,
+                        "Workload " + random.nextInt(20), reader.number % 2 == 0 ? "S" : "T")) > 0 ? "changed"
+                        : "same";
+                default -> throw new IllegalStateException();
+            }
+        } catch (SQLException e) {
+            if (measuring) {
+                stats.get(op).errors.increment();
+            }
+            logger.debug("{} failed: {}", op, e.getMessage());
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (measuring) {
+            Stats s = stats.get(op);
+            s.latency.record(elapsed);
+            s.outcomes.computeIfAbsent(outcome, o -> new LongAdder()).increment();
+        }
+    }
+
+    private String borrow(Reader reader, SplittableRandom random) throws SQLException {
+        String bno = bnos[zipf.next(random)];
+        LocalDate today = LocalDate.now(ZoneId.systemDefault());
+        Circulation.Outcome outcome = service.borrow(reader.cno, bno, today, today.plusDays(14));
+        if (outcome == Circulation.Outcome.OK) {
+            reader.borrowed(bno);
+        }
+        return outcome.name();
+    }
+
+    /**
+     * Return every book the readers still have
+     */
+    void cleanUp() {
+        int returned = 0;
+        for (Reader reader : readers) {
+            for (String bno : reader.takeAll()) {
+                try {
+                    service.giveBack(reader.cno, bno);
+                    returned++;
+                } catch (SQLException e) {
+                    logger.warn("Unable to return {} of {}: {}", bno, reader.cno, e.getMessage());
+                }
+            }
+        }
+        logger.info("{} book(s) returned", returned);
+    }
+
+    /**
+     * The throughput and latencies of every operation
+     *
+     * @param elapsedSeconds the measured seconds
+     */
+    String report(double elapsedSeconds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s loop, %d reader(s), %.1fs measured%s%n", open ? "Open" : "Closed", readerCount,
+                elapsedSeconds, open ? String.format(", %.1f arrivals/s offered, %d dropped", rate, dropped.sum())
+                        : ""));
+        sb.append(String.format("%-7s %9s %9s %7s %9s %9s %9s %9s %9s%n", "op", "count", "ops/s", "errors",
+                "p50 ms", "p95 ms", "p99 ms", "p999 ms", "max ms"));
+        LatencyHistogram all = new LatencyHistogram();
+        long errors = 0;
+        for (Map.Entry<Op, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            all.add(s.latency);
+            errors += s.errors.sum();
+            line(sb, entry.getKey().name().toLowerCase(), s.latency, s.errors.sum(), elapsedSeconds);
+        }
+        line(sb, "all", all, errors, elapsedSeconds);
+        for (Map.Entry<Op, Stats> entry : stats.entrySet()) {
+            if (!entry.getValue().outcomes.isEmpty()) {
+                Map<String, Long> outcomes = new TreeMap<>();
+                entry.getValue().outcomes.forEach((k, v) -> outcomes.put(k, v.sum()));
+                sb.append(String.format("%s outcomes: %s%n", entry.getKey().name().toLowerCase(), outcomes));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, LatencyHistogram h, long errors, double seconds) {
+        sb.append(String.format("%-7s %9d %9.1f %7d %9.3f %9.3f %9.3f %9.3f %9.3f%n", name, h.getCount(),
+                h.getCount() / seconds, errors, h.percentile(0.50) / 1e6, h.percentile(0.95) / 1e6,
+                h.percentile(0.99) / 1e6, h.percentile(0.999) / 1e6, h.getMax() / 1e6));
+    }
+
+    public static void main(String[] args) throws Exception {
+        String userID = System.getenv().get("USERNAME");
+        userID = userID == null ? "jdbc" : userID;
+        String userPassword = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("-u".equals(args[i]) && i != args.length - 1) {
+                userID = args[++i];
+            } else if ("-p".equals(args[i])) {
+                Console console = System.console();
+                System.out.print("Please input your password: ");
+                userPassword = console == null ? new java.util.Scanner(System.in).next()
+                        : new String(console.readPassword());
+            }
+        }
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        LibraryConfig config = LibraryConfig.load();
+        try (LibraryService service = LibraryService.open(config, userID, userPassword)) {
+            WorkloadDriver driver = new WorkloadDriver(service);
+            driver.prepare();
+            double elapsed = driver.run();
+            if (config.getBoolean("workload.cleanUp", true)) {
+                driver.cleanUp();
+            }
+            System.out.print(driver.report(elapsed));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Ranks from 0 to n - 1 drawn with Zipf's law: rank k comes up in proportion to
+ * 1 / (k + 1)^exponent, so a few ranks get most of the draws (exponent 0 is uniform,
+ * around 1 is what titles in a library or a shop look like)
+ * The cumulative distribution is computed once (8 bytes per rank), a draw is a binary
+ * search. Safe to share between threads, each bringing its own random source
+ */
+class Zipf {
+    private final double[] cdf;
+
+    /**
+     * @param n        the number of ranks, at least 1
+     * @param exponent the skew, at least 0
+     */
+    Zipf(int n, double exponent) {
+        if (n < 1 || exponent < 0) {
+            throw new IllegalArgumentException("Zipf needs n >= 1 and exponent >= 0");
+        }
+        cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cdf[k] /= sum;
+        }
+        cdf[n - 1] = 1;
+    }
+
+    /**
+     * A rank, 0 the most frequent
+     */
+    int next(SplittableRandom random) {
+        int k = Arrays.binarySearch(cdf, random.nextDouble());
+        return k >= 0 ? k : -k - 1;
+    }
+
+    int size() {
+        return cdf.length;
+    }
+
+    /**
+     * The share of the draws that fall on the first ranks
+     *
+     * @param ranks the number of most frequent ranks
+     */
+    double share(int ranks) {
+        return ranks <= 0 ? 0 : cdf[Math.min(ranks, cdf.length) - 1];
+    }
+}
@@ -0,0 +1,15 @@
+-- Secondary indexes of table book, one per column the queries filter on
+-- (InnoDB secondary indexes carry the primary key, so "select bno ... where x=?" is covered)
+
+CREATE INDEX `idx_book_title` ON `book` (`title`);
+
+CREATE INDEX `idx_book_category` ON `book` (`category`);
+
+CREATE INDEX `idx_book_press` ON `book` (`press`);
+
+CREATE INDEX `idx_book_author` ON `book` (`author`);
+
+-- year and price also cover the range index build ("select bno, year, price from book")
+CREATE INDEX `idx_book_year_price` ON `book` (`year`, `price`);
+
+CREATE INDEX `idx_book_price` ON `book` (`price`);
@@ -0,0 +1,5 @@
+-- Lookups of the borrow records of a book (bno alone cannot use the (cno, bno) primary key)
+-- The index also covers the nearest return date of a book, and it replaces the index
+-- MySQL created implicitly for the foreign key on bno
+
+CREATE INDEX `idx_borrow_bno_return_date` ON `borrow` (`bno`, `return_date`);